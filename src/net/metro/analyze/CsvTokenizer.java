@@ -0,0 +1,506 @@
+/*******************************************************************************
+ * MASS (Metro Analytics Software System) by Sean Harger
+ * is licensed under a Creative Commons Attribution-NonCommercial-ShareAlike 3.0
+ * United States License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by-nc-sa/3.0/us/.
+ ******************************************************************************/
+package net.metro.analyze;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads comma delimited records from a channel through a reusable direct
+ * {@code ByteBuffer}. Each call to {@code nextRecord()} only records where the
+ * fields of the next line start and end; numeric fields are parsed straight
+ * from the bytes, and {@code String}s are only created for the fields that
+ * are asked for with {@code getString()}. Nothing is allocated per record
+ * unless a line is longer than the buffer.
+ * 
+ * Malformed numbers do not throw exceptions, which would cost more than the
+ * line itself: the typed accessors return {@code 0} and the first malformed
+ * field of the record is reported by {@code getMalformedField()}.
+ * 
+ * Fields are not quoted and may not contain commas, which matches the files
+ * written by MASS. Blank lines are skipped and text is decoded as UTF-8.
+ * 
+ * @author Sean Harger
+ * 
+ */
+public class CsvTokenizer {
+	private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+	private static final int MAX_FIELDS = 16;
+
+	// characters that may start the part of a valid number that is handed
+	// to Double.parseDouble(), such as an exponent or a special value
+	private static final String SLOW_NUMBER_SYNTAX = "eEINxXpPdDfF \t";
+
+	// powers of ten that are exactly representable as doubles
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+			1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+			1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private final ReadableByteChannel channel;
+	private ByteBuffer buffer;
+	private long bufferOffset; // offset in the input of buffer index 0
+	private boolean endOfInput;
+
+	private int numFields;
+	private int[] fieldStarts;
+	private int[] fieldEnds;
+	private long recordNumber;
+	private long recordOffset;
+	private int malformedField;
+
+	/**
+	 * Constructs a {@code CsvTokenizer} reading from the specified channel.
+	 * 
+	 * @param chnl
+	 *            channel to read records from
+	 */
+	public CsvTokenizer(ReadableByteChannel chnl) {
+		this(chnl, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Constructs a {@code CsvTokenizer} reading from the specified channel
+	 * with a buffer of the specified size.
+	 * 
+	 * @param chnl
+	 *            channel to read records from
+	 * @param bufferSize
+	 *            size of the read buffer in bytes
+	 */
+	public CsvTokenizer(ReadableByteChannel chnl, int bufferSize) {
+		channel = chnl;
+		buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, 64));
+		buffer.limit(0);
+		bufferOffset = 0;
+		endOfInput = false;
+
+		fieldStarts = new int[MAX_FIELDS];
+		fieldEnds = new int[MAX_FIELDS];
+		numFields = 0;
+		recordNumber = 0;
+		recordOffset = -1;
+		malformedField = -1;
+	}
+
+	/**
+	 * Advances to the next non-blank line of the input.
+	 * 
+	 * @return {@code true} if a record was read, {@code false} at the end of
+	 *         the input.
+	 * @throws IOException
+	 *             if the channel cannot be read
+	 */
+	public boolean nextRecord() throws IOException {
+		while (true) {
+			int lineEnd = findLineEnd();
+			if (lineEnd < 0) {
+				numFields = 0;
+				return false;
+			}
+
+			int lineStart = buffer.position();
+			buffer.position(lineEnd < buffer.limit() ? lineEnd + 1 : lineEnd);
+
+			int contentEnd = lineEnd;
+			if (contentEnd > lineStart && buffer.get(contentEnd - 1) == '\r') {
+				contentEnd--;
+			}
+			if (contentEnd > lineStart) {
+				splitFields(lineStart, contentEnd);
+				malformedField = -1;
+				recordNumber++;
+				recordOffset = bufferOffset + lineStart;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of records read so far, which is the number of the
+	 * current record counting from {@code 1}.
+	 * 
+	 * @return the number of records read so far.
+	 */
+	public long getRecordNumber() {
+		return recordNumber;
+	}
+
+	/**
+	 * Returns the offset in the input, in bytes, at which the current record
+	 * starts.
+	 * 
+	 * @return the byte offset of the current record.
+	 */
+	public long getRecordOffset() {
+		return recordOffset;
+	}
+
+	/**
+	 * Returns the number of fields in the current record.
+	 * 
+	 * @return the number of fields in the current record.
+	 */
+	public int getFieldCount() {
+		return numFields;
+	}
+
+	/**
+	 * Returns the first field of the current record that a typed accessor
+	 * could not parse as a number.
+	 * 
+	 * @return the index of the field, or {@code -1} if every number read so
+	 *         far from the current record was valid.
+	 */
+	public int getMalformedField() {
+		return malformedField;
+	}
+
+	/**
+	 * Returns a copy of the bytes of the current record, without its line
+	 * ending.
+	 * 
+	 * @return the bytes of the current record.
+	 */
+	public byte[] getRecordBytes() {
+		if (numFields == 0) {
+			return new byte[0];
+		}
+		int start = fieldStarts[0];
+		byte[] bytes = new byte[fieldEnds[numFields - 1] - start];
+		for (int index = 0; index < bytes.length; index++) {
+			bytes[index] = buffer.get(start + index);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Determines whether the specified field of the current record is empty.
+	 * 
+	 * @param field
+	 *            index of the field
+	 * @return {@code true} if the field is empty.
+	 */
+	public boolean isEmpty(int field) {
+		checkField(field);
+		return fieldStarts[field] == fieldEnds[field];
+	}
+
+	/**
+	 * Parses the specified field of the current record as an {@code int}. If
+	 * the field is not a valid integer, it is reported by
+	 * {@code getMalformedField()}.
+	 * 
+	 * @param field
+	 *            index of the field
+	 * @return the value of the field, or {@code 0} if it is malformed.
+	 */
+	public int getInt(int field) {
+		checkField(field);
+		int pos = fieldStarts[field];
+		int end = fieldEnds[field];
+		if (pos == end) {
+			return malformed(field);
+		}
+
+		boolean negative = false;
+		byte b = buffer.get(pos);
+		if (b == '-' || b == '+') {
+			negative = b == '-';
+			if (++pos == end) {
+				return malformed(field);
+			}
+		}
+
+		// accumulate negatively so that Integer.MIN_VALUE can be parsed
+		int value = 0;
+		for (; pos < end; pos++) {
+			int digit = buffer.get(pos) - '0';
+			if (digit < 0 || digit > 9
+					|| value < (Integer.MIN_VALUE + digit) / 10) {
+				return malformed(field);
+			}
+			value = value * 10 - digit;
+		}
+
+		if (negative) {
+			return value;
+		} else if (value == Integer.MIN_VALUE) {
+			return malformed(field);
+		}
+		return -value;
+	}
+
+	/**
+	 * Parses the specified field of the current record as a {@code double}.
+	 * Plain decimal values of up to 18 significant digits are parsed from the
+	 * bytes; exponents, special values and longer values are handed to
+	 * {@code Double.parseDouble()}. If the field is not a valid number, it is
+	 * reported by {@code getMalformedField()}.
+	 * 
+	 * @param field
+	 *            index of the field
+	 * @return the value of the field, or {@code 0} if it is malformed.
+	 */
+	public double getDouble(int field) {
+		checkField(field);
+		int pos = fieldStarts[field];
+		int end = fieldEnds[field];
+
+		boolean negative = false;
+		if (pos < end) {
+			byte b = buffer.get(pos);
+			if (b == '-' || b == '+') {
+				negative = b == '-';
+				pos++;
+			}
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int fractionDigits = 0;
+		boolean seenPoint = false;
+		for (; pos < end; pos++) {
+			byte b = buffer.get(pos);
+			if (b >= '0' && b <= '9') {
+				if (digits == 18) {
+					return parseDouble(field);
+				}
+				mantissa = mantissa * 10 + (b - '0');
+				if (mantissa != 0) {
+					digits++;
+				}
+				if (seenPoint) {
+					fractionDigits++;
+				}
+			} else if (b == '.' && !seenPoint) {
+				seenPoint = true;
+			} else if (SLOW_NUMBER_SYNTAX.indexOf(b) >= 0) {
+				return parseDouble(field);
+			} else {
+				return malformed(field);
+			}
+		}
+
+		if (digits == 0 && !hasDigit(field)) {
+			return malformed(field);
+		}
+		if (fractionDigits >= POWERS_OF_TEN.length
+				|| mantissa > (1L << 53)) {
+			return parseDouble(field);
+		}
+
+		double value = mantissa / POWERS_OF_TEN[fractionDigits];
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Returns the specified field of the current record as a {@code String}.
+	 * 
+	 * @param field
+	 *            index of the field
+	 * @return the text of the field.
+	 */
+	public String getString(int field) {
+		checkField(field);
+		int start = fieldStarts[field];
+		int length = fieldEnds[field] - start;
+		byte[] bytes = new byte[length];
+		for (int index = 0; index < length; index++) {
+			bytes[index] = buffer.get(start + index);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Determines whether the specified field of the current record equals the
+	 * specified ASCII text, without creating a {@code String}.
+	 * 
+	 * @param field
+	 *            index of the field
+	 * @param text
+	 *            ASCII text to compare with
+	 * @return {@code true} if the field equals the text.
+	 */
+	public boolean fieldEquals(int field, String text) {
+		checkField(field);
+		int start = fieldStarts[field];
+		if (fieldEnds[field] - start != text.length()) {
+			return false;
+		}
+		for (int index = 0; index < text.length(); index++) {
+			if (buffer.get(start + index) != text.charAt(index)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the end of the next line in the buffer, reading more input if the
+	 * buffer does not hold a complete line.
+	 * 
+	 * @return the index of the line feed ending the line, the limit of the
+	 *         buffer if the last line of the input has no line feed, or
+	 *         {@code -1} at the end of the input.
+	 * @throws IOException
+	 *             if the channel cannot be read
+	 */
+	private int findLineEnd() throws IOException {
+		int scanFrom = buffer.position();
+		while (true) {
+			for (int pos = scanFrom, limit = buffer.limit(); pos < limit; pos++) {
+				if (buffer.get(pos) == '\n') {
+					return pos;
+				}
+			}
+
+			if (endOfInput) {
+				return buffer.hasRemaining() ? buffer.limit() : -1;
+			}
+
+			int consumed = buffer.position();
+			scanFrom = buffer.limit() - consumed;
+			fill();
+		}
+	}
+
+	/**
+	 * Moves the unread bytes to the front of the buffer and reads more input
+	 * after them, growing the buffer if it is full.
+	 * 
+	 * @throws IOException
+	 *             if the channel cannot be read
+	 */
+	private void fill() throws IOException {
+		bufferOffset += buffer.position();
+		buffer.compact();
+		if (!buffer.hasRemaining()) {
+			ByteBuffer larger = ByteBuffer
+					.allocateDirect(buffer.capacity() << 1);
+			buffer.flip();
+			larger.put(buffer);
+			buffer = larger;
+		}
+
+		int read;
+		do {
+			read = channel.read(buffer);
+		} while (read == 0);
+		if (read < 0) {
+			endOfInput = true;
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Records the start and end of each field of the line between the
+	 * specified positions.
+	 * 
+	 * @param lineStart
+	 *            index of the first byte of the line
+	 * @param lineEnd
+	 *            index after the last byte of the line
+	 */
+	private void splitFields(int lineStart, int lineEnd) {
+		numFields = 0;
+		int fieldStart = lineStart;
+		for (int pos = lineStart; pos < lineEnd; pos++) {
+			if (buffer.get(pos) == ',') {
+				addField(fieldStart, pos);
+				fieldStart = pos + 1;
+			}
+		}
+		addField(fieldStart, lineEnd);
+	}
+
+	/**
+	 * Adds a field to the current record, growing the field arrays if needed.
+	 * 
+	 * @param start
+	 *            index of the first byte of the field
+	 * @param end
+	 *            index after the last byte of the field
+	 */
+	private void addField(int start, int end) {
+		if (numFields == fieldStarts.length) {
+			int[] newStarts = new int[numFields << 1];
+			System.arraycopy(fieldStarts, 0, newStarts, 0, numFields);
+			fieldStarts = newStarts;
+			int[] newEnds = new int[numFields << 1];
+			System.arraycopy(fieldEnds, 0, newEnds, 0, numFields);
+			fieldEnds = newEnds;
+		}
+		fieldStarts[numFields] = start;
+		fieldEnds[numFields] = end;
+		numFields++;
+	}
+
+	/**
+	 * Determines whether the specified field contains at least one digit.
+	 * 
+	 * @param field
+	 *            index of the field
+	 * @return {@code true} if the field contains a digit.
+	 */
+	private boolean hasDigit(int field) {
+		for (int pos = fieldStarts[field]; pos < fieldEnds[field]; pos++) {
+			byte b = buffer.get(pos);
+			if (b >= '0' && b <= '9') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks that the specified field exists in the current record.
+	 * 
+	 * @param field
+	 *            index of the field
+	 * @throws IndexOutOfBoundsException
+	 *             if the current record has no such field
+	 */
+	private void checkField(int field) {
+		if (field < 0 || field >= numFields) {
+			throw new IndexOutOfBoundsException("Record " + recordNumber
+					+ " has no field " + field + ".");
+		}
+	}
+
+	/**
+	 * Parses a field that is not a plain decimal value with
+	 * {@code Double.parseDouble()}.
+	 * 
+	 * @param field
+	 *            index of the field
+	 * @return the value of the field, or {@code 0} if it is malformed.
+	 */
+	private double parseDouble(int field) {
+		try {
+			return Double.parseDouble(getString(field));
+		} catch (NumberFormatException ex) {
+			return malformed(field);
+		}
+	}
+
+	/**
+	 * Reports a field that is not a valid number, unless an earlier field of
+	 * the current record was reported.
+	 * 
+	 * @param field
+	 *            index of the field
+	 * @return {@code 0}, the value returned for malformed fields.
+	 */
+	private int malformed(int field) {
+		if (malformedField < 0) {
+			malformedField = field;
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,350 @@
+/*******************************************************************************
+ * MASS (Metro Analytics Software System) by Sean Harger
+ * is licensed under a Creative Commons Attribution-NonCommercial-ShareAlike 3.0
+ * United States License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by-nc-sa/3.0/us/.
+ ******************************************************************************/
+package net.metro.analyze;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes comma delimited records to a channel through a reusable byte buffer,
+ * which is flushed in large blocks. Numbers are formatted straight into the
+ * buffer, so nothing is allocated per field except for decimals that cannot
+ * be written in fixed notation.
+ * 
+ * Fields are separated by commas with no delimiter after the last field of a
+ * record, and records end with a line feed. Fields are not quoted, to match
+ * {@code CsvTokenizer}, so commas and line breaks within text are written as
+ * spaces. Text is encoded as UTF-8.
+ * 
+ * @author Sean Harger
+ * 
+ */
+public class CsvWriter {
+	private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	// decimals with a magnitude in this range whose value is a whole number
+	// of millionths are written in fixed notation without a String
+	private static final double MIN_FIXED = 1e-3;
+	private static final double MAX_FIXED = 1e7;
+	private static final double FIXED_SCALE = 1e6;
+	private static final int FIXED_DECIMALS = 6;
+
+	/** Most bytes written for an integer or a number of millionths. */
+	static final int MAX_NUMBER_LENGTH = 24;
+
+	private final WritableByteChannel channel;
+	private final byte[] buffer;
+	private int position;
+	private boolean recordStarted;
+
+	/**
+	 * Constructs a {@code CsvWriter} writing to the specified channel.
+	 * 
+	 * @param chnl
+	 *            channel to write records to
+	 */
+	public CsvWriter(WritableByteChannel chnl) {
+		this(chnl, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Constructs a {@code CsvWriter} writing to the specified channel with a
+	 * buffer of the specified size.
+	 * 
+	 * @param chnl
+	 *            channel to write records to
+	 * @param bufferSize
+	 *            size of the write buffer in bytes
+	 */
+	public CsvWriter(WritableByteChannel chnl, int bufferSize) {
+		channel = chnl;
+		buffer = new byte[Math.max(bufferSize, 64)];
+		position = 0;
+		recordStarted = false;
+	}
+
+	/**
+	 * Writes a whole record with the specified fields.
+	 * 
+	 * @param fields
+	 *            the fields of the record in order
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	public void writeRecord(String[] fields) throws IOException {
+		for (String field : fields) {
+			writeField(field);
+		}
+		endRecord();
+	}
+
+	/**
+	 * Writes a text field to the current record. A {@code null} field is
+	 * written empty.
+	 * 
+	 * @param field
+	 *            the text of the field
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	public void writeField(String field) throws IOException {
+		startField();
+		if (field == null) {
+			return;
+		}
+
+		for (int index = 0; index < field.length(); index++) {
+			char c = field.charAt(index);
+			if (c >= 0x80) {
+				writeEncoded(field, index);
+				return;
+			}
+			ensureRoom(1);
+			buffer[position++] = (byte) (isDelimiter(c) ? ' ' : c);
+		}
+	}
+
+	/**
+	 * Writes an integer field to the current record.
+	 * 
+	 * @param value
+	 *            the value of the field
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	public void writeField(int value) throws IOException {
+		writeField((long) value);
+	}
+
+	/**
+	 * Writes an integer field to the current record.
+	 * 
+	 * @param value
+	 *            the value of the field
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	public void writeField(long value) throws IOException {
+		startField();
+		writeDigits(value);
+	}
+
+	/**
+	 * Writes a decimal field to the current record. Values that are a whole
+	 * number of millionths, such as coordinates in microdegrees, are written
+	 * in fixed notation with up to six decimals; the text reads back as the
+	 * same {@code double} in every case.
+	 * 
+	 * @param value
+	 *            the value of the field
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	public void writeField(double value) throws IOException {
+		double magnitude = Math.abs(value);
+		if (magnitude >= MIN_FIXED && magnitude < MAX_FIXED) {
+			long millionths = Math.round(value * FIXED_SCALE);
+			if (millionths / FIXED_SCALE == value) {
+				startField();
+				writeFixed(millionths);
+				return;
+			}
+		}
+		writeField(Double.toString(value));
+	}
+
+	/**
+	 * Ends the current record.
+	 * 
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	public void endRecord() throws IOException {
+		ensureRoom(1);
+		buffer[position++] = '\n';
+		recordStarted = false;
+	}
+
+	/**
+	 * Writes the buffered bytes to the channel.
+	 * 
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	public void flush() throws IOException {
+		ByteBuffer block = ByteBuffer.wrap(buffer, 0, position);
+		while (block.hasRemaining()) {
+			channel.write(block);
+		}
+		position = 0;
+	}
+
+	/**
+	 * Writes the delimiter before a field, unless it is the first field of the
+	 * record.
+	 * 
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	private void startField() throws IOException {
+		if (recordStarted) {
+			ensureRoom(1);
+			buffer[position++] = ',';
+		}
+		recordStarted = true;
+	}
+
+	/**
+	 * Writes the digits of an integer, preceded by a minus sign if it is
+	 * negative.
+	 * 
+	 * @param value
+	 *            the integer to write
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	private void writeDigits(long value) throws IOException {
+		ensureRoom(MAX_NUMBER_LENGTH);
+		position = formatDigits(value, buffer, position);
+	}
+
+	/**
+	 * Writes a number of millionths in fixed notation, without the trailing
+	 * zeros of its decimals but with at least one decimal.
+	 * 
+	 * @param millionths
+	 *            the value times one million
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	private void writeFixed(long millionths) throws IOException {
+		ensureRoom(MAX_NUMBER_LENGTH);
+		position = formatFixed(millionths, buffer, position);
+	}
+
+	/**
+	 * Formats the digits of an integer into an array, preceded by a minus sign
+	 * if it is negative. The other text writers of MASS share this formatting.
+	 * 
+	 * @param value
+	 *            the integer to format
+	 * @param dst
+	 *            array to format into, with room for
+	 *            {@code MAX_NUMBER_LENGTH} bytes from {@code pos}
+	 * @param pos
+	 *            position of the first byte
+	 * @return the position after the last byte.
+	 */
+	static int formatDigits(long value, byte[] dst, int pos) {
+		if (value < 0) {
+			dst[pos++] = '-';
+		} else {
+			value = -value; // work on negatives so that Long.MIN_VALUE fits
+		}
+
+		int count = 1;
+		for (long rest = value / 10; rest != 0; rest /= 10) {
+			count++;
+		}
+		for (int index = pos + count - 1; index >= pos; index--) {
+			dst[index] = (byte) ('0' - (value % 10));
+			value /= 10;
+		}
+		return pos + count;
+	}
+
+	/**
+	 * Formats a number of millionths into an array in fixed notation, without
+	 * the trailing zeros of its decimals but with at least one decimal.
+	 * 
+	 * @param millionths
+	 *            the value times one million
+	 * @param dst
+	 *            array to format into, with room for
+	 *            {@code MAX_NUMBER_LENGTH} bytes from {@code pos}
+	 * @param pos
+	 *            position of the first byte
+	 * @return the position after the last byte.
+	 */
+	static int formatFixed(long millionths, byte[] dst, int pos) {
+		long whole = millionths / (long) FIXED_SCALE;
+		int fraction = (int) Math.abs(millionths % (long) FIXED_SCALE);
+		if (millionths < 0 && whole == 0) {
+			dst[pos++] = '-';
+		}
+		pos = formatDigits(whole, dst, pos);
+
+		int decimals = FIXED_DECIMALS;
+		while (decimals > 1 && fraction % 10 == 0) {
+			fraction /= 10;
+			decimals--;
+		}
+		dst[pos++] = '.';
+		for (int index = decimals - 1; index >= 0; index--) {
+			dst[pos + index] = (byte) ('0' + fraction % 10);
+			fraction /= 10;
+		}
+		return pos + decimals;
+	}
+
+	/**
+	 * Writes the rest of a text field that is not plain ASCII as UTF-8.
+	 * 
+	 * @param field
+	 *            the text of the field
+	 * @param start
+	 *            index of the first character that is not yet written
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	private void writeEncoded(String field, int start) throws IOException {
+		StringBuilder rest = new StringBuilder(field.length() - start);
+		for (int index = start; index < field.length(); index++) {
+			char c = field.charAt(index);
+			rest.append(isDelimiter(c) ? ' ' : c);
+		}
+
+		byte[] bytes = rest.toString().getBytes(StandardCharsets.UTF_8);
+		int offset = 0;
+		while (offset < bytes.length) {
+			ensureRoom(1);
+			int count = Math.min(bytes.length - offset, buffer.length
+					- position);
+			System.arraycopy(bytes, offset, buffer, position, count);
+			position += count;
+			offset += count;
+		}
+	}
+
+	/**
+	 * Flushes the buffer if it has less than the specified number of bytes
+	 * left.
+	 * 
+	 * @param count
+	 *            number of bytes about to be written
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	private void ensureRoom(int count) throws IOException {
+		if (buffer.length - position < count) {
+			flush();
+		}
+	}
+
+	/**
+	 * Determines whether a character would end a field or a record.
+	 * 
+	 * @param c
+	 *            the character
+	 * @return {@code true} for a comma, carriage return, or line feed.
+	 */
+	private static boolean isDelimiter(char c) {
+		return c == ',' || c == '\r' || c == '\n';
+	}
+}
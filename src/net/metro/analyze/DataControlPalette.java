@@ -55,13 +55,15 @@ import net.metro.systemobjects.Period;
 import net.metro.systemobjects.RoutePath;
 import net.metro.systemobjects.dataobjects.DataType;
 import net.metro.systemobjects.periodobjects.Day;
+import net.metro.systemobjects.periodobjects.Time;
 import net.metro.systemobjects.periodobjects.TimePeriod;
 
 /**
  * This internal frame is the controller for all data visualizations on the map.
  * It allows the user to specify the constraints as to which routes, route
  * paths, days, time periods, data types, and scale to be shown on the
- * {@code SystemMap}.
+ * {@code SystemMap}. Instead of one of the fixed time periods, a custom time
+ * window such as 07:15 to 08:45 can be typed in.
  * 
  * @author Sean Harger
  * 
@@ -86,6 +88,9 @@ public class DataControlPalette extends JInternalFrame {
 
 	private final ButtonGroup dayButtonGroup = new ButtonGroup();
 	private JSlider timePeriodSlider;
+	private JToggleButton tglbtnWindow;
+	private JTextField textField_windowStart;
+	private JTextField textField_windowEnd;
 
 	private JButton btnAdd;
 	private JButton btnRemove;
@@ -260,6 +265,29 @@ public class DataControlPalette extends JInternalFrame {
 		mapFrame.setPeriodConstraint(getSelectedPeriod());
 	}
 
+	/**
+	 * Attempts to set the typed start and end times as the custom time window
+	 * of the {@code MapFrame}. Displays an error message and goes back to the
+	 * time period of the slider if a time is not formatted properly or if the
+	 * start of the window is not before its end.
+	 */
+	private void attemptToCommitTimeWindow() {
+		try {
+			Time start = Time.parse(textField_windowStart.getText());
+			Time end = Time.parse(textField_windowEnd.getText());
+
+			if (start.compareTo(end) >= 0) {
+				throw new Exception("Start must be before end.");
+			}
+
+			mapFrame.setTimeWindowConstraint(start, end);
+		} catch (Exception ex) {
+			JOptionPane.showMessageDialog(this, ex.getMessage(), "Error",
+					JOptionPane.ERROR_MESSAGE);
+			mapFrame.setTimeWindowConstraint(null, null);
+		}
+	}
+
 	/**
 	 * Interprets the selected radio buttons and slider position into a
 	 * {@code Period} object
@@ -271,7 +299,7 @@ public class DataControlPalette extends JInternalFrame {
 		Day[] dys = getSelectedDays();
 		TimePeriod tmPd = getSelectedTimePeriod();
 
-		return new Period(dys, tmPd);
+		return Period.valueOf(dys, tmPd);
 	}
 
 	/**
@@ -406,10 +434,10 @@ public class DataControlPalette extends JInternalFrame {
 		tabbedPane.addTab("Time Period", null, panel_timePeriod, null);
 		GridBagLayout gbl_panel_timePeriod = new GridBagLayout();
 		gbl_panel_timePeriod.columnWidths = new int[] { 0, 0 };
-		gbl_panel_timePeriod.rowHeights = new int[] { 0, 0, 0 };
+		gbl_panel_timePeriod.rowHeights = new int[] { 0, 0, 0, 0 };
 		gbl_panel_timePeriod.columnWeights = new double[] { 1.0,
 				Double.MIN_VALUE };
-		gbl_panel_timePeriod.rowWeights = new double[] { 0.0, 1.0,
+		gbl_panel_timePeriod.rowWeights = new double[] { 0.0, 1.0, 0.0,
 				Double.MIN_VALUE };
 		panel_timePeriod.setLayout(gbl_panel_timePeriod);
 
@@ -448,6 +476,7 @@ public class DataControlPalette extends JInternalFrame {
 				TitledBorder.LEADING, TitledBorder.TOP, null, null));
 		panel_timeOfDay.setBackground(Color.WHITE);
 		GridBagConstraints gbc_panel_timeOfDay = new GridBagConstraints();
+		gbc_panel_timeOfDay.insets = new Insets(0, 0, 5, 0);
 		gbc_panel_timeOfDay.fill = GridBagConstraints.BOTH;
 		gbc_panel_timeOfDay.gridx = 0;
 		gbc_panel_timeOfDay.gridy = 1;
@@ -467,6 +496,36 @@ public class DataControlPalette extends JInternalFrame {
 		timePeriodSlider.setMinimum(TIMEPERIOD_EARLY);
 		timePeriodSlider.setLabelTable(labelTable);
 
+		JPanel panel_timeWindow = new JPanel();
+		panel_timeWindow.setBorder(new TitledBorder(null, "Time window",
+				TitledBorder.LEADING, TitledBorder.TOP, null, null));
+		panel_timeWindow.setBackground(Color.WHITE);
+		FlowLayout fl_panel_timeWindow = (FlowLayout) panel_timeWindow
+				.getLayout();
+		fl_panel_timeWindow.setAlignment(FlowLayout.LEFT);
+		GridBagConstraints gbc_panel_timeWindow = new GridBagConstraints();
+		gbc_panel_timeWindow.fill = GridBagConstraints.BOTH;
+		gbc_panel_timeWindow.gridx = 0;
+		gbc_panel_timeWindow.gridy = 2;
+		panel_timePeriod.add(panel_timeWindow, gbc_panel_timeWindow);
+
+		tglbtnWindow = new JToggleButton("Custom");
+		tglbtnWindow.setFocusable(false);
+		panel_timeWindow.add(tglbtnWindow);
+
+		textField_windowStart = new JTextField();
+		textField_windowStart.setEnabled(false);
+		panel_timeWindow.add(textField_windowStart);
+		textField_windowStart.setColumns(5);
+
+		JLabel lblTo = new JLabel("to");
+		panel_timeWindow.add(lblTo);
+
+		textField_windowEnd = new JTextField();
+		textField_windowEnd.setEnabled(false);
+		panel_timeWindow.add(textField_windowEnd);
+		textField_windowEnd.setColumns(5);
+
 		JPanel panel_dataTypes = new JPanel();
 
 		panel_dataTypes.setBorder(new LineBorder(Color.WHITE, 5));
@@ -652,10 +711,30 @@ public class DataControlPalette extends JInternalFrame {
 
 		timePeriodSlider.addChangeListener(new ChangeListener() {
 			public void stateChanged(ChangeEvent e) {
+				mapFrame.setTimeWindowConstraint(null, null);
 				updatePeriodConstraint();
 			}
 		});
 
+		tglbtnWindow.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				if (tglbtnWindow.isSelected()) {
+					TimePeriod tmPd = getSelectedTimePeriod();
+					tglbtnWindow.setText("Set");
+					textField_windowStart.setText(tmPd.getStartTime()
+							.toString());
+					textField_windowEnd.setText(tmPd.getEndTime().toString());
+					textField_windowStart.setEnabled(true);
+					textField_windowEnd.setEnabled(true);
+				} else {
+					tglbtnWindow.setText("Custom");
+					textField_windowStart.setEnabled(false);
+					textField_windowEnd.setEnabled(false);
+					attemptToCommitTimeWindow();
+				}
+			}
+		});
+
 		map.addComponentListener(new ComponentListener() {
 			public void componentHidden(ComponentEvent arg0) {
 			}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * MASS (Metro Analytics Software System) by Sean Harger
+ * is licensed under a Creative Commons Attribution-NonCommercial-ShareAlike 3.0
+ * United States License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by-nc-sa/3.0/us/.
+ ******************************************************************************/
+package net.metro.analyze;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Toolkit;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.JDialog;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingWorker;
+
+/**
+ * Dialog that runs a {@code FileExport} in the background and shows its
+ * progress. Control of the {@code MainFrame} is disabled until the export is
+ * finished.
+ * 
+ * @author Sean Harger
+ * 
+ */
+public class ExportDialog extends JDialog {
+	private static final long serialVersionUID = 7185476550329303764L;
+
+	private FileExport fileExport;
+	private MainFrame mainFrame;
+	private ExportWorker exportWorker;
+	private JProgressBar progressBar;
+
+	/**
+	 * Constructs an {@code ExportDialog} and shows it.
+	 * 
+	 * @param exprt
+	 *            the {@code FileExport} to run
+	 * @param ttl
+	 *            title of the dialog
+	 * @param mnFrm
+	 *            reference to the {@code MainFrame} from which the export was
+	 *            invoked
+	 */
+	public ExportDialog(FileExport exprt, String ttl, MainFrame mnFrm) {
+		fileExport = exprt;
+		mainFrame = mnFrm;
+
+		setUpGui();
+		setTitle(ttl);
+		setLocationRelativeTo(mainFrame);
+		setAlwaysOnTop(true);
+		setVisible(true);
+
+		exportWorker = new ExportWorker();
+		exportWorker.addPropertyChangeListener(new PropertyChangeListener() {
+			public void propertyChange(PropertyChangeEvent evt) {
+				if ("progress".equals(evt.getPropertyName())) {
+					progressBar.setValue((Integer) evt.getNewValue());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Begins execution of the {@code ExportWorker} task. Control of the
+	 * {@code MainFrame} is disabled until the export is finished.
+	 */
+	public void go() {
+		mainFrame.setEnabled(false);
+		exportWorker.execute();
+	}
+
+	/**
+	 * Initializes the GUI for this {@code ExportDialog}.
+	 */
+	private void setUpGui() {
+		setTitle("Export");
+		this.setIconImage(Toolkit.getDefaultToolkit().getImage(
+				ExportDialog.class.getResource("/res/export128.png")));
+		setBounds(100, 100, 437, 90);
+		getContentPane().setLayout(new BorderLayout());
+
+		JPanel progressPanel = new JPanel();
+		FlowLayout flowLayout = (FlowLayout) progressPanel.getLayout();
+		flowLayout.setVgap(10);
+		getContentPane().add(progressPanel, BorderLayout.CENTER);
+
+		progressBar = new JProgressBar();
+		progressBar.setMaximum(100);
+		progressBar.setPreferredSize(new Dimension(400, 30));
+		progressBar.setMinimumSize(new Dimension(10, 30));
+		progressBar.setMaximumSize(new Dimension(32767, 30));
+		progressPanel.add(progressBar);
+	}
+
+	/**
+	 * Background task that manages the writing of all data to the exported
+	 * file.
+	 * 
+	 * @author Sean Harger
+	 * 
+	 */
+	class ExportWorker extends SwingWorker<Integer, Object> {
+		/**
+		 * The background task that writes the export file, forwarding the
+		 * progress of the export to this worker.
+		 */
+		protected Integer doInBackground() throws Exception {
+			PropertyChangeListener relay = new PropertyChangeListener() {
+				public void propertyChange(PropertyChangeEvent evt) {
+					setProgress((Integer) evt.getNewValue());
+				}
+			};
+			fileExport.addPropertyChangeListener(relay);
+			try {
+				fileExport.export();
+			} finally {
+				fileExport.removePropertyChangeListener(relay);
+			}
+
+			return 0;
+		}
+
+		/**
+		 * Finishes the export task by setting the progress bar to complete,
+		 * reporting a failed export or the data it left out, and re-enabling
+		 * control of the {@code MainFrame}.
+		 */
+		protected void done() {
+			setProgress(100);
+			try {
+				get();
+				String summary = fileExport.getExportSummary();
+				if (summary != null) {
+					JOptionPane.showMessageDialog(ExportDialog.this, summary,
+							"Data Left Out", JOptionPane.WARNING_MESSAGE);
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException ex) {
+				ex.getCause().printStackTrace();
+				JOptionPane.showMessageDialog(ExportDialog.this,
+						"The export failed: " + ex.getCause().getMessage(),
+						"Export Error", JOptionPane.ERROR_MESSAGE);
+			}
+			mainFrame.setEnabled(true);
+			dispose();
+		}
+	}
+}
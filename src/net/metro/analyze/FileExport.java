@@ -6,45 +6,42 @@
  ******************************************************************************/
 package net.metro.analyze;
 
-import java.awt.BorderLayout;
-import java.awt.Dimension;
-import java.awt.FlowLayout;
-import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.io.BufferedWriter;
+import java.beans.PropertyChangeSupport;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-
-import javax.swing.JDialog;
-import javax.swing.JPanel;
-import javax.swing.JProgressBar;
-import javax.swing.SwingWorker;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 import net.metro.systemobjects.SystemObjects;
-import java.awt.Toolkit;
 
 /**
  * Abstract class for exporting data edited from within MASS. Exported files are
- * tabular, comma delimited text files with the {@code .csv} extension.
+ * tabular, comma delimited text files with the {@code .csv} extension,
+ * written through a {@code CsvWriter} straight to a {@code FileChannel}.
+ * 
+ * This class does not depend on Swing: the {@code ExportDialog} runs an export
+ * in the background with a progress bar, and {@code MASSCommandLine} runs it
+ * headless. Progress is published as the bound {@code "progress"} property,
+ * in percent.
  * 
  * @author Sean Harger
  * 
  */
-public abstract class FileExport extends JDialog {
-	private static final long serialVersionUID = 7185476550329303764L;
-
-	private int numLines;
+public abstract class FileExport {
+	// minimum time between progress updates in nanoseconds
+	private static final long PROGRESS_INTERVAL = 100000000L;
 
 	private File exportFile;
-	private MainFrame mainFrame;
-	private ExportWorker exportWorker;
-	private JProgressBar progressBar;
 	private String[] fileHeaders;
-	private BufferedWriter fileWriter;
+	private CsvWriter csvWriter;
 
 	private SystemObjects objects;
 
+	private final PropertyChangeSupport changeSupport;
+	private int progress;
+	private long lastProgressUpdate;
+
 	/**
 	 * Constructs a {@code FileExport} object.
 	 * 
@@ -56,174 +53,173 @@ public abstract class FileExport extends JDialog {
 	 * @param flHdrs
 	 *            array of {@code String}s specifying the column headers of the
 	 *            file.
-	 * @param mnFrm
-	 *            reference to the {@code MainFrame} from which the
-	 *            {@code FileExport} frame was invoked.
 	 */
-	public FileExport(File exptFile, SystemObjects objs, String[] flHdrs,
-			MainFrame mnFrm) {
+	public FileExport(File exptFile, SystemObjects objs, String[] flHdrs) {
 		exportFile = exptFile;
 		objects = objs;
 		fileHeaders = flHdrs;
-		mainFrame = mnFrm;
-
-		try {
-			fileWriter = new BufferedWriter(new FileWriter(exportFile));
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		setUpGui();
-		setLocationRelativeTo(mainFrame);
-		setAlwaysOnTop(true);
-		setVisible(true);
-
-		exportWorker = new ExportWorker();
-		exportWorker.addPropertyChangeListener(new PropertyChangeListener() {
-			public void propertyChange(PropertyChangeEvent evt) {
-				if ("progress".equals(evt.getPropertyName())) {
-					progressBar.setValue((Integer) evt.getNewValue());
-				}
-			}
-		});
+		changeSupport = new PropertyChangeSupport(this);
+		progress = 0;
+		lastProgressUpdate = 0;
 	}
 
 	/**
-	 * Returns the {@code SystemObjects} database reference.
+	 * Returns the file this export writes.
 	 * 
-	 * @return the {@code SystemOjbects} database reference.
+	 * @return the export file.
 	 */
-	protected SystemObjects getSystemObjects() {
-		return objects;
+	public File getExportFile() {
+		return exportFile;
 	}
 
 	/**
-	 * Calculates the number of lines in the file to estimate the current
-	 * progress and then begins execution of the {@code ExportWorker} task.
+	 * Adds a listener for the {@code "progress"} property of this export,
+	 * which is notified from the thread running the export.
+	 * 
+	 * @param lstnr
+	 *            listener to add
 	 */
-	protected void go() {
-		numLines = calculateLines();
-		exportWorker.execute();
+	public void addPropertyChangeListener(PropertyChangeListener lstnr) {
+		changeSupport.addPropertyChangeListener(lstnr);
 	}
 
 	/**
-	 * Calculates the number of lines to be written in the file. This is used to
-	 * determine the value of the progress bar.
+	 * Removes a listener for the {@code "progress"} property of this export.
 	 * 
-	 * @return the number of lines to be written in the file.
+	 * @param lstnr
+	 *            listener to remove
 	 */
-	protected abstract int calculateLines();
+	public void removePropertyChangeListener(PropertyChangeListener lstnr) {
+		changeSupport.removePropertyChangeListener(lstnr);
+	}
 
 	/**
-	 * Writes the headers specified by the {@code String} array in teh
-	 * constructor to the first line in the exported file.
+	 * Writes the export file with {@code writeFile()}. This may take long and
+	 * should be run in the background.
 	 * 
 	 * @throws IOException
+	 *             if the file cannot be written
 	 */
-	private void writeHeaders() throws IOException {
-		for (String hdr : fileHeaders) {
-			fileWriter.write(hdr);
-			fileWriter.append(",");
+	public void export() throws IOException {
+		FileChannel channel = FileChannel.open(exportFile.toPath(),
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			writeFile(channel);
+		} finally {
+			channel.close();
 		}
-		fileWriter.newLine();
+		setProgress(100);
 	}
 
 	/**
-	 * Writes the specified line values to the next line in the file. It
-	 * separtes each value with a comma.
+	 * Writes the headers and then every line to the export file with
+	 * {@code writeData()}. Exports to other formats than {@code .csv}
+	 * override this to write their own layout around {@code writeData()}.
 	 * 
-	 * @param lineTokens
-	 *            array of {@code String} values to write to the line.
+	 * @param channel
+	 *            channel open on the empty export file
 	 * @throws IOException
+	 *             if the file cannot be written
 	 */
-	private void writeLine(String[] lineTokens) throws IOException {
-		for (String token : lineTokens) {
-			fileWriter.write(token);
-			fileWriter.append(",");
+	protected void writeFile(FileChannel channel) throws IOException {
+		try {
+			csvWriter = new CsvWriter(channel);
+			csvWriter.writeRecord(fileHeaders);
+			writeData();
+			csvWriter.flush();
+		} finally {
+			csvWriter = null;
 		}
-		fileWriter.newLine();
 	}
 
 	/**
-	 * Generates the {@code String} array specifying the values to be written
-	 * for each line.
+	 * Writes every line of the export file after the headers with
+	 * {@code getWriter()} or {@code writeLine()}, in the order the data is
+	 * walked, reporting the progress with {@code reportProgress()}. Lines
+	 * should be written as soon as they are reached rather than built ahead
+	 * of the file.
 	 * 
-	 * @param lnNum
-	 *            the line number of the desired data.
-	 * @return
+	 * @throws IOException
+	 *             if the file cannot be written
 	 */
-	protected abstract String[] processLineData(int lnNum);
+	protected abstract void writeData() throws IOException;
 
 	/**
-	 * Initializes the GUI for this {@code FileExport}.
+	 * Publishes the progress of the export according to the number of lines
+	 * written so far. Updates are dropped if the previous one was published
+	 * less than {@code PROGRESS_INTERVAL} ago, so this may be called for every
+	 * line.
+	 * 
+	 * @param linesWritten
+	 *            number of lines written
+	 * @param totalLines
+	 *            total number of lines of the export
 	 */
-	private void setUpGui() {
-		setTitle("Export");
-		this.setIconImage(Toolkit.getDefaultToolkit().getImage(
-				FileExport.class.getResource("/res/export128.png")));
-		setBounds(100, 100, 437, 90);
-		getContentPane().setLayout(new BorderLayout());
-
-		JPanel progressPanel = new JPanel();
-		FlowLayout flowLayout = (FlowLayout) progressPanel.getLayout();
-		flowLayout.setVgap(10);
-		getContentPane().add(progressPanel, BorderLayout.CENTER);
-
-		progressBar = new JProgressBar();
-		progressBar.setMaximum(100);
-		progressBar.setPreferredSize(new Dimension(400, 30));
-		progressBar.setMinimumSize(new Dimension(10, 30));
-		progressBar.setMaximumSize(new Dimension(32767, 30));
-		progressPanel.add(progressBar);
+	protected void reportProgress(long linesWritten, long totalLines) {
+		long now = System.nanoTime();
+		if (now - lastProgressUpdate < PROGRESS_INTERVAL) {
+			return;
+		}
+		lastProgressUpdate = now;
+		setProgress((int) Math.min(linesWritten * 100
+				/ Math.max(totalLines, 1), 99));
 	}
 
 	/**
-	 * Background task that manages the writing of all data to the exported
-	 * file.
+	 * Sets the {@code "progress"} property of this export and notifies its
+	 * listeners if it changed.
 	 * 
-	 * @author Sean Harger
+	 * @param prgrss
+	 *            progress of the export in percent
+	 */
+	private void setProgress(int prgrss) {
+		int oldProgress = progress;
+		progress = prgrss;
+		changeSupport.firePropertyChange("progress", oldProgress, prgrss);
+	}
+
+	/**
+	 * Returns a description of the data that {@code export()} could not
+	 * write, such as objects the file format has no place for. Intended to be
+	 * overridden.
 	 * 
+	 * @return the description, or {@code null} if there is none.
 	 */
-	class ExportWorker extends SwingWorker<Integer, Object> {
-		/**
-		 * The background loop that continually writes data to the file until
-		 * complete. Calculates and sets progress according to the current line
-		 * and the estimated number of total lines calculated by the
-		 * {@code calculateLines()} method. Sleeps the thread for 1 millisecond
-		 * so that the progress bar has time to update.
-		 */
-		protected Integer doInBackground() throws IOException,
-				InterruptedException {
-			mainFrame.setEnabled(false);
-			writeHeaders();
-
-			for (int lineCtr = 0; lineCtr < numLines; lineCtr++) {
-				writeLine(processLineData(lineCtr));
-				double progress = (double) (lineCtr + 1) / numLines * 100;
-				setProgress((int) progress);
-				Thread.sleep(1);
-			}
-
-			return 0;
-		}
+	public String getExportSummary() {
+		return null;
+	}
 
-		/**
-		 * Finishes the export task by setting the progress bar to complete,
-		 * closing the file, and re-enabling control of the {@code MainFrame}.
-		 */
-		protected void done() {
-			setProgress(100);
-			try {
-				fileWriter.close();
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-			mainFrame.setEnabled(true);
-			dispose();
-		}
+	/**
+	 * Returns the {@code SystemObjects} database reference.
+	 * 
+	 * @return the {@code SystemOjbects} database reference.
+	 */
+	protected SystemObjects getSystemObjects() {
+		return objects;
 	}
 
+	/**
+	 * Returns the writer of the export file, which is only available while
+	 * {@code writeData()} runs. Fields are written one at a time and each line
+	 * is ended with {@code CsvWriter.endRecord()}.
+	 * 
+	 * @return the {@code CsvWriter} of the export file.
+	 */
+	protected CsvWriter getWriter() {
+		return csvWriter;
+	}
+
+	/**
+	 * Writes the specified line values to the next line in the file,
+	 * separated by commas.
+	 * 
+	 * @param lineTokens
+	 *            array of {@code String} values to write to the line.
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	protected void writeLine(String[] lineTokens) throws IOException {
+		csvWriter.writeRecord(lineTokens);
+	}
 }
@@ -6,42 +6,62 @@
  ******************************************************************************/
 package net.metro.analyze;
 
-import java.awt.BorderLayout;
-import java.awt.Dimension;
-import java.awt.FlowLayout;
-import java.awt.Toolkit;
-import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.ArrayList;
-import java.util.Scanner;
-
-import javax.swing.JDialog;
-import javax.swing.JOptionPane;
-import javax.swing.JPanel;
-import javax.swing.JProgressBar;
-import javax.swing.SwingWorker;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import net.metro.systemobjects.SystemObjects;
 
 /**
  * Abstract class for importing data to be used within MASS. Imported files are
- * tabular, comma delimited text files with the {@code .csv} extension.
+ * tabular, comma delimited text files with the {@code .csv} extension. They
+ * may also be compressed with gzip ({@code .csv.gz}) or be entries of a
+ * {@code .zip} archive, in which case every {@code .csv} entry of the archive
+ * is imported in the same job. Compressed tables are read as they are
+ * decompressed, unless the import asks for them in a temporary file with
+ * {@code decompressesToFile()}.
+ * 
+ * An import runs in two steps. {@code stage()} reads the file and prepares the
+ * data without touching the {@code SystemObjects} database, and
+ * {@code publish()} then adds it to the database at once. This class does not
+ * depend on Swing: the {@code ImportDialog} runs an import in the background
+ * with a progress bar, and {@code MASSCommandLine} runs it headless. Progress
+ * is published as the bound {@code "progress"} property, in percent.
  * 
  * @author Sean Harger
  * 
  */
-public abstract class FileImport extends JDialog {
-	private static final long serialVersionUID = 8827699500005191847L;
+public abstract class FileImport {
+	// minimum time between two progress updates, in nanoseconds
+	private static final long PROGRESS_INTERVAL = 100000000L;
+
+	// size of the buffers between a compressed file and its decompressor
+	private static final int COMPRESSED_BUFFER_SIZE = 1 << 16;
 
 	private File importFile;
-	private MainFrame mainFrame;
-	private ImportWorker importWorker;
-	private JProgressBar progressBar;
 	private String[] requiredFileHeaders;
 
 	private SystemObjects objects;
+	private ImportErrors importErrors;
+
+	private final PropertyChangeSupport changeSupport;
+	private final Object progressLock = new Object();
+	private long lastProgressUpdate;
+	private int progress;
+	// progress in percent reached before the current file is read, when a
+	// compressed table was first decompressed to a temporary file
+	private volatile int progressBase;
 
 	/**
 	 * Constructs a {@code FileImport} object.
@@ -49,34 +69,80 @@ public abstract class FileImport extends JDialog {
 	 * @param imptFl
 	 *            the {@code File} to import the data from.
 	 * @param objs
-	 *            the {@code SystemObjects} database to add the data to.r
+	 *            the {@code SystemObjects} database to add the data to.
 	 * @param reqFlHdrs
 	 *            array of {@code String}s specifying the required column
 	 *            headers expected in the file.
-	 * @param mnFrm
-	 *            reference to the {@code MainFrame} from which the
-	 *            {@code FileExport} frame was invoked.
 	 */
-	public FileImport(File imptFl, SystemObjects objs, String[] reqFlHdrs,
-			MainFrame mnFrm) {
+	public FileImport(File imptFl, SystemObjects objs, String[] reqFlHdrs) {
 		importFile = imptFl;
 		objects = objs;
 		requiredFileHeaders = reqFlHdrs;
-		mainFrame = mnFrm;
-
-		setUpGui();
-		setLocationRelativeTo(mainFrame);
-		setAlwaysOnTop(true);
-		setVisible(true);
-
-		importWorker = new ImportWorker();
-		importWorker.addPropertyChangeListener(new PropertyChangeListener() {
-			public void propertyChange(PropertyChangeEvent evt) {
-				if ("progress".equals(evt.getPropertyName())) {
-					progressBar.setValue((Integer) evt.getNewValue());
-				}
-			}
-		});
+		importErrors = new ImportErrors();
+		changeSupport = new PropertyChangeSupport(this);
+		progress = 0;
+	}
+
+	/**
+	 * Returns the file this import reads.
+	 * 
+	 * @return the import file.
+	 */
+	public File getImportFile() {
+		return importFile;
+	}
+
+	/**
+	 * Adds a listener for the {@code "progress"} property of this import,
+	 * which may be notified from any thread while the import is staged.
+	 * 
+	 * @param lstnr
+	 *            listener to add
+	 */
+	public void addPropertyChangeListener(PropertyChangeListener lstnr) {
+		changeSupport.addPropertyChangeListener(lstnr);
+	}
+
+	/**
+	 * Removes a listener for the {@code "progress"} property of this import.
+	 * 
+	 * @param lstnr
+	 *            listener to remove
+	 */
+	public void removePropertyChangeListener(PropertyChangeListener lstnr) {
+		changeSupport.removePropertyChangeListener(lstnr);
+	}
+
+	/**
+	 * Reads the whole import file and stages its data with
+	 * {@code processDataSets()}. This may take long and should be run in the
+	 * background; the {@code SystemObjects} database is not modified.
+	 * 
+	 * @throws Exception
+	 *             if the file cannot be read or is not formatted correctly
+	 */
+	public void stage() throws Exception {
+		FileChannel channel = FileChannel.open(importFile.toPath(),
+				StandardOpenOption.READ);
+		try {
+			readInput(channel);
+		} finally {
+			channel.close();
+			importErrors.close();
+		}
+		processDataSets();
+	}
+
+	/**
+	 * Publishes the staged data to the {@code SystemObjects} database with
+	 * {@code publishDataSets()} and notifies the listeners of the database
+	 * once. In the application this must be called on the event dispatch
+	 * thread, after a successful {@code stage()}.
+	 */
+	public void publish() {
+		publishDataSets();
+		objects.fireDataChanged();
+		setProgress(100);
 	}
 
 	/**
@@ -89,191 +155,379 @@ public abstract class FileImport extends JDialog {
 	}
 
 	/**
-	 * Beins execution of the {@code ImportWorker} task.
+	 * Returns a description of the changes that {@code publish()} made to
+	 * existing data of the database, such as services that had to be
+	 * removed. Intended to be overridden.
+	 * 
+	 * @return the description, or {@code null} if there is none.
 	 */
-	public void go() {
-		importWorker.execute();
+	public String getPublishSummary() {
+		return null;
 	}
 
 	/**
-	 * Counts the number of lines in the specified import file.
+	 * Returns the lines rejected by this import so far.
 	 * 
-	 * @param fl
-	 *            {@code File} to count lines from.
-	 * @return the number of lines within the specified file.
-	 * @throws FileNotFoundException
+	 * @return the {@code ImportErrors} of this import.
 	 */
-	private int countLines(File fl) throws FileNotFoundException {
-		Scanner lineCounter = new Scanner(fl);
-		int numLines = 0;
-		while (lineCounter.hasNextLine()) {
-			lineCounter.nextLine();
-			numLines++;
-		}
+	public ImportErrors getImportErrors() {
+		return importErrors;
+	}
 
-		if (numLines > 0) {
-			numLines--; // done to prevent counting of header line
-		}
+	/**
+	 * Sets a file to which the lines rejected by this import are copied,
+	 * preceded by the header of the import file. The file is only created if
+	 * a line is rejected. Must be called before {@code stage()}.
+	 * 
+	 * @param qrntnFl
+	 *            the quarantine file, or {@code null} for none
+	 */
+	public void setQuarantineFile(File qrntnFl) {
+		importErrors.setQuarantineFile(qrntnFl);
+	}
 
-		lineCounter.close();
+	/**
+	 * Rejects the current line of the import file. Row processing should call
+	 * this instead of printing, so that bad lines cost little more than good
+	 * ones.
+	 * 
+	 * @param record
+	 *            tokenizer positioned on the rejected line
+	 * @param cause
+	 *            why the line is rejected, such as
+	 *            {@code ImportErrors.MALFORMED_NUMBER}
+	 * @param detail
+	 *            short description of the problem, or {@code null}
+	 */
+	protected void reject(CsvTokenizer record, int cause, String detail) {
+		reject(record, cause, detail, 0, 0);
+	}
 
-		return numLines;
+	/**
+	 * Rejects the current line of the import file with a description taking
+	 * one number.
+	 * 
+	 * @param record
+	 *            tokenizer positioned on the rejected line
+	 * @param cause
+	 *            why the line is rejected
+	 * @param detail
+	 *            constant description of the problem, in which {@code #}
+	 *            stands for the argument
+	 * @param arg
+	 *            argument of the description
+	 */
+	protected void reject(CsvTokenizer record, int cause, String detail,
+			long arg) {
+		reject(record, cause, detail, arg, 0);
 	}
 
 	/**
-	 * Reads the file headers from the imported file. If the headers do not
-	 * match the expected file headers given in the constructor, it displays an
-	 * error message.
+	 * Rejects the current line of the import file with a description taking
+	 * two numbers. The description is only formatted if the rejection is
+	 * sampled, so rejecting a line builds no {@code String}s.
 	 * 
-	 * @param firstLn
+	 * @param record
+	 *            tokenizer positioned on the rejected line
+	 * @param cause
+	 *            why the line is rejected
+	 * @param detail
+	 *            constant description of the problem, in which each
+	 *            {@code #} stands for the next argument
+	 * @param arg0
+	 *            first argument of the description
+	 * @param arg1
+	 *            second argument of the description
 	 */
-	private void processHeaders(String firstLn) {
-		Scanner firstLineScanner = new Scanner(firstLn);
-		firstLineScanner.useDelimiter(",");
+	protected void reject(CsvTokenizer record, int cause, String detail,
+			long arg0, long arg1) {
+		importErrors.reject(cause, record, record.getRecordOffset(), detail,
+				arg0, arg1);
+	}
 
-		ArrayList<String> scannedHeaders = new ArrayList<String>();
-		while (firstLineScanner.hasNext()) {
-			scannedHeaders.add(firstLineScanner.next());
+	/**
+	 * Rejects the current line if a number read from it was malformed.
+	 * 
+	 * @param record
+	 *            tokenizer positioned on the line being processed
+	 * @return {@code true} if the line was rejected.
+	 */
+	protected boolean rejectMalformed(CsvTokenizer record) {
+		int field = record.getMalformedField();
+		if (field < 0) {
+			return false;
 		}
+		reject(record, ImportErrors.MALFORMED_NUMBER, "column #", field + 1);
+		return true;
+	}
 
-		for (int index = 0; index < requiredFileHeaders.length; index++) {
-			System.out.print(scannedHeaders.get(index) + "\n"
-					+ requiredFileHeaders[index]);
-			System.out.println(scannedHeaders.get(index).equals(
-					requiredFileHeaders[index]));
+	/**
+	 * Determines whether the current line has a field for each required file
+	 * header, rejecting it if not.
+	 * 
+	 * @param record
+	 *            tokenizer positioned on the line to check
+	 * @return {@code true} if the line has all required fields.
+	 */
+	protected boolean hasRequiredFields(CsvTokenizer record) {
+		if (record.getFieldCount() < requiredFileHeaders.length) {
+			reject(record, ImportErrors.MISSING_FIELD, "# of # fields",
+					record.getFieldCount(), requiredFileHeaders.length);
+			return false;
+		}
+		return true;
+	}
 
-			if (!scannedHeaders.get(index).equals(requiredFileHeaders[index])) {
-				JOptionPane.showMessageDialog(this,
-						"Files are not formatted correctly.",
-						"File Format Error", JOptionPane.ERROR_MESSAGE);
-			}
+	/**
+	 * Reads the file headers from the imported file. If the headers do not
+	 * match the expected file headers given in the constructor, the import
+	 * fails.
+	 * 
+	 * @param headerRecord
+	 *            tokenizer positioned on the first line of the file
+	 * @throws IOException
+	 *             if the headers do not match
+	 */
+	protected void processHeaders(CsvTokenizer headerRecord)
+			throws IOException {
+		int numHeaders = requiredFileHeaders.length;
+		boolean matches = headerRecord.getFieldCount() >= numHeaders;
+		for (int index = 0; matches && index < numHeaders; index++) {
+			matches = headerRecord.fieldEquals(index,
+					requiredFileHeaders[index]);
 		}
 
-		firstLineScanner.close();
+		if (!matches) {
+			throw formatError();
+		}
 	}
 
 	/**
-	 * Method intended to be overridden which is run after reading of the entire
-	 * file. If there are any last operations that must be performed before
-	 * control is returned to the {@code MainFrame}, they should be specified
-	 * from within this method.
+	 * Creates the exception thrown when the import file is not formatted
+	 * correctly.
+	 * 
+	 * @return the exception to throw.
 	 */
-	protected void processDataSets() {
-		// intended to be overridden
+	protected IOException formatError() {
+		return new IOException(importFile.getName()
+				+ " is not formatted correctly.");
 	}
 
 	/**
-	 * Reads an individual line from the import file.
+	 * Reads the header and all lines of the import file from the specified
+	 * channel, handing each line to {@code processLineData()}. Subclasses may
+	 * override this to read the file in another way, and should then report
+	 * their progress with {@code reportProgress()}.
 	 * 
-	 * @param ln
-	 *            one line from the import file.
-	 * @return array of {@code String} objects for each column value.
+	 * @param channel
+	 *            channel open on the import file
+	 * @throws Exception
 	 */
-	private String[] readLine(String ln) {
-		String[] lineTokens = new String[requiredFileHeaders.length];
-		Scanner lineScanner = new Scanner(ln);
-		lineScanner.useDelimiter(",");
-
-		for (int index = 0; index < requiredFileHeaders.length; index++) {
-			lineTokens[index] = new String(lineScanner.next());
-		}
-		return lineTokens;
+	protected void readFile(FileChannel channel) throws Exception {
+		readRecords(channel, channel);
 	}
 
 	/**
-	 * Interprets the data specified from the array of {@code String} objects
-	 * read by the {@code readLine()} method and converts it to data objects to
-	 * be stored in the {@code SystemObjects} database.
+	 * Reads the header and all lines of one table from the specified input,
+	 * handing each line to {@code processLineData()}. Progress is reported
+	 * according to the position in the file the input is read from, so for a
+	 * compressed file it follows the compressed bytes consumed.
 	 * 
-	 * @param lineTokens
-	 *            array of {@code String} objects for each data value.
+	 * @param input
+	 *            channel to read the table from
+	 * @param source
+	 *            channel open on the import file, which {@code input} reads
+	 *            from
+	 * @throws Exception
 	 */
-	protected abstract void processLineData(String[] lineTokens);
+	protected void readRecords(ReadableByteChannel input, FileChannel source)
+			throws Exception {
+		long fileSize = source.size();
+		CsvTokenizer tokenizer = new CsvTokenizer(input);
+
+		if (!tokenizer.nextRecord()) {
+			return;
+		}
+		importErrors.setHeader(tokenizer);
+		processHeaders(tokenizer);
+
+		while (tokenizer.nextRecord()) {
+			processLineData(tokenizer);
+			reportProgress(source.position(), fileSize);
+		}
+	}
 
 	/**
-	 * Initializes the GUI for this {@code FileImport}.
+	 * Determines whether the tables of a compressed import file are
+	 * decompressed to a temporary file that is handed to {@code readFile()},
+	 * so that an override of {@code readFile()} applies to them as well.
+	 * Otherwise they are read with {@code readRecords()} as they are
+	 * decompressed, which needs no disk space. Intended to be overridden.
+	 * 
+	 * @return {@code true} to decompress tables to a temporary file.
 	 */
-	private void setUpGui() {
-		setTitle("Import");
-		setIconImage(Toolkit.getDefaultToolkit().getImage(
-				FileImport.class.getResource("/res/import128.png")));
-		setBounds(100, 100, 437, 90);
-		getContentPane().setLayout(new BorderLayout());
-
-		JPanel progressPanel = new JPanel();
-		FlowLayout flowLayout = (FlowLayout) progressPanel.getLayout();
-		flowLayout.setVgap(10);
-		getContentPane().add(progressPanel, BorderLayout.CENTER);
-
-		progressBar = new JProgressBar();
-		progressBar.setMaximum(100);
-		progressBar.setPreferredSize(new Dimension(400, 30));
-		progressBar.setMinimumSize(new Dimension(10, 30));
-		progressBar.setMaximumSize(new Dimension(32767, 30));
-		progressPanel.add(progressBar);
+	protected boolean decompressesToFile() {
+		return false;
 	}
 
 	/**
-	 * Updates the viewable routes in the MapViewer by adding all data from the
-	 * {@code SystemObjects} database. Run after the completion of an import
-	 * sequence.
+	 * Reads the import file from the specified channel according to its
+	 * extension: {@code .gz} files are decompressed, every {@code .csv} entry
+	 * of a {@code .zip} archive is read in turn, and any other file is handed
+	 * to {@code readFile()}.
+	 * 
+	 * @param channel
+	 *            channel open on the import file
+	 * @throws Exception
 	 */
-	private void updateViewableData() {
-		for (MapFrame mpFrm : mainFrame.getMapFrames()) {
-			if (mpFrm != null) {
-				mpFrm.getMap().setViewableRoutes(objects.getAllRoutes());
+	private void readInput(FileChannel channel) throws Exception {
+		String name = importFile.getName().toLowerCase();
+		InputStream compressed = Channels.newInputStream(channel);
+
+		if (name.endsWith(".gz")) {
+			GZIPInputStream gzipIn = new GZIPInputStream(compressed,
+					COMPRESSED_BUFFER_SIZE);
+			readTable(gzipIn, channel);
+		} else if (name.endsWith(".zip")) {
+			ZipInputStream zipIn = new ZipInputStream(new BufferedInputStream(
+					compressed, COMPRESSED_BUFFER_SIZE));
+			ZipEntry entry;
+			while ((entry = zipIn.getNextEntry()) != null) {
+				if (!entry.isDirectory()
+						&& entry.getName().toLowerCase().endsWith(".csv")) {
+					readTable(zipIn, channel);
+				}
 			}
+		} else {
+			readFile(channel);
 		}
 	}
 
 	/**
-	 * Background task that manages the reading of all data from the imported
-	 * file.
-	 * 
-	 * @author Sean Harger
+	 * Reads one decompressed table of a compressed import file, either as it
+	 * is decompressed or through a temporary file according to
+	 * {@code decompressesToFile()}. Writing the temporary file takes the first
+	 * half of the progress of the table.
 	 * 
+	 * @param table
+	 *            stream of the decompressed table
+	 * @param source
+	 *            channel open on the import file, which {@code table} reads
+	 *            from
+	 * @throws Exception
 	 */
-	class ImportWorker extends SwingWorker<Integer, Object> {
-		/**
-		 * The background loop that continually reads data from the import file
-		 * and writes it to the {@code SystemObjects} database. Calculates and
-		 * sets progress according to the current line and the estimated number
-		 * of total lines calculated by the {@code countLines()} method. Sleeps
-		 * the thread for 1 millisecond so that the progress bar has time to
-		 * update.
-		 */
-		protected Integer doInBackground() throws Exception {
-			mainFrame.setEnabled(false);
-
-			int numLines = countLines(importFile);
-			Scanner mainScanner = new Scanner(importFile);
-			System.out.println("processHeaders");
-			processHeaders(mainScanner.nextLine());
-
-			for (int lineCtr = 0; mainScanner.hasNextLine(); lineCtr++) {
-				processLineData(readLine(mainScanner.nextLine()));
-				double progress = (double) (lineCtr + 1) / numLines * 100;
-				setProgress((int) progress);
-				Thread.sleep(1);
+	private void readTable(InputStream table, FileChannel source)
+			throws Exception {
+		ReadableByteChannel input = Channels.newChannel(table);
+		if (!decompressesToFile()) {
+			readRecords(input, source);
+			return;
+		}
+
+		long fileSize = source.size();
+		File tempFile = File.createTempFile("mass", ".csv");
+		FileChannel tempChannel;
+		try {
+			tempChannel = FileChannel.open(tempFile.toPath(),
+					StandardOpenOption.READ, StandardOpenOption.WRITE,
+					StandardOpenOption.DELETE_ON_CLOSE);
+		} catch (IOException ex) {
+			tempFile.delete();
+			throw ex;
+		}
+
+		try {
+			ByteBuffer buf = ByteBuffer.allocate(COMPRESSED_BUFFER_SIZE);
+			while (input.read(buf) >= 0) {
+				buf.flip();
+				while (buf.hasRemaining()) {
+					tempChannel.write(buf);
+				}
+				buf.clear();
+				reportProgress(source.position(), fileSize * 2);
 			}
+			tempChannel.position(0);
 
-			mainScanner.close();
+			progressBase = 50;
+			readFile(tempChannel);
+		} finally {
+			progressBase = 0;
+			tempChannel.close();
+		}
+	}
 
-			return 0;
+	/**
+	 * Publishes the progress of the import according to the number of bytes
+	 * processed so far. Updates are dropped if the previous one was published
+	 * less than {@code PROGRESS_INTERVAL} ago, so this may be called for every
+	 * line and from any thread. While a compressed table is read from its
+	 * temporary file, the progress covers what is left after decompressing.
+	 * 
+	 * @param bytesRead
+	 *            number of bytes of the import file processed
+	 * @param fileSize
+	 *            total number of bytes in the import file
+	 */
+	protected void reportProgress(long bytesRead, long fileSize) {
+		long now = System.nanoTime();
+		synchronized (progressLock) {
+			if (now - lastProgressUpdate < PROGRESS_INTERVAL) {
+				return;
+			}
+			lastProgressUpdate = now;
 		}
+		int base = progressBase;
+		setProgress((int) Math.min(base + bytesRead * (100 - base)
+				/ Math.max(fileSize, 1), 99));
+	}
 
-		/**
-		 * Finishes the import task by processing all data sets, setting the
-		 * progress to complete, refreshing the viewable items from the
-		 * {@code SystemObjects} database, and re-enabling control of the
-		 * {@code MainFrame};
-		 */
-		protected void done() {
-			processDataSets();
-			mainFrame.setEnabled(true);
-			setProgress(100);
-			updateViewableData();
-			dispose();
+	/**
+	 * Sets the {@code "progress"} property of this import and notifies its
+	 * listeners if it changed.
+	 * 
+	 * @param prgrss
+	 *            progress of the import in percent
+	 */
+	private void setProgress(int prgrss) {
+		int oldProgress;
+		synchronized (progressLock) {
+			oldProgress = progress;
+			progress = prgrss;
 		}
+		changeSupport.firePropertyChange("progress", oldProgress, prgrss);
+	}
+
+	/**
+	 * Method intended to be overridden which is run on the background thread
+	 * after reading of the entire file. It should finish building the imported
+	 * data into a staged form that is private to this import, and must not
+	 * modify the objects of the {@code SystemObjects} database, which may be
+	 * painted at the same time.
+	 */
+	protected void processDataSets() {
+		// intended to be overridden
 	}
+
+	/**
+	 * Method intended to be overridden which publishes the staged data to the
+	 * {@code SystemObjects} database. It is run by {@code publish()} on the
+	 * event dispatch thread after a successful import, so nothing is painted
+	 * while it runs, and it should only link the prepared objects into the
+	 * database. All map frames are notified once it returns.
+	 */
+	protected void publishDataSets() {
+		// intended to be overridden
+	}
+
+	/**
+	 * Interprets the fields of one line of the import file and converts them
+	 * to data objects to be stored in the {@code SystemObjects} database. The
+	 * fields should be read with the typed accessors of the tokenizer, which
+	 * parse numbers without creating {@code String}s.
+	 * 
+	 * @param record
+	 *            tokenizer positioned on the line to process; only valid
+	 *            until this method returns
+	 */
+	protected abstract void processLineData(CsvTokenizer record);
 }
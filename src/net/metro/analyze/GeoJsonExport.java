@@ -0,0 +1,589 @@
+/*******************************************************************************
+ * MASS (Metro Analytics Software System) by Sean Harger
+ * is licensed under a Creative Commons Attribution-NonCommercial-ShareAlike 3.0
+ * United States License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by-nc-sa/3.0/us/.
+ ******************************************************************************/
+package net.metro.analyze;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.metro.systemobjects.PathGeometry;
+import net.metro.systemobjects.Period;
+import net.metro.systemobjects.Route;
+import net.metro.systemobjects.RoutePath;
+import net.metro.systemobjects.Service;
+import net.metro.systemobjects.Stop;
+import net.metro.systemobjects.SystemObjects;
+import net.metro.systemobjects.dataobjects.DataType;
+
+/**
+ * Extension of the {@code FileExport} class that writes the route geometry
+ * within MASS as a GeoJSON {@code FeatureCollection} for web maps. Every
+ * {@code RoutePath} is a {@code LineString} feature followed by one
+ * {@code Point} feature per {@code Stop}, and features are written to the file
+ * as the paths are walked, so the document is never held in memory.
+ * 
+ * Features carry the ridership of the services of the export {@code Period}:
+ * a path has its number of services, the sums of its point data types, and
+ * the maximum of its segment data types, and a stop has the number of
+ * services stopping there and the sum of every data type. Without a period,
+ * only the names and ids are written.
+ * 
+ * Lines can be simplified with the Douglas-Peucker algorithm, which drops the
+ * waypoints that lie within a tolerance of the simplified line. Stops are
+ * always kept, so lines still pass through their stops.
+ * 
+ * @author Sean Harger
+ * 
+ */
+public class GeoJsonExport extends FileExport {
+	/** Extension of GeoJSON files. */
+	public static final String EXTENSION = "geojson";
+
+	private static final String[] KEY_PROPERTIES = { "kind", "routeId",
+			"routeName", "pathId", "pathName", "stopSeq", "stopId", "stopName",
+			"services" };
+
+	// names of the property summing each data type, and of the property
+	// holding the maximum of each segment data type, indexed by ordinal
+	private static final String[] sumProperties;
+	private static final String[] maxProperties;
+
+	/**
+	 * Names of every property a feature can carry: the key properties, the
+	 * sums of the data types, and then the maximums of the segment data types.
+	 */
+	protected static final String[] fileHeaders;
+
+	static {
+		DataType[] dTypes = DataType.values();
+		sumProperties = new String[dTypes.length];
+		maxProperties = new String[dTypes.length];
+		List<String> names = new ArrayList<String>(
+				Arrays.asList(KEY_PROPERTIES));
+		for (DataType dType : dTypes) {
+			sumProperties[dType.getOrdinal()] = dType.getName().toLowerCase();
+			names.add(sumProperties[dType.getOrdinal()]);
+		}
+		for (DataType dType : dTypes) {
+			if (dType.getType() != DataType.POINT) {
+				maxProperties[dType.getOrdinal()] = "max"
+						+ sumProperties[dType.getOrdinal()];
+				names.add(maxProperties[dType.getOrdinal()]);
+			}
+		}
+		fileHeaders = names.toArray(new String[names.size()]);
+	}
+
+	// meters per microdegree of latitude
+	private static final double METERS_PER_MICRODEGREE = 0.11132;
+	// meters per pixel at zoom level 0 on the equator of a Mercator map
+	private static final double EQUATOR_METERS_PER_PIXEL = 156543.034;
+
+	private Period period;
+	private double tolerance;
+
+	private JsonWriter out;
+
+	/**
+	 * Constructs a {@code GeoJsonExport}.
+	 * 
+	 * @param exptFl
+	 *            {@code File} to export data to.
+	 * @param objs
+	 *            {@code SystemObjects} database to extract data from.
+	 * @param pd
+	 *            {@code Period} of the ridership to write, or {@code null}
+	 *            to write the geometry only
+	 * @param tol
+	 *            simplification tolerance in meters, or {@code 0} to keep
+	 *            every waypoint
+	 */
+	public GeoJsonExport(File exptFl, SystemObjects objs, Period pd,
+			double tol) {
+		super(exptFl, objs, GeoJsonExport.fileHeaders);
+		period = pd;
+		tolerance = tol;
+	}
+
+	/**
+	 * Returns the tolerance that drops the details smaller than one pixel of a
+	 * web map at the specified zoom level.
+	 * 
+	 * @param zoom
+	 *            zoom level of the map, {@code 0} showing the whole world
+	 * @param lat
+	 *            latitude of the area shown
+	 * @return the tolerance in meters.
+	 */
+	public static double toleranceForZoom(int zoom, double lat) {
+		return EQUATOR_METERS_PER_PIXEL * Math.cos(Math.toRadians(lat))
+				/ Math.pow(2, zoom);
+	}
+
+	/**
+	 * Writes the feature collection around the features written by
+	 * {@code writeData()}.
+	 */
+	protected void writeFile(FileChannel channel) throws IOException {
+		out = new JsonWriter(channel);
+		try {
+			out.write("{\"type\":\"FeatureCollection\",");
+			if (period != null) {
+				out.write("\"period\":{\"dayMask\":");
+				out.writeNumber(period.getDayMask());
+				out.write(",\"startTime\":");
+				out.writeNumber(period.getTimePeriod().getStartSeconds());
+				out.write(",\"endTime\":");
+				out.writeNumber(period.getTimePeriod().getEndSeconds());
+				out.write("},");
+			}
+			out.write("\"features\":[");
+			writeData();
+			out.write("\n]}\n");
+			out.flush();
+		} finally {
+			out = null;
+		}
+	}
+
+	/**
+	 * Writes the feature of every route path, each followed by the features
+	 * of its stops.
+	 */
+	protected void writeData() throws IOException {
+		long totalVertices = 0;
+		for (Route rte : getSystemObjects().getAllRoutes()) {
+			for (RoutePath rtePth : rte.getPaths()) {
+				totalVertices += rtePth.getGeometry().size();
+			}
+		}
+
+		DataType[] dTypes = DataType.values();
+		long verticesWritten = 0;
+		boolean first = true;
+		for (Route rte : getSystemObjects().getAllRoutes()) {
+			for (RoutePath rtePth : rte.getPaths()) {
+				PathGeometry geom = rtePth.getGeometry();
+				int numStops = geom.getNumStops();
+				List<Service> svcs = null;
+				int[] svcCounts = new int[numStops];
+				int[][] sums = new int[dTypes.length][numStops];
+				if (period != null) {
+					svcs = rtePth.getAllServicesWithPeriod(period);
+					for (Service svc : svcs) {
+						RidershipExport.addService(svc, geom, svcCounts, sums);
+					}
+				}
+
+				out.write(first ? "\n" : ",\n");
+				first = false;
+				writePathFeature(rte, rtePth, svcs);
+				for (int index = 0; index < numStops; index++) {
+					out.write(",\n");
+					writeStopFeature(rte, rtePth, index, svcs, svcCounts, sums);
+				}
+
+				verticesWritten += geom.size();
+				reportProgress(verticesWritten, totalVertices);
+			}
+		}
+	}
+
+	/**
+	 * Writes the {@code LineString} feature of a route path.
+	 * 
+	 * @param rte
+	 *            the route of the path
+	 * @param rtePth
+	 *            the route path
+	 * @param svcs
+	 *            services of the path in the export period, or {@code null}
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	private void writePathFeature(Route rte, RoutePath rtePth,
+			List<Service> svcs) throws IOException {
+		PathGeometry geom = rtePth.getGeometry();
+		boolean[] keep = simplify(geom, tolerance);
+
+		out.write("{\"type\":\"Feature\",\"geometry\":{\"type\":\"LineString\","
+				+ "\"coordinates\":[");
+		boolean first = true;
+		for (int vertex = 0; vertex < geom.size(); vertex++) {
+			if (keep[vertex]) {
+				if (!first) {
+					out.write(",");
+				}
+				first = false;
+				writePosition(geom, vertex);
+			}
+		}
+		out.write("]},\"properties\":{\"kind\":\"path\",\"routeId\":");
+		out.writeNumber(rte.getRouteId());
+		out.write(",\"routeName\":");
+		out.writeString(rte.getName());
+		out.write(",\"pathId\":");
+		out.writeNumber(rtePth.getPathId());
+		out.write(",\"pathName\":");
+		out.writeString(rtePth.getName());
+		if (svcs != null) {
+			out.write(",\"services\":");
+			out.writeNumber(svcs.size());
+			for (DataType dType : DataType.values()) {
+				long value;
+				if (dType.getType() == DataType.POINT) {
+					writeName(sumProperties[dType.getOrdinal()]);
+					value = 0;
+					for (Service svc : svcs) {
+						value += svc.getSumData(dType);
+					}
+				} else {
+					writeName(maxProperties[dType.getOrdinal()]);
+					value = 0;
+					for (Service svc : svcs) {
+						value = Math.max(value, svc.getMaxData(dType));
+					}
+				}
+				out.writeNumber(value);
+			}
+		}
+		out.write("}}");
+	}
+
+	/**
+	 * Writes the {@code Point} feature of a stop of a route path.
+	 * 
+	 * @param rte
+	 *            the route of the path
+	 * @param rtePth
+	 *            the route path
+	 * @param index
+	 *            position of the stop among the stops of the path
+	 * @param svcs
+	 *            services of the path in the export period, or {@code null}
+	 * @param svcCounts
+	 *            number of services stopping at each stop of the path
+	 * @param sums
+	 *            sum of the values present at each stop of the path, indexed
+	 *            by {@code DataType} ordinal and then by stop
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	private void writeStopFeature(Route rte, RoutePath rtePth, int index,
+			List<Service> svcs, int[] svcCounts, int[][] sums)
+			throws IOException {
+		PathGeometry geom = rtePth.getGeometry();
+		Stop st = geom.getStop(index);
+
+		out.write("{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\","
+				+ "\"coordinates\":");
+		writePosition(geom, geom.getStopVertex(index));
+		out.write("},\"properties\":{\"kind\":\"stop\",\"routeId\":");
+		out.writeNumber(rte.getRouteId());
+		out.write(",\"pathId\":");
+		out.writeNumber(rtePth.getPathId());
+		out.write(",\"stopSeq\":");
+		out.writeNumber(index + 1);
+		out.write(",\"stopId\":");
+		out.writeNumber(st.getStationId());
+		out.write(",\"stopName\":");
+		out.writeString(st.getName());
+		if (svcs != null) {
+			out.write(",\"services\":");
+			out.writeNumber(svcCounts[index]);
+			for (DataType dType : DataType.values()) {
+				writeName(sumProperties[dType.getOrdinal()]);
+				out.writeNumber(sums[dType.getOrdinal()][index]);
+			}
+		}
+		out.write("}}");
+	}
+
+	/**
+	 * Writes the position of a vertex as longitude and latitude.
+	 * 
+	 * @param geom
+	 *            geometry of a route path
+	 * @param vertex
+	 *            index of the vertex
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	private void writePosition(PathGeometry geom, int vertex)
+			throws IOException {
+		out.write("[");
+		out.writeMicrodegrees(geom.getLonE6(vertex));
+		out.write(",");
+		out.writeMicrodegrees(geom.getLatE6(vertex));
+		out.write("]");
+	}
+
+	/**
+	 * Writes the name of a property that follows another property.
+	 * 
+	 * @param name
+	 *            the name of the property
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	private void writeName(String name) throws IOException {
+		out.write(",\"");
+		out.write(name);
+		out.write("\":");
+	}
+
+	/**
+	 * Selects the vertices of a path to keep with the Douglas-Peucker
+	 * algorithm. The ends and the stops of the path are always kept, and the
+	 * waypoints between each pair of them are simplified in turn, splitting at
+	 * the farthest waypoint for as long as it lies beyond the tolerance.
+	 * Distances are measured on a plane tangent to the path, which is accurate
+	 * at the scale of a route.
+	 * 
+	 * @param geom
+	 *            geometry of a route path
+	 * @param tol
+	 *            tolerance in meters, or {@code 0} to keep every vertex
+	 * @return whether each vertex of the path is kept.
+	 */
+	static boolean[] simplify(PathGeometry geom, double tol) {
+		int size = geom.size();
+		boolean[] keep = new boolean[size];
+		if (tol <= 0 || size <= 2) {
+			Arrays.fill(keep, true);
+			return keep;
+		}
+
+		keep[0] = true;
+		keep[size - 1] = true;
+		for (int index = 0; index < geom.getNumStops(); index++) {
+			keep[geom.getStopVertex(index)] = true;
+		}
+
+		double xScale = METERS_PER_MICRODEGREE
+				* Math.cos(Math.toRadians(geom.getLat(0)));
+		double yScale = METERS_PER_MICRODEGREE;
+		double tolSquared = tol * tol;
+
+		// spans left to simplify, as pairs of first and last vertex
+		int[] spans = new int[64];
+		int numSpans = 0;
+		int start = 0;
+		for (int vertex = 1; vertex < size; vertex++) {
+			if (!keep[vertex]) {
+				continue;
+			}
+			if (vertex - start > 1) {
+				spans = push(spans, numSpans++, start, vertex);
+			}
+			start = vertex;
+		}
+
+		while (numSpans > 0) {
+			numSpans--;
+			int first = spans[numSpans * 2];
+			int last = spans[numSpans * 2 + 1];
+
+			double x0 = geom.getLonE6(first) * xScale;
+			double y0 = geom.getLatE6(first) * yScale;
+			double dx = geom.getLonE6(last) * xScale - x0;
+			double dy = geom.getLatE6(last) * yScale - y0;
+			double lengthSquared = dx * dx + dy * dy;
+
+			int farthest = -1;
+			double maxSquared = tolSquared;
+			for (int vertex = first + 1; vertex < last; vertex++) {
+				double px = geom.getLonE6(vertex) * xScale - x0;
+				double py = geom.getLatE6(vertex) * yScale - y0;
+				double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1,
+						(px * dx + py * dy) / lengthSquared));
+				double ex = px - t * dx;
+				double ey = py - t * dy;
+				double distSquared = ex * ex + ey * ey;
+				if (distSquared > maxSquared) {
+					maxSquared = distSquared;
+					farthest = vertex;
+				}
+			}
+
+			if (farthest >= 0) {
+				keep[farthest] = true;
+				if (farthest - first > 1) {
+					spans = push(spans, numSpans++, first, farthest);
+				}
+				if (last - farthest > 1) {
+					spans = push(spans, numSpans++, farthest, last);
+				}
+			}
+		}
+		return keep;
+	}
+
+	/**
+	 * Stores a span at the specified position of the span stack, growing the
+	 * stack if it is full.
+	 * 
+	 * @param spans
+	 *            the span stack
+	 * @param index
+	 *            position of the span
+	 * @param first
+	 *            first vertex of the span
+	 * @param last
+	 *            last vertex of the span
+	 * @return the span stack, which may be a new array.
+	 */
+	private static int[] push(int[] spans, int index, int first, int last) {
+		if (index * 2 + 2 > spans.length) {
+			spans = Arrays.copyOf(spans, spans.length * 2);
+		}
+		spans[index * 2] = first;
+		spans[index * 2 + 1] = last;
+		return spans;
+	}
+
+	/**
+	 * Writes JSON text to a channel through a reusable byte buffer, which is
+	 * flushed in large blocks.
+	 * 
+	 * @author Sean Harger
+	 * 
+	 */
+	private static final class JsonWriter {
+		private static final int BUFFER_SIZE = 1 << 20;
+		private static final char[] HEX_DIGITS = "0123456789abcdef"
+				.toCharArray();
+
+		private final FileChannel channel;
+		private final byte[] buffer;
+		private int position;
+
+		/**
+		 * Constructs a {@code JsonWriter}.
+		 * 
+		 * @param chnl
+		 *            channel open on the export file
+		 */
+		JsonWriter(FileChannel chnl) {
+			channel = chnl;
+			buffer = new byte[BUFFER_SIZE];
+			position = 0;
+		}
+
+		/**
+		 * Writes ASCII text as it is.
+		 * 
+		 * @param text
+		 *            JSON syntax, names, or other ASCII text
+		 * @throws IOException
+		 */
+		void write(String text) throws IOException {
+			ensureRoom(text.length());
+			for (int index = 0; index < text.length(); index++) {
+				buffer[position++] = (byte) text.charAt(index);
+			}
+		}
+
+		/**
+		 * Writes a string value in quotes, escaping the characters JSON
+		 * requires and encoding the rest as UTF-8.
+		 * 
+		 * @param str
+		 *            the string, or {@code null}
+		 * @throws IOException
+		 */
+		void writeString(String str) throws IOException {
+			if (str == null) {
+				write("null");
+				return;
+			}
+
+			StringBuilder escaped = new StringBuilder(str.length() + 2);
+			escaped.append('"');
+			for (int index = 0; index < str.length(); index++) {
+				char c = str.charAt(index);
+				if (c == '"' || c == '\\') {
+					escaped.append('\\').append(c);
+				} else if (c < 0x20) {
+					escaped.append("\\u00").append(HEX_DIGITS[c >> 4])
+							.append(HEX_DIGITS[c & 0xF]);
+				} else {
+					escaped.append(c);
+				}
+			}
+			escaped.append('"');
+
+			byte[] bytes = escaped.toString().getBytes(StandardCharsets.UTF_8);
+			int offset = 0;
+			while (offset < bytes.length) {
+				ensureRoom(1);
+				int count = Math.min(bytes.length - offset, buffer.length
+						- position);
+				System.arraycopy(bytes, offset, buffer, position, count);
+				position += count;
+				offset += count;
+			}
+		}
+
+		/**
+		 * Writes an integer value.
+		 * 
+		 * @param value
+		 *            the value
+		 * @throws IOException
+		 */
+		void writeNumber(long value) throws IOException {
+			ensureRoom(CsvWriter.MAX_NUMBER_LENGTH);
+			position = CsvWriter.formatDigits(value, buffer, position);
+		}
+
+		/**
+		 * Writes a coordinate in microdegrees as degrees, without the trailing
+		 * zeros of its decimals.
+		 * 
+		 * @param valueE6
+		 *            the coordinate in microdegrees
+		 * @throws IOException
+		 */
+		void writeMicrodegrees(int valueE6) throws IOException {
+			ensureRoom(CsvWriter.MAX_NUMBER_LENGTH);
+			position = CsvWriter.formatFixed(valueE6, buffer, position);
+		}
+
+		/**
+		 * Writes the buffered bytes to the channel.
+		 * 
+		 * @throws IOException
+		 */
+		void flush() throws IOException {
+			ByteBuffer block = ByteBuffer.wrap(buffer, 0, position);
+			while (block.hasRemaining()) {
+				channel.write(block);
+			}
+			position = 0;
+		}
+
+		/**
+		 * Flushes the buffer if it has less than the specified number of bytes
+		 * left.
+		 * 
+		 * @param count
+		 *            number of bytes about to be written
+		 * @throws IOException
+		 */
+		private void ensureRoom(int count) throws IOException {
+			if (buffer.length - position < count) {
+				flush();
+			}
+		}
+	}
+}
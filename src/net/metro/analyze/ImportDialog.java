@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * MASS (Metro Analytics Software System) by Sean Harger
+ * is licensed under a Creative Commons Attribution-NonCommercial-ShareAlike 3.0
+ * United States License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by-nc-sa/3.0/us/.
+ ******************************************************************************/
+package net.metro.analyze;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Toolkit;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.JDialog;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingWorker;
+
+/**
+ * Dialog that runs a {@code FileImport} in the background and shows its
+ * progress. Control of the {@code MainFrame} is disabled until the import is
+ * finished.
+ * 
+ * @author Sean Harger
+ * 
+ */
+public class ImportDialog extends JDialog {
+	private static final long serialVersionUID = 8827699500005191847L;
+
+	private FileImport fileImport;
+	private MainFrame mainFrame;
+	private ImportWorker importWorker;
+	private JProgressBar progressBar;
+
+	/**
+	 * Constructs an {@code ImportDialog} and shows it.
+	 * 
+	 * @param imprt
+	 *            the {@code FileImport} to run
+	 * @param ttl
+	 *            title of the dialog
+	 * @param mnFrm
+	 *            reference to the {@code MainFrame} from which the import was
+	 *            invoked
+	 */
+	public ImportDialog(FileImport imprt, String ttl, MainFrame mnFrm) {
+		fileImport = imprt;
+		mainFrame = mnFrm;
+
+		setUpGui();
+		setTitle(ttl);
+		setLocationRelativeTo(mainFrame);
+		setAlwaysOnTop(true);
+		setVisible(true);
+
+		importWorker = new ImportWorker();
+		importWorker.addPropertyChangeListener(new PropertyChangeListener() {
+			public void propertyChange(PropertyChangeEvent evt) {
+				if ("progress".equals(evt.getPropertyName())) {
+					progressBar.setValue((Integer) evt.getNewValue());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Begins execution of the {@code ImportWorker} task. Control of the
+	 * {@code MainFrame} is disabled until the import is finished.
+	 */
+	public void go() {
+		mainFrame.setEnabled(false);
+		importWorker.execute();
+	}
+
+	/**
+	 * Initializes the GUI for this {@code ImportDialog}.
+	 */
+	private void setUpGui() {
+		setTitle("Import");
+		setIconImage(Toolkit.getDefaultToolkit().getImage(
+				ImportDialog.class.getResource("/res/import128.png")));
+		setBounds(100, 100, 437, 90);
+		getContentPane().setLayout(new BorderLayout());
+
+		JPanel progressPanel = new JPanel();
+		FlowLayout flowLayout = (FlowLayout) progressPanel.getLayout();
+		flowLayout.setVgap(10);
+		getContentPane().add(progressPanel, BorderLayout.CENTER);
+
+		progressBar = new JProgressBar();
+		progressBar.setMaximum(100);
+		progressBar.setPreferredSize(new Dimension(400, 30));
+		progressBar.setMinimumSize(new Dimension(10, 30));
+		progressBar.setMaximumSize(new Dimension(32767, 30));
+		progressPanel.add(progressBar);
+	}
+
+	/**
+	 * Background task that manages the reading of all data from the imported
+	 * file.
+	 * 
+	 * @author Sean Harger
+	 * 
+	 */
+	class ImportWorker extends SwingWorker<Integer, Object> {
+		/**
+		 * The background task that stages the data of the import file,
+		 * forwarding the progress of the import to this worker.
+		 */
+		protected Integer doInBackground() throws Exception {
+			PropertyChangeListener relay = new PropertyChangeListener() {
+				public void propertyChange(PropertyChangeEvent evt) {
+					setProgress((Integer) evt.getNewValue());
+				}
+			};
+			fileImport.addPropertyChangeListener(relay);
+			try {
+				fileImport.stage();
+			} finally {
+				fileImport.removePropertyChangeListener(relay);
+			}
+
+			return 0;
+		}
+
+		/**
+		 * Finishes the import task by publishing the staged data, summarizing
+		 * the rejected lines and the changes to existing data if there are
+		 * any, setting the progress to complete, and re-enabling control of
+		 * the {@code MainFrame}. Nothing is published if the import failed.
+		 */
+		protected void done() {
+			try {
+				get();
+				fileImport.publish();
+				ImportErrors errors = fileImport.getImportErrors();
+				if (errors.getTotal() > 0) {
+					JOptionPane.showMessageDialog(ImportDialog.this,
+							errors.getSummary(), "Rejected Lines",
+							JOptionPane.WARNING_MESSAGE);
+				}
+				String summary = fileImport.getPublishSummary();
+				if (summary != null) {
+					JOptionPane.showMessageDialog(ImportDialog.this, summary,
+							"Changed Services", JOptionPane.WARNING_MESSAGE);
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException ex) {
+				ex.getCause().printStackTrace();
+				JOptionPane.showMessageDialog(ImportDialog.this,
+						"The import failed: " + ex.getCause().getMessage(),
+						"Import Error", JOptionPane.ERROR_MESSAGE);
+			} finally {
+				mainFrame.setEnabled(true);
+				setProgress(100);
+				dispose();
+			}
+		}
+	}
+}
@@ -0,0 +1,319 @@
+/*******************************************************************************
+ * MASS (Metro Analytics Software System) by Sean Harger
+ * is licensed under a Creative Commons Attribution-NonCommercial-ShareAlike 3.0
+ * United States License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by-nc-sa/3.0/us/.
+ ******************************************************************************/
+package net.metro.analyze;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects the lines rejected by a {@code FileImport}. Rejections are counted
+ * by cause, the first {@code SAMPLE_SIZE} of them are described, and the
+ * rejected lines can be copied to a quarantine file, which gets the header of
+ * the import file so that it can be fixed and imported again. Nothing is
+ * written to the console, so a file with many bad lines imports nearly as
+ * fast as a clean one.
+ * 
+ * Lines may be rejected from several threads at once. Counting a rejection
+ * takes no lock, and its description is only formatted while the sample is
+ * not full, from a constant template and numeric arguments, so callers build
+ * no {@code String}s. The lock is otherwise only taken to copy the line to
+ * the quarantine file.
+ * 
+ * @author Sean Harger
+ * 
+ */
+public class ImportErrors {
+	/** A field does not hold a valid number. */
+	public static final int MALFORMED_NUMBER = 0;
+	/** The line has fewer fields than the file headers. */
+	public static final int MISSING_FIELD = 1;
+	/** The route of the line does not exist. */
+	public static final int UNKNOWN_ROUTE = 2;
+	/** The route path of the line does not exist. */
+	public static final int UNKNOWN_PATH = 3;
+	/** A stop of the line is not on its route path or service. */
+	public static final int UNKNOWN_STOP = 4;
+	/** The day or time period of the line is not recognized. */
+	public static final int UNKNOWN_PERIOD = 5;
+	/** A field holds a value outside of its allowed range. */
+	public static final int INVALID_VALUE = 6;
+
+	private static final String[] CAUSE_NAMES = { "Malformed number",
+			"Missing field", "Unknown route", "Unknown route path",
+			"Unknown stop", "Unknown period", "Invalid value" };
+
+	/** Maximum number of rejections that are described. */
+	public static final int SAMPLE_SIZE = 10;
+
+	private final AtomicLongArray counts;
+	private final ArrayList<String> sample;
+	private volatile boolean sampleFull;
+
+	private volatile File quarantineFile;
+	private byte[] header;
+	private OutputStream quarantine; // opened on the first rejection
+	private IOException quarantineFailure;
+
+	/**
+	 * Constructs an empty {@code ImportErrors}.
+	 */
+	public ImportErrors() {
+		counts = new AtomicLongArray(CAUSE_NAMES.length);
+		sample = new ArrayList<String>(SAMPLE_SIZE);
+		sampleFull = false;
+	}
+
+	/**
+	 * Returns the number of causes of rejection.
+	 * 
+	 * @return the number of causes.
+	 */
+	public static int getNumCauses() {
+		return CAUSE_NAMES.length;
+	}
+
+	/**
+	 * Returns a description of the specified cause of rejection.
+	 * 
+	 * @param cause
+	 *            one of the causes, such as {@code MALFORMED_NUMBER}
+	 * @return the name of the cause.
+	 */
+	public static String getCauseName(int cause) {
+		return CAUSE_NAMES[cause];
+	}
+
+	/**
+	 * Sets the file to which rejected lines are copied. The file is only
+	 * created once a line is rejected.
+	 * 
+	 * @param qrntnFl
+	 *            the quarantine file, or {@code null} to not copy rejected
+	 *            lines
+	 */
+	public void setQuarantineFile(File qrntnFl) {
+		quarantineFile = qrntnFl;
+	}
+
+	/**
+	 * Keeps the header line of the import file to start the quarantine file
+	 * with.
+	 * 
+	 * @param headerRecord
+	 *            tokenizer positioned on the header line
+	 */
+	public synchronized void setHeader(CsvTokenizer headerRecord) {
+		if (quarantineFile != null) {
+			header = headerRecord.getRecordBytes();
+		}
+	}
+
+	/**
+	 * Rejects the current line of the specified tokenizer.
+	 * 
+	 * @param cause
+	 *            why the line is rejected, such as {@code MALFORMED_NUMBER}
+	 * @param record
+	 *            tokenizer positioned on the rejected line
+	 * @param offset
+	 *            byte offset of the line in the import file
+	 * @param detail
+	 *            short description of the problem, in which each {@code #}
+	 *            stands for the next argument, or {@code null}
+	 * @param arg0
+	 *            first argument of the description
+	 * @param arg1
+	 *            second argument of the description
+	 */
+	public void reject(int cause, CsvTokenizer record, long offset,
+			String detail, long arg0, long arg1) {
+		counts.incrementAndGet(cause);
+		if (!sampleFull) {
+			addToSample(cause, offset, detail, arg0, arg1);
+		}
+		if (quarantineFile != null) {
+			quarantine(record);
+		}
+	}
+
+	/**
+	 * Returns the number of rejections with the specified cause.
+	 * 
+	 * @param cause
+	 *            one of the causes, such as {@code MALFORMED_NUMBER}
+	 * @return the number of rejections with that cause.
+	 */
+	public long getCount(int cause) {
+		return counts.get(cause);
+	}
+
+	/**
+	 * Returns the total number of rejections.
+	 * 
+	 * @return the number of rejections.
+	 */
+	public long getTotal() {
+		long total = 0;
+		for (int cause = 0; cause < counts.length(); cause++) {
+			total += counts.get(cause);
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the descriptions of the first {@code SAMPLE_SIZE} rejections.
+	 * 
+	 * @return a copy of the sample of rejections.
+	 */
+	public synchronized List<String> getSample() {
+		return new ArrayList<String>(sample);
+	}
+
+	/**
+	 * Returns the exception that stopped the copying of rejected lines to the
+	 * quarantine file.
+	 * 
+	 * @return the failure of the quarantine file, or {@code null} if there
+	 *         was none.
+	 */
+	public synchronized IOException getQuarantineFailure() {
+		return quarantineFailure;
+	}
+
+	/**
+	 * Returns a summary of the rejections for display, with the count of each
+	 * cause followed by the sample.
+	 * 
+	 * @return the summary of the rejections.
+	 */
+	public String getSummary() {
+		StringBuilder summary = new StringBuilder();
+		summary.append(getTotal()).append(" lines were rejected.\n");
+		for (int cause = 0; cause < counts.length(); cause++) {
+			long count = counts.get(cause);
+			if (count > 0) {
+				summary.append("    ").append(CAUSE_NAMES[cause]).append(": ")
+						.append(count).append('\n');
+			}
+		}
+
+		List<String> smpl = getSample();
+		if (!smpl.isEmpty()) {
+			summary.append("First rejections:\n");
+			for (String entry : smpl) {
+				summary.append("    ").append(entry).append('\n');
+			}
+		}
+
+		synchronized (this) {
+			if (quarantine != null) {
+				summary.append("Rejected lines were copied to ")
+						.append(quarantineFile.getPath()).append(".\n");
+			}
+			if (quarantineFailure != null) {
+				summary.append("The quarantine file could not be written: ")
+						.append(quarantineFailure.getMessage()).append('\n');
+			}
+		}
+		return summary.toString();
+	}
+
+	/**
+	 * Flushes and closes the quarantine file, if it was opened.
+	 * 
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public synchronized void close() throws IOException {
+		if (quarantine != null) {
+			quarantine.close();
+		}
+	}
+
+	/**
+	 * Adds a description of a rejection to the sample if it is not full.
+	 * 
+	 * @param cause
+	 *            why the line is rejected
+	 * @param offset
+	 *            byte offset of the line in the import file
+	 * @param detail
+	 *            short description of the problem, in which each {@code #}
+	 *            stands for the next argument, or {@code null}
+	 * @param arg0
+	 *            first argument of the description
+	 * @param arg1
+	 *            second argument of the description
+	 */
+	private synchronized void addToSample(int cause, long offset,
+			String detail, long arg0, long arg1) {
+		if (sample.size() >= SAMPLE_SIZE) {
+			return;
+		}
+		StringBuilder entry = new StringBuilder();
+		entry.append("byte ").append(offset).append(": ")
+				.append(CAUSE_NAMES[cause]);
+		if (detail != null) {
+			entry.append(" (");
+			int numArgs = 0;
+			for (int index = 0; index < detail.length(); index++) {
+				char c = detail.charAt(index);
+				if (c == '#' && numArgs < 2) {
+					entry.append(numArgs++ == 0 ? arg0 : arg1);
+				} else {
+					entry.append(c);
+				}
+			}
+			entry.append(')');
+		}
+		sample.add(entry.toString());
+		sampleFull = sample.size() >= SAMPLE_SIZE;
+	}
+
+	/**
+	 * Copies a rejected line to the quarantine file, creating the file on the
+	 * first rejection. Copying stops at the first failure.
+	 * 
+	 * @param record
+	 *            tokenizer positioned on the rejected line
+	 */
+	private synchronized void quarantine(CsvTokenizer record) {
+		if (quarantineFailure != null) {
+			return;
+		}
+		try {
+			if (quarantine == null) {
+				openQuarantine();
+			}
+			quarantine.write(record.getRecordBytes());
+			quarantine.write('\n');
+		} catch (IOException ex) {
+			quarantineFailure = ex;
+		}
+	}
+
+	/**
+	 * Creates the quarantine file and writes the header to it.
+	 * 
+	 * @throws IOException
+	 *             if the file cannot be created
+	 */
+	private void openQuarantine() throws IOException {
+		quarantine = new BufferedOutputStream(new FileOutputStream(
+				quarantineFile), 1 << 16);
+		if (header != null) {
+			quarantine.write(header);
+			quarantine.write('\n');
+		}
+	}
+}
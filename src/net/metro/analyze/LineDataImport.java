@@ -0,0 +1,342 @@
+/*******************************************************************************
+ * MASS (Metro Analytics Software System) by Sean Harger
+ * is licensed under a Creative Commons Attribution-NonCommercial-ShareAlike 3.0
+ * United States License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by-nc-sa/3.0/us/.
+ ******************************************************************************/
+package net.metro.analyze;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import net.metro.systemobjects.Period;
+import net.metro.systemobjects.RidershipStore;
+import net.metro.systemobjects.Route;
+import net.metro.systemobjects.RoutePath;
+import net.metro.systemobjects.Service;
+import net.metro.systemobjects.Stop;
+import net.metro.systemobjects.SystemObjects;
+import net.metro.systemobjects.dataobjects.DataType;
+
+/**
+ * Extends the {@code FileImport} class designed to import ridership from the
+ * agency's native line data layout, described in {@code linedataformat.txt}.
+ * Each line of such a file holds the data of one station of a line direction
+ * for one kind of day, with boardings, alightings, and load columns for every
+ * time period ({@code RIDEDATA_AMBOARD}, {@code RIDEDATA_PMLOAD}, ...). Every
+ * line is fanned out to one {@code Service} per time period, which runs over
+ * the whole route path. Its id is the index of its day times the number of
+ * time periods plus the index of its time period, in the order of
+ * {@code ServiceImport.DAY_CODES} and {@code TIME_PERIOD_CODES}, so the
+ * services of a file get the same ids in every session.
+ * <p>
+ * Columns are found by their header, so their order does not matter. Totals,
+ * maxima, and unnamed columns are ignored, as are empty data fields.
+ * 
+ * @author Sean Harger
+ * 
+ */
+public class LineDataImport extends FileImport {
+	protected static final String[] requiredFileHeaders = { "LINE_NUMBER",
+			"RIDEDATA_DAY", "LINE_DIRECTION", "STATION_ID" };
+
+	// prefix of the headers of the ridership columns, which is followed by a
+	// time period code and one of DATA_SUFFIXES
+	private static final String DATA_PREFIX = "RIDEDATA_";
+	private static final String[] DATA_SUFFIXES = { "BOARD", "ALIGHT", "LOAD" };
+	private static final DataType[] DATA_TYPES = { DataType.BOARDINGS,
+			DataType.ALIGHTINGS, DataType.LOAD };
+
+	private static final int NUM_TIME_PERIODS = ServiceImport.TIME_PERIODS
+			.length;
+
+	// positions of the required columns, or -1 if the file lacks one
+	private int lineField;
+	private int dayField;
+	private int directionField;
+	private int stationField;
+	// number of fields a line needs to hold every column that is read
+	private int numFields;
+
+	// ridership columns: field index, time period index, and data type
+	private int[] dataFields;
+	private int[] dataTimePeriods;
+	private DataType[] dataTypes;
+
+	// values of the ridership columns of the line being processed
+	private int[] lineValues;
+
+	// services of each route path by day index * NUM_TIME_PERIODS + time
+	// period index, keyed by route id and path id
+	private HashMap<Long, Service[]> pathServices;
+	private RoutePath currentRoutePath;
+	private Service[] currentServices;
+
+	// services built by the import over rows of its own store, added to
+	// their paths and to the store of the database on publication
+	private ArrayList<Service> stagedServices;
+	private RidershipStore stagedStore;
+
+	/**
+	 * Constructs a {@code LineDataImport}.
+	 * 
+	 * @param imptFl
+	 *            {@code File} from which line data is to be imported from
+	 * @param objs
+	 *            {@code SystemObjects} to which the service data will be
+	 *            written
+	 */
+	public LineDataImport(File imptFl, SystemObjects objs) {
+		super(imptFl, objs, requiredFileHeaders);
+		lineField = -1;
+		dayField = -1;
+		directionField = -1;
+		stationField = -1;
+		numFields = 0;
+		dataFields = new int[0];
+		dataTimePeriods = new int[0];
+		dataTypes = new DataType[0];
+		lineValues = new int[0];
+		pathServices = new HashMap<Long, Service[]>();
+		currentRoutePath = null;
+		currentServices = null;
+		stagedServices = new ArrayList<Service>();
+		stagedStore = new RidershipStore();
+	}
+
+	/**
+	 * Reads the file headers from the imported file and maps every ridership
+	 * column to its time period and data type. The import fails if one of the
+	 * required columns is missing.
+	 */
+	protected void processHeaders(CsvTokenizer headerRecord)
+			throws IOException {
+		ArrayList<int[]> columns = new ArrayList<int[]>();
+
+		for (int field = 0; field < headerRecord.getFieldCount(); field++) {
+			String header = headerRecord.getString(field).trim();
+
+			if (header.equals(requiredFileHeaders[0])) {
+				lineField = field;
+			} else if (header.equals(requiredFileHeaders[1])) {
+				dayField = field;
+			} else if (header.equals(requiredFileHeaders[2])) {
+				directionField = field;
+			} else if (header.equals(requiredFileHeaders[3])) {
+				stationField = field;
+			} else if (header.startsWith(DATA_PREFIX)) {
+				int[] column = interpretDataHeader(header
+						.substring(DATA_PREFIX.length()));
+				if (column != null) {
+					columns.add(new int[] { field, column[0], column[1] });
+				}
+			}
+		}
+
+		dataFields = new int[columns.size()];
+		dataTimePeriods = new int[columns.size()];
+		dataTypes = new DataType[columns.size()];
+		lineValues = new int[columns.size()];
+		for (int index = 0; index < columns.size(); index++) {
+			int[] column = columns.get(index);
+			dataFields[index] = column[0];
+			dataTimePeriods[index] = column[1];
+			dataTypes[index] = DATA_TYPES[column[2]];
+		}
+
+		if (!hasRequiredColumns()) {
+			throw formatError();
+		}
+		numFields = 1 + Math.max(Math.max(lineField, dayField), Math.max(
+				directionField, stationField));
+		for (int field : dataFields) {
+			numFields = Math.max(numFields, field + 1);
+		}
+	}
+
+	/**
+	 * Processes the line of one station and sets its boardings, alightings,
+	 * and load on the {@code Service} of each time period, creating the
+	 * services of the line direction and day the first time they are needed.
+	 * The station and every field are checked before any value is set, so a
+	 * rejected line leaves no data behind.
+	 */
+	protected void processLineData(CsvTokenizer record) {
+		if (!hasRequiredColumns()) {
+			return;
+		}
+
+		if (record.getFieldCount() < numFields) {
+			reject(record, ImportErrors.MISSING_FIELD, "# of # fields",
+					record.getFieldCount(), numFields);
+			return;
+		}
+
+		int routeId = record.getInt(lineField);
+		int pathId = record.getInt(directionField);
+		int stationId = record.getInt(stationField);
+		if (rejectMalformed(record)) {
+			return;
+		}
+		int dayIndex = ServiceImport.findCode(record, dayField,
+				ServiceImport.DAY_CODES);
+		if (dayIndex < 0) {
+			reject(record, ImportErrors.UNKNOWN_PERIOD, null);
+			return;
+		}
+
+		if (currentRoutePath == null
+				|| currentRoutePath.getRoute().getRouteId() != routeId
+				|| currentRoutePath.getPathId() != pathId) {
+			if (!selectRoutePath(record, routeId, pathId)) {
+				return;
+			}
+		}
+
+		if (currentRoutePath.getStop(stationId) == null) {
+			reject(record, ImportErrors.UNKNOWN_STOP,
+					"station # on route #", stationId, routeId);
+			return;
+		}
+		for (int index = 0; index < dataFields.length; index++) {
+			int field = dataFields[index];
+			if (!record.isEmpty(field)) {
+				// the agency averages its counts, so values may be
+				// fractional
+				lineValues[index] = (int) Math.round(record
+						.getDouble(field));
+			}
+		}
+		if (rejectMalformed(record)) {
+			return;
+		}
+
+		int firstService = dayIndex * NUM_TIME_PERIODS;
+		for (int index = 0; index < dataFields.length; index++) {
+			if (record.isEmpty(dataFields[index])) {
+				continue;
+			}
+
+			int svcIndex = firstService + dataTimePeriods[index];
+			Service svc = currentServices[svcIndex];
+			if (svc == null) {
+				svc = createService(dayIndex, dataTimePeriods[index]);
+				currentServices[svcIndex] = svc;
+			}
+			svc.getServiceStop(stationId).setDataValue(dataTypes[index],
+					lineValues[index]);
+		}
+	}
+
+	/**
+	 * Publishes the imported services by adding each one to its route path,
+	 * in the order they were created.
+	 */
+	protected void publishDataSets() {
+		ServiceImport.publishServices(getSystemObjects(), stagedStore,
+				stagedServices);
+		stagedServices.clear();
+		stagedStore = new RidershipStore();
+	}
+
+	/**
+	 * Determines whether the required columns were all found in the headers.
+	 * 
+	 * @return {@code true} if the required columns were found.
+	 */
+	private boolean hasRequiredColumns() {
+		return lineField >= 0 && dayField >= 0 && directionField >= 0
+				&& stationField >= 0;
+	}
+
+	/**
+	 * Makes the specified route path the current one, along with its
+	 * services. Rejects the current line if the path does not exist.
+	 * 
+	 * @param record
+	 *            tokenizer positioned on the line being processed
+	 * @param routeId
+	 *            id of the route
+	 * @param pathId
+	 *            id of the path on the route
+	 * @return {@code false} if the route path does not exist.
+	 */
+	private boolean selectRoutePath(CsvTokenizer record, int routeId,
+			int pathId) {
+		Route rte = getSystemObjects().getRoute(routeId);
+		if (rte == null) {
+			reject(record, ImportErrors.UNKNOWN_ROUTE, "route #", routeId);
+			return false;
+		}
+		RoutePath rtePth = rte.getRoutePath(pathId);
+		if (rtePth == null) {
+			reject(record, ImportErrors.UNKNOWN_PATH, "path # of route #",
+					pathId, routeId);
+			return false;
+		}
+
+		long key = ((long) routeId << 32) | (pathId & 0xFFFFFFFFL);
+		Service[] svcs = pathServices.get(key);
+		if (svcs == null) {
+			svcs = new Service[ServiceImport.DAYS.length * NUM_TIME_PERIODS];
+			pathServices.put(key, svcs);
+		}
+
+		currentRoutePath = rtePth;
+		currentServices = svcs;
+		return true;
+	}
+
+	/**
+	 * Creates the {@code Service} of the current route path for the specified
+	 * day and time period. It runs from the first to the last stop of the
+	 * path, and its id is derived from the two indices.
+	 * 
+	 * @param dayIndex
+	 *            index of the days in {@code ServiceImport.DAYS}
+	 * @param tmPdIndex
+	 *            index of the time period in
+	 *            {@code ServiceImport.TIME_PERIODS}
+	 * @return the new service.
+	 */
+	private Service createService(int dayIndex, int tmPdIndex) {
+		Period pd = Period.valueOf(ServiceImport.DAYS[dayIndex],
+				ServiceImport.TIME_PERIODS[tmPdIndex]);
+		List<Stop> stps = currentRoutePath.getStops();
+		Stop ognStop = stps.isEmpty() ? null : stps.get(0);
+		Stop dstStop = stps.isEmpty() ? null : stps.get(stps.size() - 1);
+
+		Service svc = new Service(dayIndex * NUM_TIME_PERIODS + tmPdIndex,
+				pd, ognStop, dstStop, currentRoutePath, stps, stagedStore, -1);
+		stagedServices.add(svc);
+		return svc;
+	}
+
+	/**
+	 * Interprets the header of a ridership column, without its
+	 * {@code RIDEDATA_} prefix.
+	 * 
+	 * @param header
+	 *            the rest of the header, such as {@code AMBOARD}
+	 * @return the index of the time period and of the data type of the column,
+	 *         or {@code null} if the column is not imported.
+	 */
+	private static int[] interpretDataHeader(String header) {
+		for (int tmPd = 0; tmPd < NUM_TIME_PERIODS; tmPd++) {
+			String code = ServiceImport.TIME_PERIOD_CODES[tmPd];
+			if (!header.startsWith(code)) {
+				continue;
+			}
+			String suffix = header.substring(code.length());
+			for (int type = 0; type < DATA_SUFFIXES.length; type++) {
+				if (suffix.equals(DATA_SUFFIXES[type])) {
+					return new int[] { tmPd, type };
+				}
+			}
+		}
+		return null;
+	}
+}
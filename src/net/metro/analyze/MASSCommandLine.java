@@ -0,0 +1,375 @@
+/*******************************************************************************
+ * MASS (Metro Analytics Software System) by Sean Harger
+ * is licensed under a Creative Commons Attribution-NonCommercial-ShareAlike 3.0
+ * United States License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by-nc-sa/3.0/us/.
+ ******************************************************************************/
+package net.metro.analyze;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+import net.metro.systemobjects.Period;
+import net.metro.systemobjects.Route;
+import net.metro.systemobjects.RoutePath;
+import net.metro.systemobjects.SystemObjects;
+import net.metro.systemobjects.SystemSnapshot;
+import net.metro.systemobjects.dataobjects.DataType;
+
+/**
+ * Headless driver for batch jobs. It runs the same import and export engines
+ * as the {@code MainFrame}, without any window, on a single
+ * {@code SystemObjects} database. Steps run in the order they are given, so a
+ * file can be converted by importing it and exporting the result, and the
+ * program exits with a non-zero status if any step fails.
+ * 
+ * @author Sean Harger
+ * 
+ */
+public class MASSCommandLine {
+	/** Exit status when every step succeeded. */
+	public static final int EXIT_SUCCESS = 0;
+	/** Exit status when a step failed. */
+	public static final int EXIT_FAILURE = 1;
+	/** Exit status when the arguments are not valid. */
+	public static final int EXIT_USAGE = 2;
+
+	private static final String USAGE = "Usage: MASSCommandLine [option | step]...\n"
+			+ "Steps, run in the order given:\n"
+			+ "  --load FILE             load a snapshot, before any import\n"
+			+ "  --routes FILE           import routes\n"
+			+ "  --services FILE         import services\n"
+			+ "  --line-data FILE        import ridership in the line data layout\n"
+			+ "  --export-routes FILE    export all routes\n"
+			+ "  --export-services FILE  export all services\n"
+			+ "  --export-ridership FILE export ridership per stop as columns\n"
+			+ "  --export-geojson FILE   export route shapes and stops as GeoJSON\n"
+			+ "  --save FILE             save everything to a snapshot\n"
+			+ "  --report                print summary statistics\n"
+			+ "Options, applying to the steps that follow them:\n"
+			+ "  --quarantine FILE       copy lines rejected by the next import to FILE\n"
+			+ "  --sequential            import services on a single thread\n"
+			+ "  --no-merge              rebuild every route path on route import\n"
+			+ "  --strict                fail if an import rejects any line\n"
+			+ "  --period DAYS-TIME      ridership period of GeoJSON, e.g. WK-AM\n"
+			+ "  --tolerance METERS      simplify GeoJSON lines to this tolerance\n"
+			+ "Files may be compressed with gzip (.gz) or zip (.zip) for import.";
+
+	private SystemObjects objects;
+	private PrintStream out;
+	private PrintStream err;
+
+	private File quarantineFile;
+	private boolean parallel;
+	private boolean merge;
+	private boolean strict;
+	private Period period;
+	private double tolerance;
+
+	/**
+	 * Constructs a {@code MASSCommandLine} with an empty database.
+	 * 
+	 * @param stdOut
+	 *            stream for the report and step results
+	 * @param stdErr
+	 *            stream for errors and rejected lines
+	 */
+	public MASSCommandLine(PrintStream stdOut, PrintStream stdErr) {
+		objects = new SystemObjects();
+		out = stdOut;
+		err = stdErr;
+		quarantineFile = null;
+		parallel = true;
+		merge = true;
+		strict = false;
+		period = null;
+		tolerance = 0;
+	}
+
+	/**
+	 * Runs the steps given on the command line and exits with the resulting
+	 * status.
+	 * 
+	 * @param args
+	 *            options and steps, as described by the usage message
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		System.exit(new MASSCommandLine(System.out, System.err).run(args));
+	}
+
+	/**
+	 * Runs the specified steps. The arguments are all checked before the
+	 * first step runs, and the steps stop at the first failure.
+	 * 
+	 * @param args
+	 *            options and steps, as described by the usage message
+	 * @return {@code EXIT_SUCCESS}, {@code EXIT_FAILURE}, or
+	 *         {@code EXIT_USAGE}.
+	 */
+	public int run(String[] args) {
+		ArrayList<String[]> steps = parseArguments(args);
+		if (steps == null) {
+			err.println(USAGE);
+			return EXIT_USAGE;
+		}
+
+		for (String[] step : steps) {
+			try {
+				if (!runStep(step[0], step[1])) {
+					return EXIT_FAILURE;
+				}
+			} catch (Exception ex) {
+				err.println(step[0] + " failed: " + ex);
+				return EXIT_FAILURE;
+			}
+		}
+		return EXIT_SUCCESS;
+	}
+
+	/**
+	 * Splits the arguments into options and steps with their file.
+	 * 
+	 * @param args
+	 *            the command line arguments
+	 * @return the option or step name and file of each argument, in order,
+	 *         or {@code null} if the arguments are not valid.
+	 */
+	private static ArrayList<String[]> parseArguments(String[] args) {
+		if (args.length == 0) {
+			return null;
+		}
+
+		ArrayList<String[]> steps = new ArrayList<String[]>();
+		for (int index = 0; index < args.length; index++) {
+			String arg = args[index];
+			if (arg.equals("--load") || arg.equals("--save")
+					|| arg.equals("--routes") || arg.equals("--services")
+					|| arg.equals("--line-data")
+					|| arg.equals("--export-routes")
+					|| arg.equals("--export-services")
+					|| arg.equals("--export-ridership")
+					|| arg.equals("--export-geojson")
+					|| arg.equals("--quarantine") || arg.equals("--period")
+					|| arg.equals("--tolerance")) {
+				if (index + 1 == args.length) {
+					return null;
+				}
+				steps.add(new String[] { arg, args[++index] });
+				if (arg.equals("--period")
+						&& parsePeriod(args[index]) == null) {
+					return null;
+				} else if (arg.equals("--tolerance")
+						&& parseTolerance(args[index]) < 0) {
+					return null;
+				}
+			} else if (arg.equals("--report") || arg.equals("--sequential")
+					|| arg.equals("--no-merge") || arg.equals("--strict")) {
+				steps.add(new String[] { arg, null });
+			} else {
+				return null;
+			}
+		}
+		return steps;
+	}
+
+	/**
+	 * Converts a period given as a day code and a time period code of the
+	 * service file, such as {@code WK-AM}.
+	 * 
+	 * @param codes
+	 *            the day and time period codes separated by a dash
+	 * @return the period, or {@code null} if the codes are not valid.
+	 */
+	private static Period parsePeriod(String codes) {
+		int dash = codes.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+		String dayCode = codes.substring(0, dash);
+		String timeCode = codes.substring(dash + 1);
+		String[] tmCodes = ServiceImport.TIME_PERIOD_CODES;
+		for (int dys = 0; dys < ServiceImport.DAY_CODES.length; dys++) {
+			if (!ServiceImport.DAY_CODES[dys].equals(dayCode)) {
+				continue;
+			}
+			for (int tm = 0; tm < tmCodes.length; tm++) {
+				if (tmCodes[tm].equals(timeCode)) {
+					return Period.valueOf(ServiceImport.DAYS[dys],
+							ServiceImport.TIME_PERIODS[tm]);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Converts a simplification tolerance in meters.
+	 * 
+	 * @param meters
+	 *            the tolerance
+	 * @return the tolerance, or {@code -1} if it is not a number of meters.
+	 */
+	private static double parseTolerance(String meters) {
+		try {
+			double tol = Double.parseDouble(meters);
+			return (tol >= 0 && !Double.isInfinite(tol)) ? tol : -1;
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Runs one option or step.
+	 * 
+	 * @param name
+	 *            name of the option or step
+	 * @param fileName
+	 *            file argument of the step, or {@code null}
+	 * @return {@code false} if the step failed.
+	 * @throws Exception
+	 *             if a file cannot be read or written
+	 */
+	private boolean runStep(String name, String fileName) throws Exception {
+		File file = (fileName != null) ? new File(fileName) : null;
+
+		if (name.equals("--quarantine")) {
+			quarantineFile = file;
+		} else if (name.equals("--sequential")) {
+			parallel = false;
+		} else if (name.equals("--no-merge")) {
+			merge = false;
+		} else if (name.equals("--strict")) {
+			strict = true;
+		} else if (name.equals("--period")) {
+			period = parsePeriod(fileName);
+		} else if (name.equals("--tolerance")) {
+			tolerance = parseTolerance(fileName);
+		} else if (name.equals("--load")) {
+			long start = System.currentTimeMillis();
+			SystemSnapshot.read(file, objects);
+			out.println("Loaded snapshot " + file + " in "
+					+ (System.currentTimeMillis() - start) + " ms.");
+		} else if (name.equals("--save")) {
+			long start = System.currentTimeMillis();
+			SystemSnapshot.write(objects, file);
+			out.println("Saved snapshot " + file + " in "
+					+ (System.currentTimeMillis() - start) + " ms.");
+		} else if (name.equals("--routes")) {
+			RouteImport rteImport = new RouteImport(file, objects);
+			rteImport.setMerge(merge);
+			return runImport(rteImport, "routes");
+		} else if (name.equals("--services")) {
+			ServiceImport svcImport = new ServiceImport(file, objects);
+			svcImport.setParallel(parallel);
+			return runImport(svcImport, "services");
+		} else if (name.equals("--line-data")) {
+			return runImport(new LineDataImport(file, objects), "line data");
+		} else if (name.equals("--export-routes")) {
+			runExport(new RouteExport(file, objects), "routes");
+		} else if (name.equals("--export-services")) {
+			runExport(new ServiceExport(file, objects), "services");
+		} else if (name.equals("--export-ridership")) {
+			runExport(new RidershipExport(file, objects), "ridership");
+		} else if (name.equals("--export-geojson")) {
+			runExport(new GeoJsonExport(file, objects, period, tolerance),
+					"route shapes");
+		} else if (name.equals("--report")) {
+			printReport();
+		}
+		return true;
+	}
+
+	/**
+	 * Stages and publishes an import, then reports its changes to existing
+	 * data and its rejected lines.
+	 * 
+	 * @param imprt
+	 *            the import to run
+	 * @param kind
+	 *            what is imported, for the messages
+	 * @return {@code false} if lines were rejected in strict mode.
+	 * @throws Exception
+	 *             if the import fails
+	 */
+	private boolean runImport(FileImport imprt, String kind) throws Exception {
+		long start = System.currentTimeMillis();
+		imprt.setQuarantineFile(quarantineFile);
+		quarantineFile = null;
+
+		imprt.stage();
+		imprt.publish();
+
+		ImportErrors errors = imprt.getImportErrors();
+		out.println("Imported " + kind + " from " + imprt.getImportFile()
+				+ " in " + (System.currentTimeMillis() - start) + " ms, "
+				+ errors.getTotal() + " lines rejected.");
+		if (imprt.getPublishSummary() != null) {
+			out.print(imprt.getPublishSummary());
+		}
+		if (errors.getTotal() > 0) {
+			err.print(errors.getSummary());
+			if (strict) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Runs an export and reports how long it took and what it left out.
+	 * 
+	 * @param exprt
+	 *            the export to run
+	 * @param kind
+	 *            what is exported, for the message
+	 * @throws IOException
+	 *             if the export file cannot be written
+	 */
+	private void runExport(FileExport exprt, String kind) throws IOException {
+		long start = System.currentTimeMillis();
+		exprt.export();
+		out.println("Exported " + kind + " to " + exprt.getExportFile()
+				+ " in " + (System.currentTimeMillis() - start) + " ms.");
+		if (exprt.getExportSummary() != null) {
+			out.print(exprt.getExportSummary());
+		}
+	}
+
+	/**
+	 * Prints the number of routes, paths, stops, and services in the database
+	 * and the total of each type of rider data.
+	 */
+	private void printReport() {
+		int numPaths = 0;
+		long numStops = 0;
+		long numVertices = 0;
+		int numServices = 0;
+		long[] sums = new long[DataType.count()];
+
+		for (Route rte : objects.getAllRoutes()) {
+			for (RoutePath rtePth : rte.getPaths()) {
+				numPaths++;
+				numStops += rtePth.getStops().size();
+				numVertices += rtePth.getGeometry().size();
+				numServices += rtePth.getServices().size();
+				for (DataType dType : DataType.values()) {
+					sums[dType.getOrdinal()] += rtePth.getSumData(dType);
+				}
+			}
+		}
+
+		out.println("Routes:     " + objects.getAllRoutes().size());
+		out.println("Paths:      " + numPaths);
+		out.println("Stops:      " + numStops);
+		out.println("Vertices:   " + numVertices);
+		out.println("Services:   " + numServices);
+		out.println("Data rows:  "
+				+ objects.getRidershipStore().getNumRows());
+		for (DataType dType : DataType.values()) {
+			out.println("Total " + dType + ": " + sums[dType.getOrdinal()]);
+		}
+	}
+}
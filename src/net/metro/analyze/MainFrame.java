@@ -15,6 +15,7 @@ package net.metro.analyze;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 
 import javax.swing.ImageIcon;
@@ -23,9 +24,11 @@ import javax.swing.JFrame;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 import net.metro.systemobjects.SystemObjects;
+import net.metro.systemobjects.SystemSnapshot;
 
 /**
  * Extends the functionality of the {@code MapFrame} class by adding the ability
@@ -43,17 +46,23 @@ public class MainFrame extends MapFrame {
 
 	public static final String EMPTY_MESSAGE = "";
 	public static final String WELCOME_MESSAGE = "Welcome to MASS!";
+	public static final String SNAPSHOT_EXTENSION = "mass";
 
 	private ArrayList<MapFrame> mapFrames;
 
 	private JMenuItem mntmLineEditor;
 	private JMenuItem mntmNewMap;
+	private JMenuItem mntmOpenSnapshot;
+	private JMenuItem mntmSaveSnapshot;
 	private JMenu mnImport;
 	private JMenu mnExport;
 	private JMenuItem mntmImportRoutes;
 	private JMenuItem mntmImportServices;
+	private JMenuItem mntmImportLineData;
 	private JMenuItem mntmExportRoutes;
 	private JMenuItem mntmExportServices;
+	private JMenuItem mntmExportRidership;
+	private JMenuItem mntmExportGeoJson;
 
 	/**
 	 * Constructs a {@code MainFrame}.
@@ -80,13 +89,21 @@ public class MainFrame extends MapFrame {
 	 * Displays a {@code JFileChooser} and prompts the user to select a file
 	 * from their file system.
 	 * 
+	 * @param compressed
+	 *            {@code true} to also offer gzip and zip files, which can be
+	 *            imported but not exported
 	 * @return selected file <br>
 	 *         {@code null} if none selected
 	 */
-	private File selectFile() {
+	private File selectFile(boolean compressed) {
 		final JFileChooser importFileChooser = new JFileChooser();
-		FileNameExtensionFilter filter = new FileNameExtensionFilter(
-				"CSV files", "csv");
+		FileNameExtensionFilter filter;
+		if (compressed) {
+			filter = new FileNameExtensionFilter(
+					"CSV files (may be compressed)", "csv", "gz", "zip");
+		} else {
+			filter = new FileNameExtensionFilter("CSV files", "csv");
+		}
 		importFileChooser.setFileFilter(filter);
 
 		int importChooserResult = importFileChooser.showDialog(this,
@@ -98,17 +115,97 @@ public class MainFrame extends MapFrame {
 		return null;
 	}
 
+	/**
+	 * Displays a {@code JFileChooser} and prompts the user to select a file
+	 * with the specified extension, such as a snapshot. A file saved without
+	 * an extension gets that extension.
+	 * 
+	 * @param save
+	 *            {@code true} to select a file to save to, {@code false} to
+	 *            select one to open
+	 * @param description
+	 *            description of the files offered
+	 * @param extension
+	 *            extension of the files offered
+	 * @return selected file <br>
+	 *         {@code null} if none selected
+	 */
+	private File selectFileOfType(boolean save, String description,
+			String extension) {
+		final JFileChooser fileChooser = new JFileChooser();
+		fileChooser.setFileFilter(new FileNameExtensionFilter(description,
+				extension));
+
+		int chooserResult = save ? fileChooser.showSaveDialog(this)
+				: fileChooser.showOpenDialog(this);
+		if (chooserResult != JFileChooser.APPROVE_OPTION) {
+			return null;
+		}
+
+		File selectedFile = fileChooser.getSelectedFile();
+		if (save && selectedFile.getName().indexOf('.') < 0) {
+			selectedFile = new File(selectedFile.getPath() + "." + extension);
+		}
+		return selectedFile;
+	}
+
+	/**
+	 * Prompts the user to select a snapshot file and loads all routes,
+	 * services, and data from it. Snapshots can only be opened while the
+	 * database is empty, and load quickly enough to be read on the event
+	 * dispatch thread.
+	 */
+	private void openSnapshot() {
+		if (!getSystemObjects().getAllRoutes().isEmpty()) {
+			JOptionPane.showMessageDialog(this,
+					"A snapshot can only be opened before any data is "
+							+ "imported.", "Open Snapshot",
+					JOptionPane.WARNING_MESSAGE);
+			return;
+		}
+
+		File selectedSnapshot = selectFileOfType(false, "MASS snapshots",
+				SNAPSHOT_EXTENSION);
+		if (selectedSnapshot != null) {
+			try {
+				SystemSnapshot.read(selectedSnapshot, getSystemObjects());
+			} catch (IOException ex) {
+				JOptionPane.showMessageDialog(this, "The snapshot could not "
+						+ "be opened: " + ex.getMessage(), "Open Snapshot",
+						JOptionPane.ERROR_MESSAGE);
+			}
+		}
+	}
+
+	/**
+	 * Prompts the user to select a file and saves all routes, services, and
+	 * data of the database to it as a snapshot.
+	 */
+	private void saveSnapshot() {
+		File selectedSnapshot = selectFileOfType(true, "MASS snapshots",
+				SNAPSHOT_EXTENSION);
+		if (selectedSnapshot != null) {
+			try {
+				SystemSnapshot.write(getSystemObjects(), selectedSnapshot);
+			} catch (IOException ex) {
+				JOptionPane.showMessageDialog(this, "The snapshot could not "
+						+ "be saved: " + ex.getMessage(), "Save Snapshot",
+						JOptionPane.ERROR_MESSAGE);
+			}
+		}
+	}
+
 	/**
 	 * Prompts the user to select a file from their file system and then creates
 	 * a {@code RouteImport} to attempt to import route data from that file.
 	 * Route data includes route numbers, paths, stops, and waypoints.
 	 */
 	private void importRoutes() {
-		File selectedRouteFile = selectFile();
+		File selectedRouteFile = selectFile(true);
 		if (selectedRouteFile != null) {
 			FileImport rteImport = new RouteImport(selectedRouteFile,
-					super.getSystemObjects(), this);
-			rteImport.go();
+					super.getSystemObjects());
+			new ImportDialog(rteImport, "Route Import", this).go();
 		}
 	}
 
@@ -119,11 +216,26 @@ public class MainFrame extends MapFrame {
 	 * alightings, and load.
 	 */
 	private void importServices() {
-		File selectedServiceFile = selectFile();
+		File selectedServiceFile = selectFile(true);
 		if (selectedServiceFile != null) {
 			ServiceImport svcImport = new ServiceImport(selectedServiceFile,
-					super.getSystemObjects(), this);
-			svcImport.go();
+					super.getSystemObjects());
+			new ImportDialog(svcImport, "Service Import", this).go();
+		}
+	}
+
+	/**
+	 * Prompts the user to select a file from their file system and then creates
+	 * a {@code LineDataImport} to attempt to import ridership from that file.
+	 * Line data holds the boardings, alightings, and load of every time period
+	 * on a single line per station.
+	 */
+	private void importLineData() {
+		File selectedLineDataFile = selectFile(true);
+		if (selectedLineDataFile != null) {
+			LineDataImport lnDtImport = new LineDataImport(
+					selectedLineDataFile, super.getSystemObjects());
+			new ImportDialog(lnDtImport, "Line Data Import", this).go();
 		}
 	}
 
@@ -134,9 +246,60 @@ public class MainFrame extends MapFrame {
 	 * stops, and waypoints.
 	 */
 	private void exportRoutes() {
-		File selectedRouteFile = selectFile();
+		File selectedRouteFile = selectFile(false);
 		if (selectedRouteFile != null) {
-			new RouteExport(selectedRouteFile, super.getSystemObjects(), this);
+			FileExport rteExport = new RouteExport(selectedRouteFile,
+					super.getSystemObjects());
+			new ExportDialog(rteExport, "Route Export", this).go();
+		}
+	}
+
+	/**
+	 * Prompts the user to select a file from their file system and then creates
+	 * a {@code ServiceExport} to attempt to export the services within MASS to
+	 * that file. Service data includes periods and all data including
+	 * boardings, alightings, and load.
+	 */
+	private void exportServices() {
+		File selectedServiceFile = selectFile(false);
+		if (selectedServiceFile != null) {
+			FileExport svcExport = new ServiceExport(selectedServiceFile,
+					super.getSystemObjects());
+			new ExportDialog(svcExport, "Service Export", this).go();
+		}
+	}
+
+	/**
+	 * Prompts the user to select a file and then creates a
+	 * {@code RidershipExport} to write the rider data within MASS, summed per
+	 * route, path, period, and stop, to that file as columns for other
+	 * analytics tools.
+	 */
+	private void exportRidership() {
+		File selectedRidershipFile = selectFileOfType(true,
+				"Columnar ridership files", RidershipExport.EXTENSION);
+		if (selectedRidershipFile != null) {
+			FileExport rdrExport = new RidershipExport(selectedRidershipFile,
+					super.getSystemObjects());
+			new ExportDialog(rdrExport, "Ridership Export", this).go();
+		}
+	}
+
+	/**
+	 * Prompts the user to select a file and then creates a
+	 * {@code GeoJsonExport} to write the route paths and stops to that file
+	 * for web maps, with the ridership of the current period. Lines are
+	 * simplified to the detail visible at the current zoom of the map.
+	 */
+	private void exportGeoJson() {
+		File selectedGeoJsonFile = selectFileOfType(true, "GeoJSON files",
+				GeoJsonExport.EXTENSION);
+		if (selectedGeoJsonFile != null) {
+			double tolerance = GeoJsonExport.toleranceForZoom(getMap()
+					.getZoom(), getMap().getPosition().getLat());
+			FileExport geoExport = new GeoJsonExport(selectedGeoJsonFile,
+					super.getSystemObjects(), getPeriodConstraint(), tolerance);
+			new ExportDialog(geoExport, "Route Shape Export", this).go();
 		}
 	}
 
@@ -180,6 +343,12 @@ public class MainFrame extends MapFrame {
 				.getResource("/res/add16.png")));
 		mnFile.add(mntmNewMap);
 
+		mntmOpenSnapshot = new JMenuItem("Open Snapshot...");
+		mnFile.add(mntmOpenSnapshot);
+
+		mntmSaveSnapshot = new JMenuItem("Save Snapshot...");
+		mnFile.add(mntmSaveSnapshot);
+
 		mnImport = new JMenu("Import");
 		mnImport.setIcon(new ImageIcon(MainFrame.class
 				.getResource("/res/import16.png")));
@@ -191,6 +360,9 @@ public class MainFrame extends MapFrame {
 		mntmImportServices = new JMenuItem("Services");
 		mnImport.add(mntmImportServices);
 
+		mntmImportLineData = new JMenuItem("Line Data");
+		mnImport.add(mntmImportLineData);
+
 		mnExport = new JMenu("Export");
 		mnExport.setIcon(new ImageIcon(MainFrame.class
 				.getResource("/res/export16.png")));
@@ -200,9 +372,14 @@ public class MainFrame extends MapFrame {
 		mnExport.add(mntmExportRoutes);
 
 		mntmExportServices = new JMenuItem("Services");
-		mntmExportServices.setEnabled(false);
 		mnExport.add(mntmExportServices);
 
+		mntmExportRidership = new JMenuItem("Ridership (Columnar)");
+		mnExport.add(mntmExportRidership);
+
+		mntmExportGeoJson = new JMenuItem("Route Shapes (GeoJSON)");
+		mnExport.add(mntmExportGeoJson);
+
 		mnFile.add(super.getCloseMenuItem());
 
 		JMenu mnView = new JMenu("View");
@@ -229,6 +406,18 @@ public class MainFrame extends MapFrame {
 			}
 		});
 
+		mntmOpenSnapshot.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				openSnapshot();
+			}
+		});
+
+		mntmSaveSnapshot.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				saveSnapshot();
+			}
+		});
+
 		mntmImportRoutes.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				importRoutes();
@@ -241,12 +430,36 @@ public class MainFrame extends MapFrame {
 			}
 		});
 
+		mntmImportLineData.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				importLineData();
+			}
+		});
+
 		mntmExportRoutes.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				exportRoutes();
 			}
 		});
 
+		mntmExportServices.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				exportServices();
+			}
+		});
+
+		mntmExportRidership.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				exportRidership();
+			}
+		});
+
+		mntmExportGeoJson.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				exportGeoJson();
+			}
+		});
+
 		super.getCloseMenuItem().addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				System.exit(0);
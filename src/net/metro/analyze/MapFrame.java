@@ -32,6 +32,7 @@ import javax.swing.event.ChangeListener;
 import net.metro.systemobjects.Period;
 import net.metro.systemobjects.RoutePath;
 import net.metro.systemobjects.SystemObjects;
+import net.metro.systemobjects.periodobjects.Time;
 
 /**
  * Main controller for MASS. Contains the menu bar, map panel, and status bar.
@@ -51,6 +52,8 @@ public class MapFrame extends JFrame {
 	private SystemObjects objects;
 	private ArrayList<RoutePath> routePathConstraint;
 	private Period periodConstraint;
+	private Time windowStart; // null unless a custom time window is set
+	private Time windowEnd;
 
 	private SystemMap map;
 	private DataControlPalette dataControlPalette;
@@ -61,6 +64,8 @@ public class MapFrame extends JFrame {
 	private JCheckBoxMenuItem chckbxmntmShowDataControlPalette;
 	private JCheckBoxMenuItem chckbxmntmShowBackgroundStops;
 
+	private ChangeListener dataListener;
+
 	/**
 	 * Constructs a {@code MapFrame}.
 	 * 
@@ -91,6 +96,15 @@ public class MapFrame extends JFrame {
 		registerListeners();
 	}
 
+	/**
+	 * Disposes of this {@code MapFrame} and stops listening for changes to the
+	 * {@code SystemObjects} database.
+	 */
+	public void dispose() {
+		objects.removeChangeListener(dataListener);
+		super.dispose();
+	}
+
 	/**
 	 * Returns the "Close" menu item.
 	 * 
@@ -230,15 +244,42 @@ public class MapFrame extends JFrame {
 		}
 	}
 
+	/**
+	 * Sets a custom time window for this {@code MapFrame}, which takes the
+	 * place of the time period of the {@code Period} constraint. The days of
+	 * the {@code Period} constraint still apply.
+	 * 
+	 * @param start
+	 *            start of the time window, or {@code null} to go back to the
+	 *            time period of the {@code Period} constraint.
+	 * @param end
+	 *            end of the time window.
+	 */
+	protected void setTimeWindowConstraint(Time start, Time end) {
+		if (start != null || windowStart != null) {
+			windowStart = start;
+			windowEnd = (start != null) ? end : null;
+			updateSelectedServices();
+		}
+	}
+
 	/**
 	 * Sets the selected services on the {@code SystemMap} to services that
 	 * match the {@code RoutePath} and {@code Period} constraints within the
-	 * {@code SystemObjects} database.
+	 * {@code SystemObjects} database. If a custom time window is set, the
+	 * services whose time periods overlap it are selected instead of those of
+	 * the {@code Period}'s time period.
 	 */
 	private void updateSelectedServices() {
 		if (routePathConstraint != null && periodConstraint != null) {
-			map.setSelectedServices(objects.getServicesWithConstraint(
-					routePathConstraint, periodConstraint));
+			if (windowStart != null) {
+				map.setSelectedServices(objects.getServicesInTimeWindow(
+						routePathConstraint, periodConstraint.getDayMask(),
+						windowStart, windowEnd, false));
+			} else {
+				map.setSelectedServices(objects.getServicesWithConstraint(
+						routePathConstraint, periodConstraint));
+			}
 		}
 	}
 
@@ -327,5 +368,12 @@ public class MapFrame extends JFrame {
 				updateBackgroundStopVisibility();
 			}
 		});
+
+		dataListener = new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				map.setViewableRoutes(objects.getAllRoutes());
+			}
+		};
+		objects.addChangeListener(dataListener);
 	}
 }
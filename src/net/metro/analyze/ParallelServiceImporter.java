@@ -0,0 +1,642 @@
+/*******************************************************************************
+ * MASS (Metro Analytics Software System) by Sean Harger
+ * is licensed under a Creative Commons Attribution-NonCommercial-ShareAlike 3.0
+ * United States License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by-nc-sa/3.0/us/.
+ ******************************************************************************/
+package net.metro.analyze;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.metro.systemobjects.Period;
+import net.metro.systemobjects.RidershipStore;
+import net.metro.systemobjects.Route;
+import net.metro.systemobjects.RoutePath;
+import net.metro.systemobjects.Service;
+import net.metro.systemobjects.ServiceStop;
+import net.metro.systemobjects.Stop;
+import net.metro.systemobjects.SystemObjects;
+
+/**
+ * Imports a service file on a fork/join pool. The file is split into chunks
+ * at lines where the route path changes, so every chunk holds whole route
+ * paths and is read exactly as the sequential import would read it: both
+ * modes forget the current service when the route path changes. The import
+ * then runs in four steps:
+ * <ol>
+ * <li>chunks are parsed in parallel into pending services,</li>
+ * <li>rows of the import's own {@code RidershipStore} are reserved for the
+ * pending services in file order,</li>
+ * <li>{@code Service}s and their data are built in parallel, and</li>
+ * <li>the services are returned in file order, to be added to their route
+ * paths when the import is published.</li>
+ * </ol>
+ * The resulting database is therefore the same whatever the number of threads.
+ * 
+ * @author Sean Harger
+ * 
+ */
+final class ParallelServiceImporter {
+	private static final int CHUNKS_PER_THREAD = 4;
+	private static final int SCAN_BUFFER_SIZE = 1 << 16;
+
+	// fields of a service line read as numbers by the import, besides the
+	// data fields, which may also be empty
+	private static final int[] NUMBER_FIELDS = { 0, 1, 2, 3, 4, 7 };
+
+	private final FileImport owner;
+	private final ImportErrors errors;
+	private final SystemObjects objects;
+	private final int parallelism;
+
+	/**
+	 * Constructs a {@code ParallelServiceImporter}.
+	 * 
+	 * @param ownr
+	 *            the {@code FileImport} checking the headers and receiving
+	 *            the progress of the import
+	 * @param objs
+	 *            {@code SystemObjects} database to add the services to
+	 * @param threads
+	 *            number of threads to import with
+	 */
+	ParallelServiceImporter(FileImport ownr, SystemObjects objs, int threads) {
+		owner = ownr;
+		errors = ownr.getImportErrors();
+		objects = objs;
+		parallelism = Math.max(threads, 1);
+	}
+
+	/**
+	 * Imports all services from the specified channel. The services are built
+	 * over rows of the specified store but not added to their route paths, so
+	 * that the caller can publish them all at once.
+	 * 
+	 * @param channel
+	 *            channel open on the service file
+	 * @param store
+	 *            store of the import to add the rows of the services to,
+	 *            which the database does not read
+	 * @return the imported services in file order.
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	ArrayList<Service> importFile(FileChannel channel, RidershipStore store)
+			throws IOException {
+		final long fileSize = channel.size();
+		ArrayList<Service> imported = new ArrayList<Service>();
+		CsvTokenizer headerReader = new CsvTokenizer(new RangeChannel(channel,
+				0, fileSize), SCAN_BUFFER_SIZE);
+		if (!headerReader.nextRecord()) {
+			return imported;
+		}
+		owner.getImportErrors().setHeader(headerReader);
+		owner.processHeaders(headerReader);
+		long dataStart = nextLineStart(channel,
+				headerReader.getRecordOffset() + 1, fileSize);
+
+		long[] bounds = findChunkBounds(channel, dataStart, fileSize,
+				parallelism * CHUNKS_PER_THREAD);
+		int numChunks = bounds.length - 1;
+
+		// build the lazy stop caches now so that the workers only read them
+		for (Route rte : objects.getAllRoutes()) {
+			for (RoutePath rtePth : rte.getPaths()) {
+				rtePth.getStops();
+			}
+		}
+
+		final ArrayList<ParseTask> parseTasks = new ArrayList<ParseTask>(
+				numChunks);
+		final AtomicLong bytesParsed = new AtomicLong(dataStart);
+		for (int chunk = 0; chunk < numChunks; chunk++) {
+			parseTasks.add(new ParseTask(channel, bounds[chunk],
+					bounds[chunk + 1], bytesParsed, fileSize));
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				protected void compute() {
+					invokeAll(parseTasks);
+				}
+			});
+			IOException failure = null;
+			for (ParseTask task : parseTasks) {
+				if (task.failure != null && failure == null) {
+					failure = task.failure;
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+
+			final ArrayList<BuildTask> buildTasks = new ArrayList<BuildTask>(
+					numChunks);
+			for (ParseTask task : parseTasks) {
+				for (PendingService pending : task.services) {
+					pending.firstRow = store.addService(pending.stopIds);
+				}
+				buildTasks.add(new BuildTask(task.services, store));
+			}
+
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				protected void compute() {
+					invokeAll(buildTasks);
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+
+		for (ParseTask task : parseTasks) {
+			for (PendingService pending : task.services) {
+				imported.add(pending.service);
+			}
+		}
+		return imported;
+	}
+
+	/**
+	 * Splits the data lines of the file into about the specified number of
+	 * chunks. Each chunk starts at a line whose route path differs from the
+	 * one of the line before it.
+	 * 
+	 * @param channel
+	 *            channel open on the service file
+	 * @param dataStart
+	 *            offset of the first line after the header
+	 * @param fileSize
+	 *            size of the file
+	 * @param numChunks
+	 *            desired number of chunks
+	 * @return the chunk boundaries, starting with {@code dataStart} and ending
+	 *         with {@code fileSize}.
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	private long[] findChunkBounds(FileChannel channel, long dataStart,
+			long fileSize, int numChunks) throws IOException {
+		long[] bounds = new long[numChunks + 1];
+		int numBounds = 0;
+		bounds[numBounds++] = dataStart;
+
+		long dataSize = fileSize - dataStart;
+		for (int chunk = 1; chunk < numChunks; chunk++) {
+			long target = dataStart + dataSize * chunk / numChunks;
+			if (target <= bounds[numBounds - 1]) {
+				continue;
+			}
+			long bound = nextPathStart(channel,
+					nextLineStart(channel, target, fileSize), fileSize);
+			if (bound > bounds[numBounds - 1] && bound < fileSize) {
+				bounds[numBounds++] = bound;
+			}
+		}
+		bounds[numBounds++] = fileSize;
+
+		long[] trimmed = new long[numBounds];
+		System.arraycopy(bounds, 0, trimmed, 0, numBounds);
+		return trimmed;
+	}
+
+	/**
+	 * Finds the first line starting at or after the specified offset.
+	 * 
+	 * @param channel
+	 *            channel open on the service file
+	 * @param offset
+	 *            offset to start looking from
+	 * @param fileSize
+	 *            size of the file
+	 * @return the offset of the line or {@code fileSize} if there is none.
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	private long nextLineStart(FileChannel channel, long offset,
+			long fileSize) throws IOException {
+		if (offset <= 0) {
+			return 0;
+		}
+
+		ByteBuffer buf = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+		long pos = offset - 1;
+		while (pos < fileSize) {
+			buf.clear();
+			int read = channel.read(buf, pos);
+			if (read <= 0) {
+				break;
+			}
+			for (int index = 0; index < read; index++) {
+				if (buf.get(index) == '\n') {
+					return pos + index + 1;
+				}
+			}
+			pos += read;
+		}
+		return fileSize;
+	}
+
+	/**
+	 * Finds the first line at or after the specified line whose route path
+	 * differs from the route path of the lines before it. Lines that the
+	 * import rejects before looking at their route path are skipped, since
+	 * they do not change the current route path either.
+	 * 
+	 * @param channel
+	 *            channel open on the service file
+	 * @param lineStart
+	 *            offset of a line start
+	 * @param fileSize
+	 *            size of the file
+	 * @return the offset of the line or {@code fileSize} if there is none.
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	private long nextPathStart(FileChannel channel, long lineStart,
+			long fileSize) throws IOException {
+		CsvTokenizer scanner = new CsvTokenizer(new RangeChannel(channel,
+				lineStart, fileSize), SCAN_BUFFER_SIZE);
+		boolean seenPath = false;
+		int lastRouteId = 0;
+		int lastPathId = 0;
+		int[] values = new int[ServiceImport.DATA_FIELDS.length];
+		while (scanner.nextRecord()) {
+			if (!hasNumbers(scanner, values)) {
+				continue;
+			}
+			int routeId = scanner.getInt(0);
+			int pathId = scanner.getInt(1);
+			if (seenPath && (routeId != lastRouteId || pathId != lastPathId)) {
+				return lineStart + scanner.getRecordOffset();
+			}
+			seenPath = true;
+			lastRouteId = routeId;
+			lastPathId = pathId;
+		}
+		return fileSize;
+	}
+
+	/**
+	 * Determines whether the current line has all the numeric fields that the
+	 * import reads before looking at the route path of the line.
+	 * 
+	 * @param scanner
+	 *            tokenizer positioned on the line
+	 * @param values
+	 *            scratch array for the data values of the line
+	 * @return {@code true} if the line has all fields and they are numbers.
+	 */
+	private static boolean hasNumbers(CsvTokenizer scanner, int[] values) {
+		if (scanner.getFieldCount() < ServiceImport.requiredFileHeaders
+				.length) {
+			return false;
+		}
+		for (int field : NUMBER_FIELDS) {
+			scanner.getInt(field);
+		}
+		ServiceImport.readDataValues(scanner, values);
+		return scanner.getMalformedField() < 0;
+	}
+
+	/**
+	 * Service read from the file whose {@code Service} object has not been
+	 * built yet, together with its rows of rider data.
+	 */
+	private static final class PendingService {
+		final int serviceId;
+		final Period period;
+		final Stop originStop;
+		final Stop destinationStop;
+		final RoutePath path;
+		final List<Stop> stops;
+		final int[] stopIds;
+
+		int numRows;
+		int[] rowStopIds = new int[8];
+		int[] rowValues = new int[8 * 3]; // in the order of DATA_TYPES
+		int[] rowPresent = new int[8]; // masks of the values present
+
+		int firstRow;
+		Service service;
+
+		// position in stopIds of the stop of the last row added
+		private int cursor;
+
+		PendingService(int svcId, Period pd, Stop ogn, Stop dst,
+				RoutePath pth, List<Stop> stps) {
+			serviceId = svcId;
+			period = pd;
+			originStop = ogn;
+			destinationStop = dst;
+			path = pth;
+			stops = stps;
+			stopIds = Service.getStopIds(stps);
+		}
+
+		/**
+		 * Determines whether the service stops at the specified stop. The
+		 * search starts from the stop of the last row, since the rows of a
+		 * service usually follow its stops in order.
+		 * 
+		 * @param stopId
+		 *            station id of the stop
+		 * @return {@code true} if the stop is one of the stops of the service.
+		 */
+		boolean hasStop(int stopId) {
+			for (int count = 0; count < stopIds.length; count++) {
+				if (stopIds[cursor] == stopId) {
+					return true;
+				}
+				cursor = cursor + 1 < stopIds.length ? cursor + 1 : 0;
+			}
+			return false;
+		}
+
+		void addRow(int stopId, int[] values, int present) {
+			if (numRows == rowStopIds.length) {
+				int[] newStopIds = new int[numRows << 1];
+				System.arraycopy(rowStopIds, 0, newStopIds, 0, numRows);
+				rowStopIds = newStopIds;
+				int[] newValues = new int[numRows * 6];
+				System.arraycopy(rowValues, 0, newValues, 0, numRows * 3);
+				rowValues = newValues;
+				int[] newPresent = new int[numRows << 1];
+				System.arraycopy(rowPresent, 0, newPresent, 0, numRows);
+				rowPresent = newPresent;
+			}
+			rowStopIds[numRows] = stopId;
+			System.arraycopy(values, 0, rowValues, numRows * 3, 3);
+			rowPresent[numRows] = present;
+			numRows++;
+		}
+	}
+
+	/**
+	 * Parses one chunk of the file into pending services, following the same
+	 * rules as {@code ServiceImport.processLineData()}.
+	 */
+	private final class ParseTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel channel;
+		private final long start;
+		private final long end;
+		private final AtomicLong bytesParsed;
+		private final long fileSize;
+
+		final ArrayList<PendingService> services =
+				new ArrayList<PendingService>();
+		IOException failure;
+
+		ParseTask(FileChannel chnl, long strt, long nd, AtomicLong prsd,
+				long flSz) {
+			channel = chnl;
+			start = strt;
+			end = nd;
+			bytesParsed = prsd;
+			fileSize = flSz;
+		}
+
+		protected void compute() {
+			CsvTokenizer record = new CsvTokenizer(new RangeChannel(channel,
+					start, end));
+			Route currentRoute = null;
+			RoutePath currentRoutePath = null;
+			PendingService current = null;
+
+			try {
+				int numFields = ServiceImport.requiredFileHeaders.length;
+				int[] values = new int[ServiceImport.DATA_FIELDS.length];
+				while (record.nextRecord()) {
+					if (record.getFieldCount() < numFields) {
+						reject(record, ImportErrors.MISSING_FIELD,
+								"# of # fields", record.getFieldCount(),
+								numFields);
+						continue;
+					}
+
+					int routeId = record.getInt(0);
+					int pathId = record.getInt(1);
+					int serviceId = record.getInt(2);
+					int originId = record.getInt(3);
+					int destinationId = record.getInt(4);
+					int stopId = record.getInt(7);
+					int present = ServiceImport.readDataValues(record, values);
+					if (record.getMalformedField() >= 0) {
+						reject(record, ImportErrors.MALFORMED_NUMBER,
+								"column #", record.getMalformedField() + 1, 0);
+						continue;
+					}
+
+					if (currentRoute == null || currentRoutePath == null
+							|| currentRoute.getRouteId() != routeId
+							|| currentRoutePath.getPathId() != pathId) {
+						currentRoute = objects.getRoute(routeId);
+						currentRoutePath = (currentRoute != null)
+								? currentRoute.getRoutePath(pathId)
+								: null;
+						current = null;
+						if (currentRoute == null) {
+							reject(record, ImportErrors.UNKNOWN_ROUTE,
+									"route #", routeId, 0);
+							continue;
+						}
+						if (currentRoutePath == null) {
+							reject(record, ImportErrors.UNKNOWN_PATH,
+									"path # of route #", pathId, routeId);
+							continue;
+						}
+					}
+
+					if (current == null || current.serviceId != serviceId) {
+						// like the sequential import, keep the current
+						// service if the line is rejected
+						PendingService started = startService(record,
+								currentRoutePath, serviceId, originId,
+								destinationId);
+						if (started == null) {
+							continue;
+						}
+						current = started;
+						services.add(current);
+					}
+					if (!current.hasStop(stopId)) {
+						reject(record, ImportErrors.UNKNOWN_STOP,
+								"stop # of service #", stopId, serviceId);
+						continue;
+					}
+					current.addRow(stopId, values, present);
+				}
+			} catch (IOException ex) {
+				failure = ex;
+			}
+
+			owner.reportProgress(bytesParsed.addAndGet(end - start) * 9 / 10,
+					fileSize);
+		}
+
+		/**
+		 * Starts a pending service on the current line of this chunk, after
+		 * checking its period and stops.
+		 * 
+		 * @param record
+		 *            tokenizer positioned on the first line of the service
+		 * @param rtePth
+		 *            route path of the service
+		 * @param serviceId
+		 *            id of the service
+		 * @param originId
+		 *            station id of the origin stop
+		 * @param destinationId
+		 *            station id of the destination stop
+		 * @return the new pending service, or {@code null} if the line was
+		 *         rejected.
+		 */
+		private PendingService startService(CsvTokenizer record,
+				RoutePath rtePth, int serviceId, int originId,
+				int destinationId) {
+			if (ServiceImport.findCode(record, 5, ServiceImport.DAY_CODES) < 0
+					|| ServiceImport.findCode(record, 6,
+							ServiceImport.TIME_PERIOD_CODES) < 0) {
+				reject(record, ImportErrors.UNKNOWN_PERIOD, null, 0, 0);
+				return null;
+			}
+			Period pd = ServiceImport.interpretPeriod(record, 5, 6);
+
+			Stop ognStop = rtePth.getStop(originId);
+			Stop dstStop = rtePth.getStop(destinationId);
+			if (ognStop == null || dstStop == null) {
+				reject(record, ImportErrors.UNKNOWN_STOP,
+						"origin # or destination #", originId, destinationId);
+				return null;
+			}
+			if (rtePth.getVertexIndex(ognStop) > rtePth
+					.getVertexIndex(dstStop)) {
+				reject(record, ImportErrors.INVALID_VALUE,
+						"origin # after destination #", originId,
+						destinationId);
+				return null;
+			}
+
+			List<Stop> stps = rtePth.getStopsInBetween(ognStop, dstStop);
+			return new PendingService(serviceId, pd, ognStop, dstStop, rtePth,
+					stps);
+		}
+
+		/**
+		 * Rejects the current line of this chunk.
+		 * 
+		 * @param record
+		 *            tokenizer positioned on the rejected line
+		 * @param cause
+		 *            why the line is rejected
+		 * @param detail
+		 *            constant description of the problem, in which each
+		 *            {@code #} stands for the next argument, or {@code null}
+		 * @param arg0
+		 *            first argument of the description
+		 * @param arg1
+		 *            second argument of the description
+		 */
+		private void reject(CsvTokenizer record, int cause, String detail,
+				long arg0, long arg1) {
+			errors.reject(cause, record, start + record.getRecordOffset(),
+					detail, arg0, arg1);
+		}
+	}
+
+	/**
+	 * Builds the {@code Service}s of one chunk over their reserved rows and
+	 * stores their rider data.
+	 */
+	private final class BuildTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final ArrayList<PendingService> services;
+		private final RidershipStore store;
+
+		BuildTask(ArrayList<PendingService> svcs, RidershipStore str) {
+			services = svcs;
+			store = str;
+		}
+
+		protected void compute() {
+			for (PendingService pending : services) {
+				Service svc = new Service(pending.serviceId, pending.period,
+						pending.originStop, pending.destinationStop,
+						pending.path, pending.stops, store, pending.firstRow);
+
+				int[] values = pending.rowValues;
+				for (int row = 0; row < pending.numRows; row++) {
+					ServiceStop svcStop = svc
+							.getServiceStop(pending.rowStopIds[row]);
+					if (svcStop == null) {
+						// rows are checked against the stops when parsed
+						throw new IllegalStateException("Stop "
+								+ pending.rowStopIds[row] + " is not on service "
+								+ pending.serviceId + ".");
+					}
+					ServiceImport.setDataValues(svcStop, values, row * 3,
+							pending.rowPresent[row]);
+				}
+				pending.service = svc;
+			}
+		}
+	}
+
+	/**
+	 * Read-only channel over a range of a {@code FileChannel}, using
+	 * positional reads so that several ranges can be read concurrently.
+	 */
+	private static final class RangeChannel implements ReadableByteChannel {
+		private final FileChannel channel;
+		private long position;
+		private final long end;
+
+		RangeChannel(FileChannel chnl, long start, long nd) {
+			channel = chnl;
+			position = start;
+			end = nd;
+		}
+
+		public int read(ByteBuffer dst) throws IOException {
+			if (position >= end) {
+				return -1;
+			}
+			int oldLimit = dst.limit();
+			if (dst.remaining() > end - position) {
+				dst.limit(dst.position() + (int) (end - position));
+			}
+			try {
+				int read = channel.read(dst, position);
+				if (read > 0) {
+					position += read;
+				}
+				return read;
+			} finally {
+				dst.limit(oldLimit);
+			}
+		}
+
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		public void close() {
+			// the underlying channel is closed by its owner
+		}
+	}
+}
@@ -0,0 +1,442 @@
+/*******************************************************************************
+ * MASS (Metro Analytics Software System) by Sean Harger
+ * is licensed under a Creative Commons Attribution-NonCommercial-ShareAlike 3.0
+ * United States License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by-nc-sa/3.0/us/.
+ ******************************************************************************/
+package net.metro.analyze;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import net.metro.systemobjects.PathGeometry;
+import net.metro.systemobjects.Period;
+import net.metro.systemobjects.Route;
+import net.metro.systemobjects.RoutePath;
+import net.metro.systemobjects.SectionWriter;
+import net.metro.systemobjects.Service;
+import net.metro.systemobjects.ServiceStop;
+import net.metro.systemobjects.Stop;
+import net.metro.systemobjects.SystemObjects;
+import net.metro.systemobjects.dataobjects.DataType;
+
+/**
+ * Extension of the {@code FileExport} class that writes the rider data within
+ * MASS, summed per route, path, period, and stop, to a columnar binary file
+ * for other analytics tools. Every column holds little-endian {@code int}s,
+ * and names are stored once in a dictionary and referred to by index, so the
+ * file can be memory-mapped and read without parsing:
+ * 
+ * <pre>
+ * header      MAGIC, VERSION, number of columns, rows per chunk
+ * chunks      for every chunk of up to ROWS_PER_CHUNK rows, the values of
+ *             the chunk for each column in turn
+ * dictionary  end offset of every string, then the UTF-8 bytes of all strings
+ *             padded to a multiple of 4 bytes
+ * footer      number of rows, chunks, and strings, and the byte offset of the
+ *             dictionary as a {@code long}; the kind and the name of every
+ *             column; for every chunk, its byte offset as a {@code long}, its
+ *             number of rows, and the minimum and maximum of every column
+ * trailer     length of the footer in bytes, MAGIC
+ * </pre>
+ * 
+ * A reader starts from the trailer at the end of the file. The values of a
+ * column within a chunk start at the offset of the chunk plus 4 bytes times
+ * the number of rows of the chunk times the index of the column, so chunks
+ * whose minimum and maximum rule them out can be skipped without being read.
+ * 
+ * Rows are written while the services of each path are walked, in route and
+ * path order, then by period and stop order along the path. Each row holds
+ * the number of services stopping there in its period and, for every
+ * {@code DataType}, the sum of the values present in those services.
+ * 
+ * @author Sean Harger
+ * 
+ */
+public class RidershipExport extends FileExport {
+	/** Extension of columnar ridership files. */
+	public static final String EXTENSION = "mcr";
+	/** First and last {@code int} of every file, {@code "MASR"} in ASCII. */
+	public static final int MAGIC = 0x4D415352;
+	/** Version of the file format written by this class. */
+	public static final int VERSION = 1;
+	/** Number of rows in every chunk except for the last one. */
+	public static final int ROWS_PER_CHUNK = 1 << 16;
+
+	/** Kind of a column holding plain values. */
+	public static final int INT_COLUMN = 0;
+	/** Kind of a column holding indices into the dictionary. */
+	public static final int DICTIONARY_COLUMN = 1;
+
+	private static final String[] KEY_COLUMNS = { "routeId", "routeName",
+			"pathId", "pathName", "dayMask", "startTime", "endTime", "stopSeq",
+			"stopId", "stopName", "services" };
+	private static final int ROUTE_ID = 0;
+	private static final int ROUTE_NAME = 1;
+	private static final int PATH_ID = 2;
+	private static final int PATH_NAME = 3;
+	private static final int DAY_MASK = 4;
+	private static final int START_TIME = 5;
+	private static final int END_TIME = 6;
+	private static final int STOP_SEQ = 7;
+	private static final int STOP_ID = 8;
+	private static final int STOP_NAME = 9;
+	private static final int SERVICES = 10;
+
+	protected static final String[] fileHeaders;
+	private static final int[] columnKinds;
+
+	static {
+		DataType[] dTypes = DataType.values();
+		fileHeaders = Arrays.copyOf(KEY_COLUMNS, KEY_COLUMNS.length
+				+ dTypes.length);
+		for (DataType dType : dTypes) {
+			fileHeaders[KEY_COLUMNS.length + dType.getOrdinal()] = dType
+					.getName().toLowerCase();
+		}
+
+		columnKinds = new int[fileHeaders.length];
+		columnKinds[ROUTE_NAME] = DICTIONARY_COLUMN;
+		columnKinds[PATH_NAME] = DICTIONARY_COLUMN;
+		columnKinds[STOP_NAME] = DICTIONARY_COLUMN;
+	}
+
+	// orders the periods of a path by days, then by time of day
+	private static final Comparator<Period> PERIOD_ORDER =
+			new Comparator<Period>() {
+				public int compare(Period a, Period b) {
+					if (a.getDayMask() != b.getDayMask()) {
+						return Integer.compare(a.getDayMask(), b.getDayMask());
+					}
+					int startA = a.getTimePeriod().getStartSeconds();
+					int startB = b.getTimePeriod().getStartSeconds();
+					if (startA != startB) {
+						return Integer.compare(startA, startB);
+					}
+					return Integer.compare(a.getTimePeriod().getEndSeconds(), b
+							.getTimePeriod().getEndSeconds());
+				}
+			};
+
+	// state of the file being written
+	private SectionWriter out;
+	private int[][] chunk;
+	private int chunkRows;
+	private int numRows;
+	private ArrayList<Long> chunkOffsets;
+	private ArrayList<int[]> chunkStats;
+	private HashMap<String, Integer> dictionaryIndex;
+	private ArrayList<byte[]> dictionary;
+
+	/**
+	 * Constructs a {@code RidershipExport}.
+	 * 
+	 * @param exptFl
+	 *            {@code File} to export data to.
+	 * @param objs
+	 *            {@code SystemObjects} database to extract data from.
+	 */
+	public RidershipExport(File exptFl, SystemObjects objs) {
+		super(exptFl, objs, RidershipExport.fileHeaders);
+	}
+
+	/**
+	 * Writes the header, the rows in chunks as {@code writeData()} produces
+	 * them, and then the dictionary and the footer.
+	 */
+	protected void writeFile(FileChannel channel) throws IOException {
+		out = new SectionWriter(channel);
+		chunk = new int[fileHeaders.length][ROWS_PER_CHUNK];
+		chunkRows = 0;
+		numRows = 0;
+		chunkOffsets = new ArrayList<Long>();
+		chunkStats = new ArrayList<int[]>();
+		dictionaryIndex = new HashMap<String, Integer>();
+		dictionary = new ArrayList<byte[]>();
+		try {
+			// column names come first in the dictionary
+			for (String name : fileHeaders) {
+				encode(name);
+			}
+
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(fileHeaders.length);
+			out.putInt(ROWS_PER_CHUNK);
+
+			writeData();
+			writeChunk();
+
+			long dictionaryOffset = out.getLength();
+			writeDictionary();
+			writeFooter(dictionaryOffset);
+			out.flush();
+		} finally {
+			out = null;
+			chunk = null;
+			chunkOffsets = null;
+			chunkStats = null;
+			dictionaryIndex = null;
+			dictionary = null;
+		}
+	}
+
+	/**
+	 * Walks the services of every path, period by period, and adds one row for
+	 * every stop of the path served in that period.
+	 */
+	protected void writeData() throws IOException {
+		long totalStops = 0;
+		for (Route rte : getSystemObjects().getAllRoutes()) {
+			for (RoutePath rtePth : rte.getPaths()) {
+				for (Service svc : rtePth.getServices()) {
+					totalStops += svc.getNumServiceStops();
+				}
+			}
+		}
+
+		DataType[] dTypes = DataType.values();
+		int[] row = new int[fileHeaders.length];
+		long stopsRead = 0;
+		for (Route rte : getSystemObjects().getAllRoutes()) {
+			row[ROUTE_ID] = rte.getRouteId();
+			row[ROUTE_NAME] = encode(rte.getName());
+			for (RoutePath rtePth : rte.getPaths()) {
+				row[PATH_ID] = rtePth.getPathId();
+				row[PATH_NAME] = encode(rtePth.getName());
+
+				PathGeometry geom = rtePth.getGeometry();
+				int numStops = geom.getNumStops();
+				int[] svcCounts = new int[numStops];
+				int[][] sums = new int[dTypes.length][numStops];
+
+				for (List<Service> svcs : groupByPeriod(rtePth.getServices())) {
+					for (Service svc : svcs) {
+						addService(svc, geom, svcCounts, sums);
+						stopsRead += svc.getNumServiceStops();
+						reportProgress(stopsRead, totalStops);
+					}
+
+					Period pd = svcs.get(0).getPeriod();
+					row[DAY_MASK] = pd.getDayMask();
+					row[START_TIME] = pd.getTimePeriod().getStartSeconds();
+					row[END_TIME] = pd.getTimePeriod().getEndSeconds();
+					for (int index = 0; index < numStops; index++) {
+						if (svcCounts[index] == 0) {
+							continue;
+						}
+						Stop st = geom.getStop(index);
+						row[STOP_SEQ] = index + 1;
+						row[STOP_ID] = st.getStationId();
+						row[STOP_NAME] = encode(st.getName());
+						row[SERVICES] = svcCounts[index];
+						for (int ord = 0; ord < dTypes.length; ord++) {
+							row[KEY_COLUMNS.length + ord] = sums[ord][index];
+						}
+						addRow(row);
+					}
+
+					Arrays.fill(svcCounts, 0);
+					for (int[] column : sums) {
+						Arrays.fill(column, 0);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the rider data of a service to the sums of the stops of its path.
+	 * Service stops are looked up along the path from the origin of the
+	 * service, and stops that are no longer on the path are left out.
+	 * 
+	 * @param svc
+	 *            the service
+	 * @param geom
+	 *            geometry of the path of the service
+	 * @param svcCounts
+	 *            number of services counted at each stop of the path
+	 * @param sums
+	 *            sum of the values present at each stop of the path, indexed
+	 *            by {@code DataType} ordinal and then by stop
+	 */
+	static void addService(Service svc, PathGeometry geom, int[] svcCounts,
+			int[][] sums) {
+		DataType[] dTypes = DataType.values();
+		int index = geom.indexOfStop(svc.getOriginStop());
+		for (ServiceStop svcStop : svc.getServiceStops()) {
+			Stop st = svcStop.getStop();
+			if (index < 0 || index >= geom.getNumStops()
+					|| geom.getStop(index) != st) {
+				index = geom.indexOfStop(st);
+				if (index < 0) {
+					continue;
+				}
+			}
+
+			svcCounts[index]++;
+			for (DataType dType : dTypes) {
+				if (svcStop.hasData(dType)) {
+					sums[dType.getOrdinal()][index] += svcStop
+							.getDataValue(dType);
+				}
+			}
+			index++;
+		}
+	}
+
+	/**
+	 * Groups the services of a path by period, ordering the periods by days
+	 * and then by time of day.
+	 * 
+	 * @param svcs
+	 *            the services of a path
+	 * @return the services of each period in order.
+	 */
+	private static List<List<Service>> groupByPeriod(List<Service> svcs) {
+		HashMap<Period, List<Service>> groups;
+		groups = new HashMap<Period, List<Service>>();
+		ArrayList<Period> periods = new ArrayList<Period>();
+		for (Service svc : svcs) {
+			List<Service> group = groups.get(svc.getPeriod());
+			if (group == null) {
+				group = new ArrayList<Service>();
+				groups.put(svc.getPeriod(), group);
+				periods.add(svc.getPeriod());
+			}
+			group.add(svc);
+		}
+		Collections.sort(periods, PERIOD_ORDER);
+
+		List<List<Service>> grouped = new ArrayList<List<Service>>(
+				periods.size());
+		for (Period pd : periods) {
+			grouped.add(groups.get(pd));
+		}
+		return grouped;
+	}
+
+	/**
+	 * Adds a row to the current chunk, writing the chunk when it is full.
+	 * 
+	 * @param row
+	 *            value of every column of the row
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	private void addRow(int[] row) throws IOException {
+		for (int col = 0; col < row.length; col++) {
+			chunk[col][chunkRows] = row[col];
+		}
+		if (++chunkRows == ROWS_PER_CHUNK) {
+			writeChunk();
+		}
+	}
+
+	/**
+	 * Writes the rows of the current chunk column by column and records the
+	 * offset, number of rows, and column statistics of the chunk.
+	 * 
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	private void writeChunk() throws IOException {
+		if (chunkRows == 0) {
+			return;
+		}
+
+		int[] stats = new int[1 + chunk.length * 2];
+		stats[0] = chunkRows;
+		chunkOffsets.add(out.getLength());
+		for (int col = 0; col < chunk.length; col++) {
+			int[] values = chunk[col];
+			int min = values[0];
+			int max = values[0];
+			for (int index = 1; index < chunkRows; index++) {
+				if (values[index] < min) {
+					min = values[index];
+				} else if (values[index] > max) {
+					max = values[index];
+				}
+			}
+			stats[1 + col * 2] = min;
+			stats[2 + col * 2] = max;
+			out.putInts(values, chunkRows);
+		}
+		chunkStats.add(stats);
+		numRows += chunkRows;
+		chunkRows = 0;
+	}
+
+	/**
+	 * Writes the end offsets and then the bytes of every dictionary string.
+	 * 
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	private void writeDictionary() throws IOException {
+		int offset = 0;
+		for (byte[] str : dictionary) {
+			offset += str.length;
+			out.putInt(offset);
+		}
+		for (byte[] str : dictionary) {
+			out.putBytes(str);
+		}
+		out.pad();
+	}
+
+	/**
+	 * Writes the footer describing the columns and chunks, followed by the
+	 * trailer.
+	 * 
+	 * @param dictionaryOffset
+	 *            byte offset of the dictionary
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	private void writeFooter(long dictionaryOffset) throws IOException {
+		long footerOffset = out.getLength();
+		out.putInt(numRows);
+		out.putInt(chunkStats.size());
+		out.putInt(dictionary.size());
+		out.putLong(dictionaryOffset);
+		for (int col = 0; col < fileHeaders.length; col++) {
+			out.putInt(columnKinds[col]);
+			out.putInt(col);
+		}
+		for (int index = 0; index < chunkStats.size(); index++) {
+			out.putLong(chunkOffsets.get(index));
+			out.putInts(chunkStats.get(index), chunkStats.get(index).length);
+		}
+
+		out.putInt((int) (out.getLength() - footerOffset));
+		out.putInt(MAGIC);
+	}
+
+	/**
+	 * Returns the dictionary index of a string, adding it to the dictionary if
+	 * it is not there yet.
+	 * 
+	 * @param str
+	 *            the string
+	 * @return the index of the string in the dictionary.
+	 */
+	private int encode(String str) {
+		Integer index = dictionaryIndex.get(str);
+		if (index == null) {
+			index = dictionary.size();
+			dictionaryIndex.put(str, index);
+			dictionary.add(str.getBytes(StandardCharsets.UTF_8));
+		}
+		return index;
+	}
+}
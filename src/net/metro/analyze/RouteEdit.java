@@ -96,7 +96,8 @@ public class RouteEdit extends JDialog {
 				throw new Exception("Route " + routeNum + " already exists.");
 			}
 
-			route.setNumber(routeNum);
+			lineEditFrame.getMainFrame().getSystemObjects()
+					.renumberRoute(route, routeNum);
 			route.setName(routeName);
 			lineEditFrame.updateRouteComboBox();
 
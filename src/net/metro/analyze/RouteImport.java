@@ -8,12 +8,18 @@ package net.metro.analyze;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 
+import net.metro.systemobjects.IntHashMap;
+import net.metro.systemobjects.PathGeometry;
 import net.metro.systemobjects.Route;
 import net.metro.systemobjects.RoutePath;
+import net.metro.systemobjects.Service;
+import net.metro.systemobjects.ServiceStop;
 import net.metro.systemobjects.Stop;
 import net.metro.systemobjects.SystemObjects;
-import net.metro.systemobjects.WayPoint;
+import net.metro.systemobjects.dataobjects.DataType;
 
 /**
  * Extends the {@code FileImport} class designed to import Routes from an
@@ -23,8 +29,6 @@ import net.metro.systemobjects.WayPoint;
  * 
  */
 public class RouteImport extends FileImport {
-	private static final long serialVersionUID = -36901587909585933L;
-
 	protected static final String[] requiredFileHeaders = { "routeId",
 			"routeName", "pathId", "pathSeq", "pathName", "wayPointType",
 			"pointLat", "pointLon", "stopName", "stopId" };
@@ -33,6 +37,16 @@ public class RouteImport extends FileImport {
 
 	private ArrayList<WayPointSet> wayPointSets;
 	private WayPointSet currentWayPointSet;
+	private boolean merge;
+
+	// staged results of processDataSets(), published by publishDataSets()
+	private ArrayList<Route> stagedRoutes;
+	private LinkedHashMap<Long, StagedPath> stagedPaths;
+
+	// services of changed paths that publishDataSets() moved onto the new
+	// stops, or removed because their origin or destination is gone
+	private int reboundServices;
+	private int droppedServices;
 
 	/**
 	 * Constructs a {@code RouteImport} object.
@@ -41,93 +55,355 @@ public class RouteImport extends FileImport {
 	 *            {@code File} to import route data from
 	 * @param objs
 	 *            {@code SystemObjects} database to add route data to
-	 * @param mnFrm
-	 *            reference to {@code MainFrame} from which this
-	 *            {@code RouteImport} frame was invoked
 	 */
-	public RouteImport(File imptFl, SystemObjects objs, MainFrame mnFrm) {
-		super(imptFl, objs, requiredFileHeaders, mnFrm);
-		setTitle("Route Import");
+	public RouteImport(File imptFl, SystemObjects objs) {
+		super(imptFl, objs, requiredFileHeaders);
 		currentWayPointSet = null;
 		wayPointSets = new ArrayList<WayPointSet>();
+		merge = true;
+		stagedRoutes = new ArrayList<Route>();
+		stagedPaths = new LinkedHashMap<Long, StagedPath>();
+		reboundServices = 0;
+		droppedServices = 0;
+	}
+
+	/**
+	 * Sets whether the file is merged into the existing route paths. In merge
+	 * mode, which is the default, paths whose waypoints have not changed are
+	 * left alone, and changed paths keep the {@code Stop} objects of stops
+	 * that did not move. Otherwise every path in the file is rebuilt from
+	 * scratch. In either mode, the services of a changed path whose stops
+	 * differ are rebuilt over the new stops when the import is published; see
+	 * {@code publishDataSets()}.
+	 * 
+	 * @param mrg
+	 *            {@code true} to merge the file into the existing paths
+	 */
+	public void setMerge(boolean mrg) {
+		merge = mrg;
 	}
 
 	/**
 	 * Processes individual line data into the necessary formats to be stored in
 	 * the {@code SystemObjects} database. Creates {@code WayPointSet}s for
 	 * large amounts of waypoints belonging to a particular route path. These
-	 * will be added later during the {@code processDataSets()} method.
+	 * will be added later during the {@code processDataSets()} method. Lines
+	 * that cannot be imported are rejected with their cause.
 	 */
-	protected void processLineData(String[] lineTokens) {
-		try {
-			int routeId = Integer.parseInt(lineTokens[0]);
-			String routeName = new String(lineTokens[1]);
-			int pathId = Integer.parseInt(lineTokens[2]);
-			/*
-			 * int pathSeq = Integer.parseInt( lineTokens[ 3 ] ); (commented out
-			 * due to no use of column at this time)
-			 */
-			String pathName = new String(lineTokens[4]);
-			int wayPointType = Integer.parseInt(lineTokens[5]);
-			double pointLat = Double.parseDouble(lineTokens[6]);
-			double pointLon = Double.parseDouble(lineTokens[7]);
-
-			if (currentWayPointSet == null
-					|| currentWayPointSet.getRouteId() != routeId
-					|| currentWayPointSet.getPathId() != pathId) {
-				currentWayPointSet = new WayPointSet(routeId, routeName,
-						pathId, pathName);
-				wayPointSets.add(currentWayPointSet);
-			}
+	protected void processLineData(CsvTokenizer record) {
+		if (!hasRequiredFields(record)) {
+			return;
+		}
 
-			if (wayPointType == RouteImport.WPTYPE_WAYPOINT) {
-				currentWayPointSet.addWayPoint(new ImportWayPoint(pointLat,
-						pointLon));
-			} else if (wayPointType == RouteImport.WPTYPE_STOP) {
-				String stopName = new String(lineTokens[8]);
-				int stopId = Integer.parseInt(lineTokens[9]);
+		int routeId = record.getInt(0);
+		int pathId = record.getInt(2);
+		/*
+		 * int pathSeq = record.getInt( 3 ); (commented out due to no use of
+		 * column at this time)
+		 */
+		int wayPointType = record.getInt(5);
+		double pointLat = record.getDouble(6);
+		double pointLon = record.getDouble(7);
+		int stationId = (wayPointType == RouteImport.WPTYPE_STOP) ? record
+				.getInt(9) : 0;
+		if (rejectMalformed(record)) {
+			return;
+		}
 
-				currentWayPointSet.addWayPoint(new ImportStop(pointLat,
-						pointLon, stopName, stopId));
-			} else {
-				System.out
-						.println("The specified WayPoint type is not valid. You specified \""
-								+ wayPointType + "\".");
-			}
-		} catch (Exception ex) {
-			ex.printStackTrace();
+		if (wayPointType != RouteImport.WPTYPE_WAYPOINT
+				&& wayPointType != RouteImport.WPTYPE_STOP) {
+			reject(record, ImportErrors.INVALID_VALUE, "waypoint type #",
+					wayPointType);
+			return;
+		}
+
+		ImportWayPoint wp;
+		if (wayPointType == RouteImport.WPTYPE_STOP) {
+			wp = new ImportStop(pointLat, pointLon, record.getString(8),
+					stationId);
+		} else {
+			wp = new ImportWayPoint(pointLat, pointLon);
 		}
+
+		if (currentWayPointSet == null
+				|| currentWayPointSet.getRouteId() != routeId
+				|| currentWayPointSet.getPathId() != pathId) {
+			// names are only materialized once per route path
+			currentWayPointSet = new WayPointSet(routeId,
+					record.getString(1), pathId, record.getString(4));
+			wayPointSets.add(currentWayPointSet);
+		}
+		currentWayPointSet.addWayPoint(wp);
 	}
 
 	/**
-	 * Traverses the {@code WayPointSet} objects and adds routes, route paths,
-	 * stops, and waypoints to the {@code SystemObjects} database.
+	 * Traverses the {@code WayPointSet} objects and stages the routes, route
+	 * paths, stops, and waypoints to be added to the {@code SystemObjects}
+	 * database. New routes and paths are created privately and the new shape
+	 * of every path is built as a {@code PathGeometry}; the existing routes
+	 * and paths are only read. If a path appears in several sets, the last
+	 * one wins.
+	 * <p>
+	 * In merge mode, the checksum of each set is compared with the one of the
+	 * existing path first, and only the changed paths are rebuilt.
 	 */
 	protected void processDataSets() {
+		IntHashMap<Route> newRoutes = new IntHashMap<Route>();
+
 		for (WayPointSet set : wayPointSets) {
-			Route rte = getSystemObjects().getRoute(set.getRouteId());
-			if (rte == null) {
-				rte = new Route(set.getRouteId(), set.getRouteName());
-				getSystemObjects().addRoute(rte);
+			long key = ((long) set.getRouteId() << 32)
+					| (set.getPathId() & 0xFFFFFFFFL);
+			StagedPath staged = stagedPaths.get(key);
+
+			if (staged == null) {
+				Route rte = newRoutes.get(set.getRouteId());
+				boolean isNewRoute = rte != null;
+				if (rte == null) {
+					rte = getSystemObjects().getRoute(set.getRouteId());
+				}
+				if (rte == null) {
+					rte = new Route(set.getRouteId(), set.getRouteName());
+					newRoutes.put(rte.getRouteId(), rte);
+					stagedRoutes.add(rte);
+					isNewRoute = true;
+				}
+
+				RoutePath rtePth = rte.getRoutePath(set.getPathId());
+				boolean addToRoute = false;
+				boolean isNewPath = rtePth == null;
+				if (isNewPath) {
+					rtePth = new RoutePath(rte, set.getPathName(),
+							set.getPathId());
+					if (isNewRoute) {
+						rte.addPath(rtePth);
+					} else {
+						addToRoute = true;
+					}
+				}
+
+				staged = new StagedPath(rte, rtePth, addToRoute);
+				if (merge && !isNewPath) {
+					staged.oldGeometry = rtePth.getGeometry();
+				}
+				stagedPaths.put(key, staged);
 			}
 
-			RoutePath rtePth = rte.getRoutePath(set.getPathId());
-			if (rtePth == null) {
-				rtePth = new RoutePath(rte, set.getPathName(), set.getPathId());
-				rte.addPath(rtePth);
+			if (staged.oldGeometry != null
+					&& staged.oldGeometry.getChecksum() == set.getChecksum()) {
+				staged.geometry = null; // unchanged
+				continue;
 			}
 
-			rtePth.deleteAllWayPoints();
+			IntHashMap<Stop> oldStops = getStopsById(staged.oldGeometry);
+			PathGeometry geom = new PathGeometry(set.getWayPoints().size());
 			for (ImportWayPoint imptWp : set.getWayPoints()) {
 				if (imptWp instanceof ImportStop) {
 					ImportStop imptSt = (ImportStop) imptWp;
-					rtePth.addWayPoint(new Stop(rtePth, imptSt.getLat(), imptSt
-							.getLon(), imptSt.getName(), imptSt.getStopId()));
+					Stop st = oldStops.remove(imptSt.getStopId());
+					if (st == null || !imptSt.isSameStop(st)) {
+						st = new Stop(staged.path, imptSt.getLat(),
+								imptSt.getLon(), imptSt.getName(),
+								imptSt.getStopId());
+					}
+					geom.add(st);
 				} else {
-					rtePth.addWayPoint(new WayPoint(rtePth, imptWp.getLat(),
-							imptWp.getLon()));
+					geom.add(imptWp.getLat(), imptWp.getLon());
 				}
 			}
+			staged.geometry = geom;
+		}
+
+		wayPointSets.clear();
+	}
+
+	/**
+	 * Publishes the staged routes and paths to the {@code SystemObjects}
+	 * database. Each path receives its new shape with a single geometry swap.
+	 * <p>
+	 * A service of a changed path whose stops from origin to destination are
+	 * no longer the same is replaced by one over the new stops, which keeps
+	 * the data of the stations it still serves. If its origin or destination
+	 * station left the path, it is removed. The rider data rows of replaced
+	 * and removed services are then dropped from the store of the database.
+	 */
+	protected void publishDataSets() {
+		ArrayList<Service> discarded = new ArrayList<Service>();
+		for (StagedPath staged : stagedPaths.values()) {
+			if (staged.addToRoute) {
+				staged.route.addPath(staged.path);
+			}
+			if (staged.geometry != null) {
+				staged.path.setGeometry(staged.geometry);
+				rebindServices(staged.path, discarded);
+			}
+		}
+
+		for (Route rte : stagedRoutes) {
+			getSystemObjects().addRoute(rte);
+		}
+
+		if (!discarded.isEmpty()) {
+			// views still showing a discarded service keep reading its data
+			for (Service svc : discarded) {
+				svc.detachRows();
+			}
+			ArrayList<Service> svcs = new ArrayList<Service>();
+			for (Route rte : getSystemObjects().getAllRoutes()) {
+				for (RoutePath rtePth : rte.getPaths()) {
+					svcs.addAll(rtePth.getServices());
+				}
+			}
+			getSystemObjects().getRidershipStore().retainServices(svcs);
+		}
+	}
+
+	/**
+	 * Describes the services that were moved onto new stops or removed when
+	 * the import was published.
+	 */
+	public String getPublishSummary() {
+		if (reboundServices == 0 && droppedServices == 0) {
+			return null;
+		}
+		return reboundServices + " services were moved onto the new stops of "
+				+ "their route path.\n" + droppedServices + " services were "
+				+ "removed because their origin or destination stop is gone.\n";
+	}
+
+	/**
+	 * Checks the services of a path whose geometry was replaced against its
+	 * new stops, replacing or removing those whose stops changed.
+	 * 
+	 * @param rtePth
+	 *            the path, with its new geometry
+	 * @param discarded
+	 *            list to add the replaced and removed services to
+	 */
+	private void rebindServices(RoutePath rtePth, List<Service> discarded) {
+		if (rtePth.getServices().isEmpty()) {
+			return;
+		}
+
+		ArrayList<Service> svcs = new ArrayList<Service>(rtePth.getServices());
+		rtePth.removeAllServices();
+		for (Service svc : svcs) {
+			Service rebound = rebindService(svc, rtePth);
+			if (rebound != svc) {
+				discarded.add(svc);
+				if (rebound == null) {
+					droppedServices++;
+					continue;
+				}
+				reboundServices++;
+			}
+			rtePth.addService(rebound);
+		}
+	}
+
+	/**
+	 * Finds the service matching the specified one on the new stops of its
+	 * path. The origin and destination are looked up by station id, and the
+	 * data of every station still served is copied to a new service if the
+	 * stops in between differ.
+	 * 
+	 * @param svc
+	 *            a service of the path
+	 * @param rtePth
+	 *            the path, with its new geometry
+	 * @return {@code svc} if its stops did not change, a new service over the
+	 *         new stops, or {@code null} if the service no longer fits the
+	 *         path.
+	 */
+	private Service rebindService(Service svc, RoutePath rtePth) {
+		Stop ognStop = rtePth.getStop(svc.getOriginStop().getStationId());
+		Stop dstStop = rtePth.getStop(svc.getDestinationStop()
+				.getStationId());
+		if (ognStop == null || dstStop == null
+				|| rtePth.getVertexIndex(ognStop) > rtePth
+						.getVertexIndex(dstStop)) {
+			return null;
+		}
+
+		List<Stop> stps = rtePth.getStopsInBetween(ognStop, dstStop);
+		ArrayList<ServiceStop> oldStops = svc.getServiceStops();
+		boolean same = stps.size() == oldStops.size();
+		for (int index = 0; same && index < stps.size(); index++) {
+			same = stps.get(index) == oldStops.get(index).getStop();
+		}
+		if (same) {
+			return svc;
+		}
+
+		Service rebound = new Service(svc.getServiceId(), svc.getPeriod(),
+				ognStop, dstStop, rtePth, stps, getSystemObjects()
+						.getRidershipStore(), -1);
+		DataType[] dTypes = DataType.values();
+		for (ServiceStop svcStop : rebound.getServiceStops()) {
+			ServiceStop oldStop = svc.getServiceStop(svcStop.getStop()
+					.getStationId());
+			if (oldStop == null) {
+				continue;
+			}
+			for (DataType dType : dTypes) {
+				if (oldStop.hasData(dType)) {
+					svcStop.setDataValue(dType, oldStop.getDataValue(dType));
+				}
+			}
+		}
+		return rebound;
+	}
+
+	/**
+	 * Indexes the stops of the specified geometry by their station id. If a
+	 * station is visited more than once, only its first stop is indexed.
+	 * 
+	 * @param geom
+	 *            geometry of an existing path, or {@code null}
+	 * @return the stops of the geometry by station id.
+	 */
+	private static IntHashMap<Stop> getStopsById(PathGeometry geom) {
+		if (geom == null) {
+			return new IntHashMap<Stop>();
+		}
+		IntHashMap<Stop> stpsById = new IntHashMap<Stop>(geom.getNumStops());
+		for (int index = 0; index < geom.getNumStops(); index++) {
+			Stop st = geom.getStop(index);
+			if (!stpsById.containsKey(st.getStationId())) {
+				stpsById.put(st.getStationId(), st);
+			}
+		}
+		return stpsById;
+	}
+
+	/**
+	 * Route path staged by {@code processDataSets()} together with its new
+	 * geometry.
+	 * 
+	 * @author Sean Harger
+	 * 
+	 */
+	private static class StagedPath {
+		private final Route route;
+		private final RoutePath path;
+		private final boolean addToRoute; // new path of an existing route
+		private PathGeometry oldGeometry; // set in merge mode only
+		private PathGeometry geometry; // null if the path is unchanged
+
+		/**
+		 * Constructs a {@code StagedPath}.
+		 * 
+		 * @param rte
+		 *            route of the path
+		 * @param rtePth
+		 *            the path
+		 * @param addTRte
+		 *            {@code true} if the path must be added to an existing
+		 *            route when published
+		 */
+		public StagedPath(Route rte, RoutePath rtePth, boolean addTRte) {
+			route = rte;
+			path = rtePth;
+			addToRoute = addTRte;
 		}
 	}
 
@@ -146,6 +422,7 @@ public class RouteImport extends FileImport {
 		private int pathId;
 		private String pathName;
 		private ArrayList<ImportWayPoint> wayPoints;
+		private long checksum;
 
 		/**
 		 * Constructs a {@code WayPointSet}.
@@ -165,6 +442,7 @@ public class RouteImport extends FileImport {
 			pathId = pthId;
 			pathName = pthNm;
 			wayPoints = new ArrayList<ImportWayPoint>();
+			checksum = PathGeometry.EMPTY_CHECKSUM;
 		}
 
 		/**
@@ -211,6 +489,26 @@ public class RouteImport extends FileImport {
 		 */
 		public void addWayPoint(ImportWayPoint wp) {
 			wayPoints.add(wp);
+
+			int latE6 = PathGeometry.toMicrodegrees(wp.getLat());
+			int lonE6 = PathGeometry.toMicrodegrees(wp.getLon());
+			if (wp instanceof ImportStop) {
+				ImportStop st = (ImportStop) wp;
+				checksum = PathGeometry.updateChecksum(checksum, latE6, lonE6,
+						st.getStopId(), st.getName());
+			} else {
+				checksum = PathGeometry.updateChecksum(checksum, latE6, lonE6);
+			}
+		}
+
+		/**
+		 * Returns the checksum of the waypoints of this set, which matches
+		 * the checksum of a {@code PathGeometry} of the same waypoints.
+		 * 
+		 * @return the checksum of this set.
+		 */
+		public long getChecksum() {
+			return checksum;
 		}
 
 		/**
@@ -318,5 +616,24 @@ public class RouteImport extends FileImport {
 		public String getName() {
 			return name;
 		}
+
+		/**
+		 * Determines whether the specified {@code Stop} has the id, name,
+		 * and location of this stop, up to the precision of a
+		 * {@code PathGeometry}.
+		 * 
+		 * @param st
+		 *            existing stop to compare with
+		 * @return {@code true} if the stop can be kept for this one.
+		 */
+		public boolean isSameStop(Stop st) {
+			return st.getStationId() == stopId
+					&& (name == null ? st.getName() == null : name.equals(st
+							.getName()))
+					&& PathGeometry.toMicrodegrees(st.getLat()) == PathGeometry
+							.toMicrodegrees(getLat())
+					&& PathGeometry.toMicrodegrees(st.getLon()) == PathGeometry
+							.toMicrodegrees(getLon());
+		}
 	}
 }
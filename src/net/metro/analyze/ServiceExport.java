@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * MASS (Metro Analytics Software System) by Sean Harger
+ * is licensed under a Creative Commons Attribution-NonCommercial-ShareAlike 3.0
+ * United States License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by-nc-sa/3.0/us/.
+ ******************************************************************************/
+package net.metro.analyze;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.metro.systemobjects.Period;
+import net.metro.systemobjects.Route;
+import net.metro.systemobjects.RoutePath;
+import net.metro.systemobjects.Service;
+import net.metro.systemobjects.ServiceStop;
+import net.metro.systemobjects.SystemObjects;
+import net.metro.systemobjects.dataobjects.DataType;
+import net.metro.systemobjects.periodobjects.Day;
+import net.metro.systemobjects.periodobjects.TimePeriod;
+
+/**
+ * Extension of the {@code FileExport} class designed to export the services
+ * and rider data within MASS to an external {@code .csv} file in the layout
+ * read by {@code ServiceImport}, one line per {@code ServiceStop}. Lines are
+ * written while the routes are walked, so nothing is built ahead of the file.
+ * 
+ * Data missing from a {@code ServiceStop} is written as an empty field, which
+ * {@code ServiceImport} reads back as missing. Services whose period has no
+ * day or time period code in the service file are left out, and counted in
+ * the summary of the export.
+ * 
+ * @author Sean Harger
+ * 
+ */
+public class ServiceExport extends FileExport {
+	protected static final String[] fileHeaders = ServiceImport
+			.requiredFileHeaders;
+
+	private int skippedServices;
+
+	// day mask of each entry of ServiceImport.DAYS
+	private static final int[] DAY_MASKS = new int[ServiceImport.DAYS.length];
+
+	static {
+		for (int index = 0; index < DAY_MASKS.length; index++) {
+			for (Day dy : ServiceImport.DAYS[index]) {
+				DAY_MASKS[index] |= 1 << (dy.getSequence() - 1);
+			}
+		}
+	}
+
+	/**
+	 * Constructs a {@code ServiceExport}.
+	 * 
+	 * @param exptFl
+	 *            {@code File} to export data to.
+	 * @param objs
+	 *            {@code SystemObjects} database to extract data from.
+	 */
+	public ServiceExport(File exptFl, SystemObjects objs) {
+		super(exptFl, objs, ServiceExport.fileHeaders);
+		skippedServices = 0;
+	}
+
+	/**
+	 * Writes one line for every {@code ServiceStop} of every service, route by
+	 * route and path by path, formatting the numbers straight into the file.
+	 */
+	protected void writeData() throws IOException {
+		long totalLines = 0;
+		for (Route rte : getSystemObjects().getAllRoutes()) {
+			for (RoutePath rtePth : rte.getPaths()) {
+				for (Service svc : rtePth.getServices()) {
+					totalLines += svc.getNumServiceStops();
+				}
+			}
+		}
+
+		CsvWriter out = getWriter();
+		long linesWritten = 0;
+		skippedServices = 0;
+		for (Route rte : getSystemObjects().getAllRoutes()) {
+			for (RoutePath rtePth : rte.getPaths()) {
+				for (Service svc : rtePth.getServices()) {
+					int dayIndex = findDayCode(svc.getPeriod());
+					int tmPdIndex = findTimePeriodCode(svc.getPeriod());
+					if (dayIndex < 0 || tmPdIndex < 0) {
+						skippedServices++;
+						linesWritten += svc.getNumServiceStops();
+						continue;
+					}
+					int originId = svc.getOriginStop().getStationId();
+					int destinationId = svc.getDestinationStop()
+							.getStationId();
+					String dayCode = ServiceImport.DAY_CODES[dayIndex];
+					String tmPdCode = ServiceImport.TIME_PERIOD_CODES[tmPdIndex];
+
+					for (ServiceStop svcStop : svc.getServiceStops()) {
+						out.writeField(rte.getRouteId());
+						out.writeField(rtePth.getPathId());
+						out.writeField(svc.getServiceId());
+						out.writeField(originId);
+						out.writeField(destinationId);
+						out.writeField(dayCode);
+						out.writeField(tmPdCode);
+						out.writeField(svcStop.getStop().getStationId());
+						for (DataType dType : ServiceImport.DATA_TYPES) {
+							if (svcStop.hasData(dType)) {
+								out.writeField(svcStop.getDataValue(dType));
+							} else {
+								out.writeField((String) null);
+							}
+						}
+						out.endRecord();
+						reportProgress(++linesWritten, totalLines);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reports the services left out because their period has no code in the
+	 * service file.
+	 */
+	public String getExportSummary() {
+		if (skippedServices == 0) {
+			return null;
+		}
+		return skippedServices + " services were left out because their "
+				+ "period has no code in the service file.\n";
+	}
+
+	/**
+	 * Finds the day code of the service file for the days of the specified
+	 * period.
+	 * 
+	 * @param pd
+	 *            the period of a service
+	 * @return the index of the code in {@code ServiceImport.DAY_CODES}, or
+	 *         {@code -1} if there is none.
+	 */
+	private static int findDayCode(Period pd) {
+		for (int index = 0; index < DAY_MASKS.length; index++) {
+			if (DAY_MASKS[index] == pd.getDayMask()) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the time period code of the service file for the time period of
+	 * the specified period.
+	 * 
+	 * @param pd
+	 *            the period of a service
+	 * @return the index of the code in
+	 *         {@code ServiceImport.TIME_PERIOD_CODES}, or {@code -1} if there
+	 *         is none.
+	 */
+	private static int findTimePeriodCode(Period pd) {
+		TimePeriod[] tmPds = ServiceImport.TIME_PERIODS;
+		for (int index = 0; index < tmPds.length; index++) {
+			if (tmPds[index].equals(pd.getTimePeriod())) {
+				return index;
+			}
+		}
+		return -1;
+	}
+}
@@ -7,17 +7,18 @@
 package net.metro.analyze;
 
 import java.io.File;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 
 import net.metro.systemobjects.Period;
+import net.metro.systemobjects.RidershipStore;
 import net.metro.systemobjects.Route;
 import net.metro.systemobjects.RoutePath;
 import net.metro.systemobjects.Service;
 import net.metro.systemobjects.ServiceStop;
 import net.metro.systemobjects.Stop;
 import net.metro.systemobjects.SystemObjects;
-import net.metro.systemobjects.dataobjects.Alightings;
-import net.metro.systemobjects.dataobjects.Boardings;
-import net.metro.systemobjects.dataobjects.Load;
+import net.metro.systemobjects.dataobjects.DataType;
 import net.metro.systemobjects.periodobjects.Day;
 import net.metro.systemobjects.periodobjects.TimePeriod;
 
@@ -29,15 +30,39 @@ import net.metro.systemobjects.periodobjects.TimePeriod;
  * 
  */
 public class ServiceImport extends FileImport {
-	private static final long serialVersionUID = -3040048634866135038L;
-
 	protected static final String[] requiredFileHeaders = { "routeId",
 			"pathId", "serviceId", "origin", "destination", "days", "time",
 			"stopId", "boardings", "alightings", "load" };
 
+	// files smaller than this are imported sequentially in parallel mode,
+	// since splitting them costs more than it saves
+	private static final long PARALLEL_THRESHOLD = 1 << 22;
+
+	// day and time period specifiers used in import files, and the values
+	// they stand for
+	static final String[] DAY_CODES = { "WK", "SA", "SU" };
+	static final Day[][] DAYS = { Day.WEEKDAYS, Day.SATURDAYS, Day.SUNDAYS };
+	static final String[] TIME_PERIOD_CODES = { "EA", "AM", "BS", "PM", "NI" };
+	static final TimePeriod[] TIME_PERIODS = { TimePeriod.EARLY,
+			TimePeriod.MORNINGRUSH, TimePeriod.BASE, TimePeriod.EVENINGRUSH,
+			TimePeriod.LATE };
+
+	// fields of a service line holding the value of each data type, in the
+	// order of DATA_TYPES; an empty field means the value is missing
+	static final int[] DATA_FIELDS = { 8, 9, 10 };
+	static final DataType[] DATA_TYPES = { DataType.BOARDINGS,
+			DataType.ALIGHTINGS, DataType.LOAD };
+
 	private Route currentRoute;
 	private RoutePath currentRoutePath;
 	private Service currentService;
+	private boolean parallel;
+	private final int[] dataValues;
+
+	// services built by the import over rows of its own store, added to
+	// their paths and to the store of the database on publication
+	private ArrayList<Service> stagedServices;
+	private RidershipStore stagedStore;
 
 	/**
 	 * Constructs a {@code ServiceImport}.
@@ -47,16 +72,52 @@ public class ServiceImport extends FileImport {
 	 * @param objs
 	 *            {@code SystemObjects} to which the service data will be
 	 *            written
-	 * @param mnFrm
-	 *            reference to the {@code MainFrame} from which this
-	 *            {@code ServiceImport} was invoked
 	 */
-	public ServiceImport(File imptFl, SystemObjects objs, MainFrame mnFrm) {
-		super(imptFl, objs, requiredFileHeaders, mnFrm);
-		setTitle("Service Import");
+	public ServiceImport(File imptFl, SystemObjects objs) {
+		super(imptFl, objs, requiredFileHeaders);
 		currentRoute = null;
 		currentRoutePath = null;
 		currentService = null;
+		parallel = Runtime.getRuntime().availableProcessors() > 1;
+		dataValues = new int[DATA_FIELDS.length];
+		stagedServices = new ArrayList<Service>();
+		stagedStore = new RidershipStore();
+	}
+
+	/**
+	 * Sets whether large files are imported on all available processors. The
+	 * result of the import is the same in either mode. Parallel mode is on by
+	 * default on machines with more than one processor.
+	 * 
+	 * @param prll
+	 *            {@code true} to import in parallel
+	 */
+	public void setParallel(boolean prll) {
+		parallel = prll;
+	}
+
+	/**
+	 * Reads the service file, splitting it into chunks of whole services that
+	 * are imported on a fork/join pool if parallel mode is on and the file is
+	 * large enough.
+	 */
+	protected void readFile(FileChannel channel) throws Exception {
+		if (parallel && channel.size() >= PARALLEL_THRESHOLD) {
+			ParallelServiceImporter importer = new ParallelServiceImporter(
+					this, getSystemObjects(), Runtime.getRuntime()
+							.availableProcessors());
+			stagedServices.addAll(importer.importFile(channel, stagedStore));
+		} else {
+			super.readFile(channel);
+		}
+	}
+
+	/**
+	 * Decompresses compressed service files to a temporary file in parallel
+	 * mode, so that large ones are imported in parallel as well.
+	 */
+	protected boolean decompressesToFile() {
+		return parallel;
 	}
 
 	/**
@@ -66,48 +127,156 @@ public class ServiceImport extends FileImport {
 	 * created along with information about their days of operation, time
 	 * periods, and path. A series of {@code ServiceStops} will be placed in
 	 * each service which are the containers for all service-related data.
+	 * Empty data fields leave the value of their data type missing. Lines that
+	 * cannot be imported are rejected with their cause.
+	 */
+	protected void processLineData(CsvTokenizer record) {
+		if (!hasRequiredFields(record)) {
+			return;
+		}
+
+		int routeId = record.getInt(0);
+		int pathId = record.getInt(1);
+		int serviceId = record.getInt(2);
+		int originId = record.getInt(3);
+		int destinationId = record.getInt(4);
+		int stopId = record.getInt(7);
+		int present = readDataValues(record, dataValues);
+		if (rejectMalformed(record)) {
+			return;
+		}
+
+		if (currentRoute == null || currentRoutePath == null
+				|| currentRoute.getRouteId() != routeId
+				|| currentRoutePath.getPathId() != pathId) {
+			currentRoute = getSystemObjects().getRoute(routeId);
+			currentRoutePath = (currentRoute != null) ? currentRoute
+					.getRoutePath(pathId) : null;
+			currentService = null; // service ids are unique per path only
+			if (currentRoute == null) {
+				reject(record, ImportErrors.UNKNOWN_ROUTE, "route #", routeId);
+				return;
+			}
+			if (currentRoutePath == null) {
+				reject(record, ImportErrors.UNKNOWN_PATH, "path # of route #",
+						pathId, routeId);
+				return;
+			}
+		}
+
+		if (currentService == null
+				|| currentService.getServiceId() != serviceId) {
+			if (findCode(record, 5, DAY_CODES) < 0
+					|| findCode(record, 6, TIME_PERIOD_CODES) < 0) {
+				reject(record, ImportErrors.UNKNOWN_PERIOD, null);
+				return;
+			}
+			Period pd = interpretPeriod(record, 5, 6);
+			Stop ognStop = currentRoutePath.getStop(originId);
+			Stop dstStop = currentRoutePath.getStop(destinationId);
+			if (ognStop == null || dstStop == null) {
+				reject(record, ImportErrors.UNKNOWN_STOP,
+						"origin # or destination #", originId, destinationId);
+				return;
+			}
+			if (currentRoutePath.getVertexIndex(ognStop) > currentRoutePath
+					.getVertexIndex(dstStop)) {
+				reject(record, ImportErrors.INVALID_VALUE,
+						"origin # after destination #", originId,
+						destinationId);
+				return;
+			}
+			currentService = new Service(serviceId, pd, ognStop, dstStop,
+					currentRoutePath, stagedStore);
+			stagedServices.add(currentService);
+		}
+
+		ServiceStop currentServiceStop = currentService
+				.getServiceStop(stopId);
+		if (currentServiceStop == null) {
+			reject(record, ImportErrors.UNKNOWN_STOP, "stop # of service #",
+					stopId, serviceId);
+			return;
+		}
+		setDataValues(currentServiceStop, dataValues, 0, present);
+	}
+
+	/**
+	 * Reads the data values of the current line, in the order of
+	 * {@code DATA_TYPES}.
+	 * 
+	 * @param record
+	 *            tokenizer positioned on the line being processed
+	 * @param values
+	 *            array to store the values in; the values of empty fields
+	 *            are left as they are
+	 * @return a mask with bit {@code i} set if the value of
+	 *         {@code DATA_TYPES[i]} is present. Fields that are neither empty
+	 *         nor a number are reported by the tokenizer.
 	 */
-	protected void processLineData(String[] lineTokens) {
-		try {
-			int routeId = Integer.parseInt(lineTokens[0]);
-			int pathId = Integer.parseInt(lineTokens[1]);
-			int serviceId = Integer.parseInt(lineTokens[2]);
-			int originId = Integer.parseInt(lineTokens[3]);
-			int destinationId = Integer.parseInt(lineTokens[4]);
-			String days = new String(lineTokens[5]);
-			String time = new String(lineTokens[6]);
-			int stopId = Integer.parseInt(lineTokens[7]);
-			int board = Integer.parseInt(lineTokens[8]);
-			int alight = Integer.parseInt(lineTokens[9]);
-			int load = Integer.parseInt(lineTokens[10]);
-
-			if (currentRoute == null || currentRoutePath == null
-					|| currentRoute.getRouteId() != routeId
-					|| currentRoutePath.getPathId() != pathId) {
-				currentRoute = getSystemObjects().getRoute(routeId);
-				currentRoutePath = currentRoute.getRoutePath(pathId);
+	static int readDataValues(CsvTokenizer record, int[] values) {
+		int present = 0;
+		for (int index = 0; index < DATA_FIELDS.length; index++) {
+			if (!record.isEmpty(DATA_FIELDS[index])) {
+				values[index] = record.getInt(DATA_FIELDS[index]);
+				present |= 1 << index;
 			}
+		}
+		return present;
+	}
 
-			if (currentService == null
-					|| currentService.getServiceId() != serviceId) {
-				Period pd = interpretPeriod(days, time);
-				Stop ognStop = currentRoutePath.getStop(originId);
-				Stop dstStop = currentRoutePath.getStop(destinationId);
-				currentService = new Service(serviceId, pd, ognStop, dstStop,
-						currentRoutePath);
-				currentRoutePath.addService(currentService);
+	/**
+	 * Stores the data values read by {@code readDataValues()} in a
+	 * {@code ServiceStop}, skipping the missing ones.
+	 * 
+	 * @param svcStop
+	 *            the {@code ServiceStop} of the line
+	 * @param values
+	 *            array holding the values
+	 * @param offset
+	 *            index in {@code values} of the value of
+	 *            {@code DATA_TYPES[0]}
+	 * @param present
+	 *            mask of the values present
+	 */
+	static void setDataValues(ServiceStop svcStop, int[] values, int offset,
+			int present) {
+		for (int index = 0; index < DATA_TYPES.length; index++) {
+			if ((present & (1 << index)) != 0) {
+				svcStop.setDataValue(DATA_TYPES[index], values[offset + index]);
 			}
-			ServiceStop currentServiceStop = currentService
-					.getServiceStop(stopId);
-			System.out.println(currentServiceStop + "bd:" + board + "al:"
-					+ alight + "ld:" + load);
-			currentServiceStop.addData(new Boardings(board));
-			currentServiceStop.addData(new Alightings(alight));
-			currentServiceStop.addData(new Load(load));
-
-			System.out.println("Stop: " + stopId);
-		} catch (Exception ex) {
-			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * Publishes the imported services by adding each one to its route path,
+	 * in the order they were read.
+	 */
+	protected void publishDataSets() {
+		publishServices(getSystemObjects(), stagedStore, stagedServices);
+		stagedServices.clear();
+		stagedStore = new RidershipStore();
+	}
+
+	/**
+	 * Publishes services that an import built over the rows of a store of its
+	 * own. The rows are appended to the store of the database, and each
+	 * service is moved onto them and added to its route path, in order.
+	 * 
+	 * @param objs
+	 *            {@code SystemObjects} database to publish to
+	 * @param staged
+	 *            store holding the rows of the services, and no others
+	 * @param svcs
+	 *            the services, in the order of their rows
+	 */
+	static void publishServices(SystemObjects objs, RidershipStore staged,
+			ArrayList<Service> svcs) {
+		RidershipStore store = objs.getRidershipStore();
+		int rowOffset = store.addServices(staged);
+		for (Service svc : svcs) {
+			svc.moveRows(store, rowOffset);
+			svc.getRoutePath().addService(svc);
 		}
 	}
 
@@ -119,39 +288,42 @@ public class ServiceImport extends FileImport {
 	 * for mid-day (9:00 - 15:00), "PM" for evening rush (15:00 - 18:00), and
 	 * "NI' for late hours (18:00 - 24:00 ).
 	 * 
-	 * @param dys
-	 *            one of the default {@code String} specifiers for days, listed
-	 *            in the description
-	 * @param tm
-	 *            one of the default {@code String} specifiers for time periods,
-	 *            listed in the description
-	 * @return
+	 * @param record
+	 *            tokenizer positioned on the line being processed
+	 * @param dysField
+	 *            index of the field holding one of the default specifiers for
+	 *            days, listed in the description
+	 * @param tmField
+	 *            index of the field holding one of the default specifiers for
+	 *            time periods, listed in the description
+	 * @return the matching {@code Period}.
 	 */
-	private Period interpretPeriod(String dys, String tm) {
-		Day[] days = null;
-
-		if (dys.equals("WK")) {
-			days = Day.WEEKDAYS;
-		} else if (dys.equals("SA")) {
-			days = Day.SATURDAYS;
-		} else if (dys.equals("SU")) {
-			days = Day.SUNDAYS;
-		}
+	static Period interpretPeriod(CsvTokenizer record, int dysField,
+			int tmField) {
+		int dysIndex = findCode(record, dysField, DAY_CODES);
+		int tmIndex = findCode(record, tmField, TIME_PERIOD_CODES);
 
-		TimePeriod tmPd = null;
-
-		if (tm.equals("EA")) {
-			tmPd = TimePeriod.EARLY;
-		} else if (tm.equals("AM")) {
-			tmPd = TimePeriod.MORNINGRUSH;
-		} else if (tm.equals("BS")) {
-			tmPd = TimePeriod.BASE;
-		} else if (tm.equals("PM")) {
-			tmPd = TimePeriod.EVENINGRUSH;
-		} else if (tm.equals("NI")) {
-			tmPd = TimePeriod.LATE;
-		}
+		return Period.valueOf(dysIndex >= 0 ? DAYS[dysIndex] : null,
+				tmIndex >= 0 ? TIME_PERIODS[tmIndex] : null);
+	}
 
-		return new Period(days, tmPd);
+	/**
+	 * Finds which of the specified codes a field of the current line holds.
+	 * 
+	 * @param record
+	 *            tokenizer positioned on the line being processed
+	 * @param field
+	 *            index of the field holding the code
+	 * @param codes
+	 *            the possible codes, such as {@code DAY_CODES}
+	 * @return the index of the matching code, or {@code -1} if none matches.
+	 */
+	static int findCode(CsvTokenizer record, int field, String[] codes) {
+		for (int index = 0; index < codes.length; index++) {
+			if (record.fieldEquals(field, codes[index])) {
+				return index;
+			}
+		}
+		return -1;
 	}
 }
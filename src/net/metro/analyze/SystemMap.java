@@ -17,13 +17,13 @@ import java.awt.Stroke;
 import java.util.ArrayList;
 import java.util.List;
 
+import net.metro.systemobjects.PathGeometry;
 import net.metro.systemobjects.Route;
 import net.metro.systemobjects.RoutePath;
 import net.metro.systemobjects.Service;
 import net.metro.systemobjects.ServiceStop;
 import net.metro.systemobjects.Stop;
 import net.metro.systemobjects.WayPoint;
-import net.metro.systemobjects.dataobjects.Data;
 import net.metro.systemobjects.dataobjects.DataType;
 
 import org.openstreetmap.gui.jmapviewer.JMapViewer;
@@ -74,6 +74,13 @@ public class SystemMap extends JMapViewer implements MarkerListener {
 	private boolean isScaleFixed;
 	private int scaleMinValOverride;
 	private int scaleMaxValOverride;
+
+	// relative scale of the selected services, computed once per selection
+	// and recomputed when the data of the selected services changes
+	private int relativeMin;
+	private int relativeMax;
+	private boolean isRelativeScaleValid;
+	private long relativeScaleVersion;
 	private static final Color BACKGROUNDSTOPCOLOR = new Color(228, 228, 228);
 	private static final Color BACKGROUNDLINECOLOR = new Color(187, 187, 187);
 	private static final Color SELECTEDSTOPCOLOR = new Color(17, 177, 255);
@@ -111,6 +118,8 @@ public class SystemMap extends JMapViewer implements MarkerListener {
 		isScaleFixed = false;
 		scaleMinValOverride = -1;
 		scaleMaxValOverride = -1;
+		isRelativeScaleValid = false;
+		relativeScaleVersion = 0;
 		setUpColorScale();
 	}
 
@@ -189,8 +198,8 @@ public class SystemMap extends JMapViewer implements MarkerListener {
 	 * @return the relative minimum data value
 	 */
 	protected int getRelativeMin() {
-		return Service
-				.findMinData(getSelectedDataType(), getSelectedServices());
+		validateRelativeScale();
+		return relativeMin;
 	}
 
 	/**
@@ -200,8 +209,50 @@ public class SystemMap extends JMapViewer implements MarkerListener {
 	 * @return the relative maximum data value
 	 */
 	protected int getRelativeMax() {
-		return Service
-				.findMaxData(getSelectedDataType(), getSelectedServices());
+		validateRelativeScale();
+		return relativeMax;
+	}
+
+	/**
+	 * Recomputes the relative minimum and maximum data values if the selected
+	 * services, the data type, or the data of the selected services changed
+	 * since they were last computed.
+	 */
+	private void validateRelativeScale() {
+		long version = getSelectedDataVersion();
+		if (!isRelativeScaleValid || version != relativeScaleVersion) {
+			relativeMin = Service.findMinData(getSelectedDataType(),
+					getSelectedServices());
+			relativeMax = Service.findMaxData(getSelectedDataType(),
+					getSelectedServices());
+			relativeScaleVersion = version;
+			isRelativeScaleValid = true;
+		}
+	}
+
+	/**
+	 * Returns the sum of the modification counts of the selected services.
+	 * Modification counts only grow, so the sum changes whenever a data value
+	 * of a selected service is set.
+	 * 
+	 * @return the data version of the selected services.
+	 */
+	private long getSelectedDataVersion() {
+		long version = 0;
+		for (Service svc : getSelectedServices()) {
+			version += svc.getModCount();
+		}
+		return version;
+	}
+
+	/**
+	 * Discards the cached relative scale so that it is recomputed on the next
+	 * repaint. Must be called whenever the selected services, the selected
+	 * data type, or the routes change; edits of the data of the selected
+	 * services are detected through their modification counts.
+	 */
+	protected void invalidateRelativeScale() {
+		isRelativeScaleValid = false;
 	}
 
 	/**
@@ -339,6 +390,7 @@ public class SystemMap extends JMapViewer implements MarkerListener {
 	 */
 	protected void setViewableRoutes(ArrayList<Route> rtes) {
 		allRoutes = rtes;
+		invalidateRelativeScale();
 		repaint();
 	}
 
@@ -363,6 +415,7 @@ public class SystemMap extends JMapViewer implements MarkerListener {
 	 */
 	protected void setSelectedServices(ArrayList<Service> svcs) {
 		selectedServices = svcs;
+		invalidateRelativeScale();
 		repaint();
 	}
 
@@ -433,6 +486,7 @@ public class SystemMap extends JMapViewer implements MarkerListener {
 	 */
 	protected void setSelectedDataType(DataType typ) {
 		selectedDataType = typ;
+		invalidateRelativeScale();
 	}
 
 	/**
@@ -672,9 +726,10 @@ public class SystemMap extends JMapViewer implements MarkerListener {
 
 		for (int index = 0; index < svcStops.size(); index++) {
 
-			Data dt = svcStops.get(index).getData(dType);
-			if (dt != null) {
-				colors[index] = interpolateColor(dt.getValue(), minVal, maxVal);
+			ServiceStop svcStop = svcStops.get(index);
+			if (svcStop.hasData(dType)) {
+				colors[index] = interpolateColor(svcStop.getDataValue(dType),
+						minVal, maxVal);
 			} else {
 				colors[index] = SELECTEDSTOPCOLOR;
 			}
@@ -683,6 +738,43 @@ public class SystemMap extends JMapViewer implements MarkerListener {
 		return colors;
 	}
 
+	/**
+	 * Determines whether a series of {@code ServiceStop}s still matches the
+	 * stops of the path geometry from the first to the last vertex, one for
+	 * one and in order. This fails if stops were added to or removed from the
+	 * path since the service was built.
+	 * 
+	 * @param svcStops
+	 *            list of {@code ServiceStop}s of a service
+	 * @param geom
+	 *            geometry of the route path of the {@code ServiceStop}s
+	 * @param firstVertex
+	 *            vertex index of the first {@code ServiceStop}
+	 * @param lastVertex
+	 *            vertex index of the last {@code ServiceStop}
+	 * @return {@code true} if the service stops match the stops of the path.
+	 */
+	private static boolean isOnStops(List<ServiceStop> svcStops,
+			PathGeometry geom, int firstVertex, int lastVertex) {
+		if (svcStops.isEmpty()) {
+			return false;
+		}
+		int firstStop = geom.indexOfStop(svcStops.get(0).getStop());
+		int lastStop = firstStop + svcStops.size() - 1;
+		if (firstStop < 0 || lastStop >= geom.getNumStops()
+				|| geom.getStopVertex(firstStop) != firstVertex
+				|| geom.getStopVertex(lastStop) != lastVertex) {
+			return false;
+		}
+		for (int index = 1; index < svcStops.size(); index++) {
+			if (svcStops.get(index).getStop() != geom.getStop(firstStop
+					+ index)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Prepares an array of colors for a series of {@code ServiceStop}s. This
 	 * method is intended for "segment style" data that is to be painted between
@@ -691,9 +783,12 @@ public class SystemMap extends JMapViewer implements MarkerListener {
 	 * @param svcStops
 	 *            list of {@code ServieStop}s to prepare color representations
 	 *            for
-	 * @param wpts
-	 *            list of {@code WayPoint}s in between the list of
-	 *            {@code ServiceStop}s
+	 * @param geom
+	 *            geometry of the route path of the {@code ServiceStop}s
+	 * @param firstVertex
+	 *            vertex index of the first {@code ServiceStop}
+	 * @param lastVertex
+	 *            vertex index of the last {@code ServiceStop}
 	 * @param dType
 	 *            data type to extract from the {@code ServiceStop}s
 	 * @param minVal
@@ -704,14 +799,19 @@ public class SystemMap extends JMapViewer implements MarkerListener {
 	 *         {@code ServiceStop}s.
 	 */
 	private Color[] prepareConnectingLineColors(List<ServiceStop> svcStops,
-			List<WayPoint> wpts, DataType dType, int minVal, int maxVal) {
-		Color[] colors = new Color[wpts.size()];
-
-		for (int index = 0; index < svcStops.size(); index++) {
-			ServiceStop svcStop = svcStops.get(index);
-			int indexOfSvcStop = wpts.indexOf(svcStop.getStop());
-			int dtVal = svcStop.getData(dType).getValue();
-			colors[indexOfSvcStop] = interpolateColor(dtVal, minVal, maxVal);
+			PathGeometry geom, int firstVertex, int lastVertex,
+			DataType dType, int minVal, int maxVal) {
+		Color[] colors = new Color[lastVertex - firstVertex + 1];
+
+		// the service stops are the stops of the path between the first and
+		// last vertex, in order
+		int stopIndex = 0;
+		for (int vertex = firstVertex; vertex <= lastVertex; vertex++) {
+			if (geom.isStop(vertex)) {
+				int dtVal = svcStops.get(stopIndex++).getDataValue(dType);
+				colors[vertex - firstVertex] = interpolateColor(dtVal, minVal,
+						maxVal);
+			}
 		}
 
 		return colors;
@@ -756,7 +856,8 @@ public class SystemMap extends JMapViewer implements MarkerListener {
 			for (RoutePath rtePth : rte.getPaths()) {
 				if (!isSelectedRoutePath(rtePth) && !isSelectedService(rtePth)) {
 					try {
-						paintConnectingLines(g, rtePth.getWayPoints(),
+						PathGeometry geom = rtePth.getGeometry();
+						paintConnectingLines(g, geom, 0, geom.size() - 1,
 								BACKGROUNDLINEWIDTH, BACKGROUNDLINECOLOR);
 						paintStopMarkers(g, rtePth.getStops(),
 								BACKGROUNDSTOPCOLOR);
@@ -779,7 +880,8 @@ public class SystemMap extends JMapViewer implements MarkerListener {
 		for (RoutePath rtePth : selectedRoutePaths) {
 			if (!isSelectedService(rtePth)) {
 				try {
-					paintConnectingLines(g, rtePth.getWayPoints(),
+					PathGeometry geom = rtePth.getGeometry();
+					paintConnectingLines(g, geom, 0, geom.size() - 1,
 							SELECTEDLINEWIDTH, SELECTEDLINECOLOR);
 					paintStopMarkers(g, rtePth.getStops(), SELECTEDSTOPCOLOR);
 				} catch (Exception ex) {
@@ -806,16 +908,28 @@ public class SystemMap extends JMapViewer implements MarkerListener {
 	 */
 	private void paintSelectedServices(Graphics g, DataType dType) {
 		stopsWithData.clear();
+		int scaleMin = getScaleMin();
+		int scaleMax = getScaleMax();
 		for (Service svc : selectedServices) {
-			ArrayList<WayPoint> wpts = svc.getServicePath();
+			PathGeometry geom = svc.getRoutePath().getGeometry();
+			int firstVertex = svc.getPathStartVertex();
+			int lastVertex = svc.getPathEndVertex();
+			if (firstVertex < 0 || lastVertex < 0) {
+				// the path was edited and no longer contains the service
+				continue;
+			}
 			ArrayList<ServiceStop> svcStops = svc.getServiceStops();
+			if (!isOnStops(svcStops, geom, firstVertex, lastVertex)) {
+				// the stops of the path changed since the service was built
+				continue;
+			}
 
 			if (dType.getType() == DataType.POINT) {
 				Color[] colors = preparePointColors(svcStops, dType,
-						getScaleMin(), getScaleMax());
+						scaleMin, scaleMax);
 				try {
-					paintConnectingLines(g, wpts, POINTDATALINEWIDTH,
-							Color.BLACK);
+					paintConnectingLines(g, geom, firstVertex, lastVertex,
+							POINTDATALINEWIDTH, Color.BLACK);
 					paintStopMarkers(g, svc.getStops(), colors);
 					stopsWithData.addAll(svc.getStops());
 				} catch (Exception ex) {
@@ -823,12 +937,13 @@ public class SystemMap extends JMapViewer implements MarkerListener {
 				}
 			} else if (dType.getType() == DataType.SEGEMENT) {
 				Color[] lineColors = prepareConnectingLineColors(svcStops,
-						wpts, dType, getScaleMin(), getScaleMax());
+						geom, firstVertex, lastVertex, dType, scaleMin,
+						scaleMax);
 				Color[] pointColors = preparePointColors(svcStops, dType,
-						getScaleMin(), getScaleMax());
+						scaleMin, scaleMax);
 				try {
-					paintConnectingLines(g, wpts, SEGMENTDATALINEWIDTH,
-							lineColors);
+					paintConnectingLines(g, geom, firstVertex, lastVertex,
+							SEGMENTDATALINEWIDTH, lineColors);
 					paintStopMarkers(g, svc.getStops(), pointColors);
 					stopsWithData.addAll(svc.getStops());
 				} catch (Exception ex) {
@@ -839,34 +954,39 @@ public class SystemMap extends JMapViewer implements MarkerListener {
 	}
 
 	/**
-	 * Paints a route path according to a series of {@code WayPoint}s and a
+	 * Paints a portion of a route path according to its geometry and a
 	 * corresponding array of colors.
 	 * 
 	 * @param g
 	 *            {@code Graphics} variable
-	 * @param wayPoints
-	 *            series of WayPoints indicating the path of the route
+	 * @param geom
+	 *            geometry of the route path
+	 * @param firstVertex
+	 *            index of the first vertex to paint
+	 * @param lastVertex
+	 *            index of the last vertex to paint
 	 * @param lnWidth
 	 *            width of the connecting lines
 	 * @param colors
-	 *            array of {@code Color} values to paint the corresponding stops
-	 *            in the {@code WayPoint} list
+	 *            array of {@code Color} values for the lines leaving each
+	 *            vertex, starting at the first vertex; a {@code null} entry
+	 *            keeps the previous color
 	 * @throws Exception
 	 */
-	private void paintConnectingLines(Graphics g,
-			ArrayList<WayPoint> wayPoints, int lnWidth, Color[] colors)
+	private void paintConnectingLines(Graphics g, PathGeometry geom,
+			int firstVertex, int lastVertex, int lnWidth, Color[] colors)
 			throws Exception {
 		Graphics2D g2d = (Graphics2D) g;
 		Stroke originalStroke = g2d.getStroke();
 		g2d.setStroke(new BasicStroke(lnWidth));
 
 		Point prevPt = null;
-		for (int index = 0; index < wayPoints.size(); index++) {
-			WayPoint wpt = wayPoints.get(index);
-			Point pt = getMapPosition(wpt.getLat(), wpt.getLon(), false);
+		for (int vertex = firstVertex; vertex <= lastVertex; vertex++) {
+			Point pt = getMapPosition(geom.getLat(vertex), geom.getLon(vertex),
+					false);
 
 			if (prevPt != null) {
-				Color col = colors[index - 1];
+				Color col = colors[vertex - firstVertex - 1];
 				if (col != null) {
 					g.setColor(col);
 				}
@@ -879,27 +999,41 @@ public class SystemMap extends JMapViewer implements MarkerListener {
 	}
 
 	/**
-	 * Paints route path according to a series of {@code WayPoint}s in one
-	 * color.
+	 * Paints a portion of a route path according to its geometry in one color.
 	 * 
 	 * @param g
 	 *            {@code Graphics} variable
-	 * @param wayPoints
-	 *            series of WayPoints indicating the path of the route
+	 * @param geom
+	 *            geometry of the route path
+	 * @param firstVertex
+	 *            index of the first vertex to paint
+	 * @param lastVertex
+	 *            index of the last vertex to paint
 	 * @param lnWidth
 	 *            width of the connecting lines
 	 * @param color
 	 *            {@code Color} to paint the connecting lines between stops
 	 * @throws Exception
 	 */
-	private void paintConnectingLines(Graphics g,
-			ArrayList<WayPoint> wayPoints, int lnWidth, Color color)
+	private void paintConnectingLines(Graphics g, PathGeometry geom,
+			int firstVertex, int lastVertex, int lnWidth, Color color)
 			throws Exception {
-		Color[] colors = new Color[wayPoints.size()];
-		for (int index = 0; index < colors.length; index++) {
-			colors[index] = color;
+		Graphics2D g2d = (Graphics2D) g;
+		Stroke originalStroke = g2d.getStroke();
+		g2d.setStroke(new BasicStroke(lnWidth));
+		g.setColor(color);
+
+		Point prevPt = null;
+		for (int vertex = firstVertex; vertex <= lastVertex; vertex++) {
+			Point pt = getMapPosition(geom.getLat(vertex), geom.getLon(vertex),
+					false);
+			if (prevPt != null) {
+				g.drawLine(prevPt.x, prevPt.y, pt.x, pt.y);
+			}
+			prevPt = pt;
 		}
-		paintConnectingLines(g, wayPoints, lnWidth, colors);
+
+		g2d.setStroke(originalStroke);
 	}
 
 	/**
@@ -914,7 +1048,7 @@ public class SystemMap extends JMapViewer implements MarkerListener {
 	 *            array of corresponding {@code Color}s to paint stops with
 	 * @throws Exception
 	 */
-	private void paintStopMarkers(Graphics g, ArrayList<Stop> stops,
+	private void paintStopMarkers(Graphics g, List<Stop> stops,
 			Color[] colors) throws Exception {
 		for (int index = 0; index < stops.size(); index++) {
 			Stop st = stops.get(index);
@@ -944,7 +1078,7 @@ public class SystemMap extends JMapViewer implements MarkerListener {
 	 *            single {@code Color} to paint stops
 	 * @throws Exception
 	 */
-	private void paintStopMarkers(Graphics g, ArrayList<Stop> stops, Color color)
+	private void paintStopMarkers(Graphics g, List<Stop> stops, Color color)
 			throws Exception {
 		Color[] colors = new Color[stops.size()];
 		for (int index = 0; index < colors.length; index++) {
@@ -990,7 +1124,7 @@ public class SystemMap extends JMapViewer implements MarkerListener {
 				if (isStopWithData(st)) {
 					ServiceStop svcStop = findServiceStop(st);
 					DataType dType = getSelectedDataType();
-					int dataVal = svcStop.getData(dType).getValue();
+					int dataVal = svcStop.getDataValue(dType);
 					data = new String(dType.getName() + ": " + dataVal);
 				} else {
 					data = new String("No Data");
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * MASS (Metro Analytics Software System) by Sean Harger
+ * is licensed under a Creative Commons Attribution-NonCommercial-ShareAlike 3.0
+ * United States License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by-nc-sa/3.0/us/.
+ ******************************************************************************/
+package net.metro.systemobjects;
+
+/**
+ * Hash table that maps primitive {@code int} keys (route ids, stop ids, etc.)
+ * to objects. Unlike a {@code HashMap<Integer, V>}, keys are never boxed and
+ * entries are stored in two flat arrays using open addressing, so lookups do
+ * not allocate and do not chase entry objects. {@code null} values are not
+ * permitted.
+ * 
+ * @author Sean Harger
+ * 
+ * @param <V>
+ *            type of the values stored in the table
+ */
+public final class IntHashMap<V> {
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private int[] keys;
+	private Object[] values;
+	private int size;
+	private int mask;
+	private int resizeThreshold;
+
+	/**
+	 * Constructs an empty {@code IntHashMap}.
+	 */
+	public IntHashMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs an empty {@code IntHashMap} sized to hold the specified number
+	 * of entries without resizing.
+	 * 
+	 * @param expectedSize
+	 *            number of entries expected to be stored
+	 */
+	public IntHashMap(int expectedSize) {
+		int capacity = DEFAULT_CAPACITY;
+		while (capacity * 3 / 4 < expectedSize) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	/**
+	 * Returns the number of entries in this table.
+	 * 
+	 * @return the number of entries in this table.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Determines whether this table contains an entry for the specified key.
+	 * 
+	 * @param key
+	 *            key to look for
+	 * @return {@code true} if an entry exists for the specified key.
+	 */
+	public boolean containsKey(int key) {
+		return values[indexOf(key)] != null;
+	}
+
+	/**
+	 * Returns the value mapped to the specified key.
+	 * 
+	 * @param key
+	 *            key to look for
+	 * @return the mapped value or {@code null} if none is found.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		return (V) values[indexOf(key)];
+	}
+
+	/**
+	 * Maps the specified key to the specified value, replacing any existing
+	 * mapping.
+	 * 
+	 * @param key
+	 *            key of the entry
+	 * @param value
+	 *            value of the entry (may not be {@code null})
+	 * @return the previously mapped value or {@code null} if there was none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Null values are not permitted.");
+		}
+
+		int index = indexOf(key);
+		V previous = (V) values[index];
+		keys[index] = key;
+		values[index] = value;
+
+		if (previous == null && ++size > resizeThreshold) {
+			rehash(keys.length << 1);
+		}
+		return previous;
+	}
+
+	/**
+	 * Removes the entry for the specified key.
+	 * 
+	 * @param key
+	 *            key of the entry to remove
+	 * @return the removed value or {@code null} if there was none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int index = indexOf(key);
+		V previous = (V) values[index];
+		if (previous == null) {
+			return null;
+		}
+
+		values[index] = null;
+		size--;
+
+		// shift following entries of the probe chain back into the gap
+		int gap = index;
+		int next = (gap + 1) & mask;
+		while (values[next] != null) {
+			int home = slot(keys[next]);
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				values[gap] = values[next];
+				values[next] = null;
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		return previous;
+	}
+
+	/**
+	 * Removes all entries from this table.
+	 */
+	public void clear() {
+		for (int index = 0; index < values.length; index++) {
+			values[index] = null;
+		}
+		size = 0;
+	}
+
+	/**
+	 * Finds the slot holding the specified key, or the empty slot where it
+	 * would be inserted.
+	 * 
+	 * @param key
+	 *            key to look for
+	 * @return index of the slot in the backing arrays.
+	 */
+	private int indexOf(int key) {
+		int index = slot(key);
+		while (values[index] != null && keys[index] != key) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the preferred slot for the specified key.
+	 * 
+	 * @param key
+	 *            key to hash
+	 * @return the preferred slot for the key.
+	 */
+	private int slot(int key) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Allocates empty backing arrays of the specified capacity.
+	 * 
+	 * @param capacity
+	 *            power-of-two number of slots
+	 */
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		resizeThreshold = capacity * 3 / 4;
+	}
+
+	/**
+	 * Moves all entries into new backing arrays of the specified capacity.
+	 * 
+	 * @param capacity
+	 *            power-of-two number of slots
+	 */
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+
+		for (int index = 0; index < oldValues.length; index++) {
+			if (oldValues[index] != null) {
+				int newIndex = indexOf(oldKeys[index]);
+				keys[newIndex] = oldKeys[index];
+				values[newIndex] = oldValues[index];
+			}
+		}
+	}
+}
@@ -0,0 +1,418 @@
+/*******************************************************************************
+ * MASS (Metro Analytics Software System) by Sean Harger
+ * is licensed under a Creative Commons Attribution-NonCommercial-ShareAlike 3.0
+ * United States License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by-nc-sa/3.0/us/.
+ ******************************************************************************/
+package net.metro.systemobjects;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact storage for the vertices of a {@code RoutePath}. Coordinates are
+ * quantized to microdegrees (about 0.1 m) and kept in parallel {@code int}
+ * arrays, and a bitset flags which vertices are stops. Only {@code Stop}s are
+ * kept as objects; plain waypoints exist purely as array entries until
+ * {@code toWayPoints()} creates objects for them, so long shapes take a few
+ * bytes per vertex and can be walked without chasing references.
+ * 
+ * Vertices can only be appended. Edits in the middle of a path are made on the
+ * {@code WayPoint} list of the {@code RoutePath}, which then builds a new
+ * geometry.
+ * 
+ * @author Sean Harger
+ * 
+ */
+public final class PathGeometry {
+	/** Number of quantization steps per degree. */
+	public static final double MICRODEGREES = 1e6;
+
+	/** Checksum of a geometry without vertices. */
+	public static final long EMPTY_CHECKSUM = 0xCBF29CE484222325L;
+
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final long CHECKSUM_PRIME = 0x100000001B3L;
+
+	private int numPoints;
+	private int[] lats; // microdegrees
+	private int[] lons; // microdegrees
+	private long[] stopFlags; // bit set for each vertex that is a stop
+
+	private int numStops;
+	private Stop[] stops; // stops in path order
+	private int[] stopVertices; // vertex index of each stop
+
+	private long checksum;
+	private boolean checksumValid;
+
+	/**
+	 * Constructs an empty {@code PathGeometry}.
+	 */
+	public PathGeometry() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs an empty {@code PathGeometry} with room for the specified
+	 * number of vertices.
+	 * 
+	 * @param capacity
+	 *            number of vertices to allocate initially
+	 */
+	public PathGeometry(int capacity) {
+		capacity = Math.max(capacity, 1);
+		lats = new int[capacity];
+		lons = new int[capacity];
+		stopFlags = new long[(capacity + 63) >>> 6];
+		stops = new Stop[4];
+		stopVertices = new int[4];
+	}
+
+	/**
+	 * Builds a {@code PathGeometry} from a list of {@code WayPoint}s.
+	 * 
+	 * @param wpts
+	 *            waypoints of the path in order
+	 * @return the geometry of the waypoints.
+	 */
+	public static PathGeometry fromWayPoints(List<WayPoint> wpts) {
+		PathGeometry geom = new PathGeometry(wpts.size());
+		for (WayPoint wp : wpts) {
+			geom.add(wp);
+		}
+		return geom;
+	}
+
+	/**
+	 * Builds a {@code PathGeometry} over arrays of quantized vertices, as read
+	 * from a {@code SystemSnapshot}. The arrays are kept, not copied.
+	 * 
+	 * @param latsE6
+	 *            latitude of every vertex in microdegrees
+	 * @param lonsE6
+	 *            longitude of every vertex in microdegrees
+	 * @param stps
+	 *            stops of the path in order
+	 * @param stpVertices
+	 *            vertex index of each stop, in increasing order
+	 * @return the geometry of the vertices.
+	 */
+	static PathGeometry fromArrays(int[] latsE6, int[] lonsE6, Stop[] stps,
+			int[] stpVertices) {
+		PathGeometry geom = new PathGeometry();
+		if (latsE6.length > 0) {
+			geom.lats = latsE6;
+			geom.lons = lonsE6;
+			geom.stopFlags = new long[(latsE6.length + 63) >>> 6];
+			geom.numPoints = latsE6.length;
+		}
+		if (stps.length > 0) {
+			geom.stops = stps;
+			geom.stopVertices = stpVertices;
+			geom.numStops = stps.length;
+		}
+		for (int vertex : stpVertices) {
+			geom.stopFlags[vertex >>> 6] |= 1L << vertex;
+		}
+		return geom;
+	}
+
+	/**
+	 * Appends a plain waypoint at the specified location.
+	 * 
+	 * @param lat
+	 *            decimal latitude of the vertex
+	 * @param lon
+	 *            decimal longitude of the vertex
+	 */
+	public void add(double lat, double lon) {
+		append(lat, lon);
+	}
+
+	/**
+	 * Appends the specified {@code WayPoint}. {@code Stop}s are kept as
+	 * objects; for any other waypoint only the location is kept.
+	 * 
+	 * @param wpt
+	 *            {@code WayPoint} to append
+	 */
+	public void add(WayPoint wpt) {
+		int vertex = append(wpt.getLat(), wpt.getLon());
+		if (wpt instanceof Stop) {
+			if (numStops == stops.length) {
+				Stop[] newStops = new Stop[numStops << 1];
+				System.arraycopy(stops, 0, newStops, 0, numStops);
+				stops = newStops;
+				int[] newVertices = new int[numStops << 1];
+				System.arraycopy(stopVertices, 0, newVertices, 0, numStops);
+				stopVertices = newVertices;
+			}
+			stopFlags[vertex >>> 6] |= 1L << vertex;
+			stops[numStops] = (Stop) wpt;
+			stopVertices[numStops] = vertex;
+			numStops++;
+		}
+	}
+
+	/**
+	 * Returns a 64-bit checksum of the shape of this geometry, covering the
+	 * quantized location of every vertex and the id and name of every stop.
+	 * Two geometries with the same checksum are taken to be equal, which lets
+	 * an import recognize unchanged paths without building them. The checksum
+	 * is computed once and kept until a vertex is added.
+	 * 
+	 * @return the checksum of this geometry.
+	 */
+	public long getChecksum() {
+		if (!checksumValid) {
+			long sum = EMPTY_CHECKSUM;
+			int stopIndex = 0;
+			for (int vertex = 0; vertex < numPoints; vertex++) {
+				if (isStop(vertex)) {
+					Stop st = stops[stopIndex++];
+					sum = updateChecksum(sum, lats[vertex], lons[vertex],
+							st.getStationId(), st.getName());
+				} else {
+					sum = updateChecksum(sum, lats[vertex], lons[vertex]);
+				}
+			}
+			checksum = sum;
+			checksumValid = true;
+		}
+		return checksum;
+	}
+
+	/**
+	 * Adds a plain waypoint to a checksum started with
+	 * {@code EMPTY_CHECKSUM}, in the same way as {@code getChecksum()}.
+	 * 
+	 * @param sum
+	 *            checksum of the preceding vertices
+	 * @param latE6
+	 *            latitude of the waypoint in microdegrees
+	 * @param lonE6
+	 *            longitude of the waypoint in microdegrees
+	 * @return the checksum including the waypoint.
+	 */
+	public static long updateChecksum(long sum, int latE6, int lonE6) {
+		return mix(mix(mix(sum, 0), latE6), lonE6);
+	}
+
+	/**
+	 * Adds a stop to a checksum started with {@code EMPTY_CHECKSUM}, in the
+	 * same way as {@code getChecksum()}.
+	 * 
+	 * @param sum
+	 *            checksum of the preceding vertices
+	 * @param latE6
+	 *            latitude of the stop in microdegrees
+	 * @param lonE6
+	 *            longitude of the stop in microdegrees
+	 * @param stnId
+	 *            station id of the stop
+	 * @param nm
+	 *            name of the stop
+	 * @return the checksum including the stop.
+	 */
+	public static long updateChecksum(long sum, int latE6, int lonE6,
+			int stnId, String nm) {
+		sum = mix(mix(mix(sum, 1), latE6), lonE6);
+		return mix(mix(sum, stnId), (nm != null) ? nm.hashCode() : 0);
+	}
+
+	/**
+	 * Adds one value to a checksum. Each step is an FNV-1a round on the whole
+	 * value, followed by a shift that folds the high bits back into the low
+	 * ones.
+	 * 
+	 * @param sum
+	 *            the checksum so far
+	 * @param value
+	 *            value to add
+	 * @return the new checksum.
+	 */
+	private static long mix(long sum, int value) {
+		sum = (sum ^ (value & 0xFFFFFFFFL)) * CHECKSUM_PRIME;
+		return sum ^ (sum >>> 32);
+	}
+
+	/**
+	 * Quantizes a decimal coordinate to microdegrees, as done for every
+	 * vertex of a geometry.
+	 * 
+	 * @param deg
+	 *            decimal latitude or longitude
+	 * @return the coordinate in microdegrees.
+	 */
+	public static int toMicrodegrees(double deg) {
+		return (int) Math.round(deg * MICRODEGREES);
+	}
+
+	/**
+	 * Returns the number of vertices in this geometry.
+	 * 
+	 * @return the number of vertices.
+	 */
+	public int size() {
+		return numPoints;
+	}
+
+	/**
+	 * Returns the decimal latitude of the specified vertex.
+	 * 
+	 * @param vertex
+	 *            index of the vertex
+	 * @return the decimal latitude of the vertex.
+	 */
+	public double getLat(int vertex) {
+		return lats[vertex] / MICRODEGREES;
+	}
+
+	/**
+	 * Returns the decimal longitude of the specified vertex.
+	 * 
+	 * @param vertex
+	 *            index of the vertex
+	 * @return the decimal longitude of the vertex.
+	 */
+	public double getLon(int vertex) {
+		return lons[vertex] / MICRODEGREES;
+	}
+
+	/**
+	 * Returns the latitude of the specified vertex in microdegrees.
+	 * 
+	 * @param vertex
+	 *            index of the vertex
+	 * @return the latitude of the vertex in microdegrees.
+	 */
+	public int getLatE6(int vertex) {
+		return lats[vertex];
+	}
+
+	/**
+	 * Returns the longitude of the specified vertex in microdegrees.
+	 * 
+	 * @param vertex
+	 *            index of the vertex
+	 * @return the longitude of the vertex in microdegrees.
+	 */
+	public int getLonE6(int vertex) {
+		return lons[vertex];
+	}
+
+	/**
+	 * Determines whether the specified vertex is a stop.
+	 * 
+	 * @param vertex
+	 *            index of the vertex
+	 * @return {@code true} if the vertex is a stop.
+	 */
+	public boolean isStop(int vertex) {
+		return (stopFlags[vertex >>> 6] & (1L << vertex)) != 0;
+	}
+
+	/**
+	 * Returns the number of stops in this geometry.
+	 * 
+	 * @return the number of stops.
+	 */
+	public int getNumStops() {
+		return numStops;
+	}
+
+	/**
+	 * Returns the stop at the specified position among the stops of this
+	 * geometry.
+	 * 
+	 * @param stopIndex
+	 *            position of the stop, counting stops only
+	 * @return the {@code Stop} at that position.
+	 */
+	public Stop getStop(int stopIndex) {
+		return stops[stopIndex];
+	}
+
+	/**
+	 * Returns the vertex index of the stop at the specified position among the
+	 * stops of this geometry.
+	 * 
+	 * @param stopIndex
+	 *            position of the stop, counting stops only
+	 * @return the vertex index of that stop.
+	 */
+	public int getStopVertex(int stopIndex) {
+		return stopVertices[stopIndex];
+	}
+
+	/**
+	 * Finds the position of the specified {@code Stop} among the stops of this
+	 * geometry. Stops are compared by identity.
+	 * 
+	 * @param st
+	 *            {@code Stop} to look for
+	 * @return the position of the stop or {@code -1} if it is not part of this
+	 *         geometry.
+	 */
+	public int indexOfStop(Stop st) {
+		for (int index = 0; index < numStops; index++) {
+			if (stops[index] == st) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Creates the {@code WayPoint} objects for this geometry, reusing the
+	 * existing {@code Stop} objects.
+	 * 
+	 * @param rtePth
+	 *            {@code RoutePath} that the new waypoints belong to
+	 * @return list of the waypoints in order.
+	 */
+	public ArrayList<WayPoint> toWayPoints(RoutePath rtePth) {
+		ArrayList<WayPoint> wpts = new ArrayList<WayPoint>(numPoints);
+		int stopIndex = 0;
+		for (int vertex = 0; vertex < numPoints; vertex++) {
+			if (isStop(vertex)) {
+				wpts.add(stops[stopIndex++]);
+			} else {
+				wpts.add(new WayPoint(rtePth, getLat(vertex), getLon(vertex)));
+			}
+		}
+		return wpts;
+	}
+
+	/**
+	 * Appends a vertex at the specified location, growing the arrays if
+	 * needed.
+	 * 
+	 * @param lat
+	 *            decimal latitude of the vertex
+	 * @param lon
+	 *            decimal longitude of the vertex
+	 * @return the index of the new vertex.
+	 */
+	private int append(double lat, double lon) {
+		if (numPoints == lats.length) {
+			int capacity = numPoints << 1;
+			int[] newLats = new int[capacity];
+			System.arraycopy(lats, 0, newLats, 0, numPoints);
+			lats = newLats;
+			int[] newLons = new int[capacity];
+			System.arraycopy(lons, 0, newLons, 0, numPoints);
+			lons = newLons;
+			long[] newFlags = new long[(capacity + 63) >>> 6];
+			System.arraycopy(stopFlags, 0, newFlags, 0, stopFlags.length);
+			stopFlags = newFlags;
+		}
+
+		int vertex = numPoints++;
+		lats[vertex] = toMicrodegrees(lat);
+		lons[vertex] = toMicrodegrees(lon);
+		checksumValid = false;
+		return vertex;
+	}
+}
@@ -8,7 +8,7 @@ package net.metro.systemobjects;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
+import java.util.HashMap;
 
 import net.metro.systemobjects.periodobjects.Day;
 import net.metro.systemobjects.periodobjects.TimePeriod;
@@ -20,100 +20,109 @@ import net.metro.systemobjects.periodobjects.TimePeriod;
  * 
  */
 public final class Period implements Comparable<Period> {
+	// registry of canonical periods, keyed by day mask and time period ordinal
+	private static final HashMap<Integer, Period> registry = new HashMap<Integer, Period>();
+	private static final ArrayList<Period> byOrdinal = new ArrayList<Period>();
+
 	/**
 	 * Constant {@code Period} for Weekdays during 0:00 - 6:00.
 	 */
-	public static final Period WEEKDAY_EARLY = new Period(Day.WEEKDAYS,
+	public static final Period WEEKDAY_EARLY = Period.valueOf(Day.WEEKDAYS,
 			TimePeriod.EARLY);
 
 	/**
 	 * Constant {@code Period} for Weekdays during 6:00 - 9:00.
 	 */
-	public static final Period WEEKDAY_MORNINGRUSH = new Period(Day.WEEKDAYS,
-			TimePeriod.MORNINGRUSH);
+	public static final Period WEEKDAY_MORNINGRUSH = Period.valueOf(
+			Day.WEEKDAYS, TimePeriod.MORNINGRUSH);
 
 	/**
 	 * Constant {@code Period} for Weekdays during 9:00 - 15:00.
 	 */
-	public static final Period WEEKDAY_BASE = new Period(Day.WEEKDAYS,
+	public static final Period WEEKDAY_BASE = Period.valueOf(Day.WEEKDAYS,
 			TimePeriod.BASE);
 
 	/**
 	 * Constant {@code Period} for Weekdays during 15:00 - 18:00.
 	 */
-	public static final Period WEEKDAY_EVENINGRUSH = new Period(Day.WEEKDAYS,
-			TimePeriod.EVENINGRUSH);
+	public static final Period WEEKDAY_EVENINGRUSH = Period.valueOf(
+			Day.WEEKDAYS, TimePeriod.EVENINGRUSH);
 
 	/**
 	 * Constant {@code Period} for Weekdays during 18:00 - 24:00.
 	 */
-	public static final Period WEEKDAY_LATE = new Period(Day.WEEKDAYS,
+	public static final Period WEEKDAY_LATE = Period.valueOf(Day.WEEKDAYS,
 			TimePeriod.EVENINGRUSH);
 
 	/**
 	 * Constant {@code Period} for Saturdays during 0:00 - 6:00.
 	 */
-	public static final Period SATURDAY = new Period(Day.SATURDAY,
+	public static final Period SATURDAY = Period.valueOf(Day.SATURDAY,
 			TimePeriod.EARLY);
 
 	/**
 	 * Constant {@code Period} for Saturdays during 6:00 - 9:00.
 	 */
-	public static final Period SATURDAY_MORNINGRUSH = new Period(Day.SATURDAY,
-			TimePeriod.MORNINGRUSH);
+	public static final Period SATURDAY_MORNINGRUSH = Period.valueOf(
+			Day.SATURDAY, TimePeriod.MORNINGRUSH);
 
 	/**
 	 * Constant {@code Period} for Saturdays during 9:00 - 15:00.
 	 */
-	public static final Period SATURDAY_BASE = new Period(Day.SATURDAY,
+	public static final Period SATURDAY_BASE = Period.valueOf(Day.SATURDAY,
 			TimePeriod.BASE);
 
 	/**
 	 * Constant {@code Period} for Saturdays during 15:00 - 18:00.
 	 */
-	public static final Period SATURDAY_EVENINGRUSH = new Period(Day.SATURDAY,
-			TimePeriod.EVENINGRUSH);
+	public static final Period SATURDAY_EVENINGRUSH = Period.valueOf(
+			Day.SATURDAY, TimePeriod.EVENINGRUSH);
 
 	/**
 	 * Constant {@code Period} for Saturdays during 18:00 - 24:00.
 	 */
-	public static final Period SATURDAY_LATE = new Period(Day.SATURDAY,
+	public static final Period SATURDAY_LATE = Period.valueOf(Day.SATURDAY,
 			TimePeriod.EVENINGRUSH);
 
 	/**
 	 * Constant {@code Period} for Sundays during 0:00 - 6:00.
 	 */
-	public static final Period SUNDAY = new Period(Day.SUNDAY, TimePeriod.EARLY);
+	public static final Period SUNDAY = Period.valueOf(Day.SUNDAY,
+			TimePeriod.EARLY);
 
 	/**
 	 * Constant {@code Period} for Sundays during 6:00 - 9:00.
 	 */
-	public static final Period SUNDAY_MORNINGRUSH = new Period(Day.SUNDAY,
+	public static final Period SUNDAY_MORNINGRUSH = Period.valueOf(Day.SUNDAY,
 			TimePeriod.MORNINGRUSH);
 
 	/**
 	 * Constant {@code Period} for Sundays during 9:00 - 15:00.
 	 */
-	public static final Period SUNDAY_BASE = new Period(Day.SUNDAY,
+	public static final Period SUNDAY_BASE = Period.valueOf(Day.SUNDAY,
 			TimePeriod.BASE);
 
 	/**
 	 * Constant {@code Period} for Sundays during 15:00 - 18:00.
 	 */
-	public static final Period SUNDAY_EVENINGRUSH = new Period(Day.SUNDAY,
+	public static final Period SUNDAY_EVENINGRUSH = Period.valueOf(Day.SUNDAY,
 			TimePeriod.EVENINGRUSH);
 
 	/**
 	 * Constant {@code Period} for Sundays during 18:00 - 24:00.
 	 */
-	public static final Period SUNDAY_LATE = new Period(Day.SUNDAY,
+	public static final Period SUNDAY_LATE = Period.valueOf(Day.SUNDAY,
 			TimePeriod.EVENINGRUSH);
 
 	private ArrayList<Day> days;
 	private TimePeriod timePd;
+	private int dayMask;
+	private int ordinal;
 
 	/**
-	 * Constructs a {@code Period}.
+	 * Constructs a {@code Period}. The new object is equal to, and shares its
+	 * ordinal with, the canonical {@code Period} returned by
+	 * {@code valueOf()} for the same arguments, which should be preferred.
 	 * 
 	 * @param dy
 	 *            array of {@code Day}s to identify the period
@@ -121,12 +130,13 @@ public final class Period implements Comparable<Period> {
 	 *            {@code TimePeriod} to identify the period
 	 */
 	public Period(Day[] dy, TimePeriod pd) {
-		days = new ArrayList<Day>(Arrays.asList(dy));
-		timePd = pd;
+		this(dy, pd, valueOf(dy, pd).getOrdinal());
 	}
 
 	/**
-	 * Constructs a {@code Period}
+	 * Constructs a {@code Period}. The new object is equal to, and shares its
+	 * ordinal with, the canonical {@code Period} returned by
+	 * {@code valueOf()} for the same arguments, which should be preferred.
 	 * 
 	 * @param dy
 	 *            one {@code Day} to identify the period
@@ -134,9 +144,97 @@ public final class Period implements Comparable<Period> {
 	 *            {@code TimePeriod} to identify the period
 	 */
 	public Period(Day dy, TimePeriod pd) {
-		days = new ArrayList<Day>();
-		days.add(dy);
-		timePd = pd;
+		this(new Day[] { dy }, pd);
+	}
+
+	/**
+	 * Constructs a {@code Period} with the specified ordinal.
+	 * 
+	 * @param dy
+	 *            array of {@code Day}s to identify the period
+	 * @param pd
+	 *            {@code TimePeriod} to identify the period
+	 * @param ord
+	 *            ordinal of the canonical period
+	 */
+	private Period(Day[] dy, TimePeriod pd, int ord) {
+		days = new ArrayList<Day>(Arrays.asList(dy));
+		timePd = TimePeriod.valueOf(pd);
+		dayMask = toDayMask(dy);
+		ordinal = ord;
+	}
+
+	/**
+	 * Returns the canonical {@code Period} for the specified days and time
+	 * period, creating and registering it if necessary. Canonical periods are
+	 * numbered densely in order of registration.
+	 * 
+	 * @param dy
+	 *            array of {@code Day}s to identify the period
+	 * @param pd
+	 *            {@code TimePeriod} to identify the period
+	 * @return the canonical {@code Period}.
+	 */
+	public static synchronized Period valueOf(Day[] dy, TimePeriod pd) {
+		int tmOrd = pd.getOrdinal();
+		Integer key = Integer.valueOf(toDayMask(dy) | (tmOrd << 7));
+		Period period = registry.get(key);
+		if (period == null) {
+			period = new Period(dy, pd, byOrdinal.size());
+			registry.put(key, period);
+			byOrdinal.add(period);
+		}
+		return period;
+	}
+
+	/**
+	 * Returns the canonical {@code Period} for the specified day and time
+	 * period.
+	 * 
+	 * @param dy
+	 *            one {@code Day} to identify the period
+	 * @param pd
+	 *            {@code TimePeriod} to identify the period
+	 * @return the canonical {@code Period}.
+	 */
+	public static Period valueOf(Day dy, TimePeriod pd) {
+		return valueOf(new Day[] { dy }, pd);
+	}
+
+	/**
+	 * Returns the canonical {@code Period} with the specified ordinal.
+	 * 
+	 * @param ord
+	 *            ordinal of the period
+	 * @return the canonical {@code Period} with the specified ordinal.
+	 */
+	public static synchronized Period fromOrdinal(int ord) {
+		return byOrdinal.get(ord);
+	}
+
+	/**
+	 * Returns the number of canonical periods registered so far.
+	 * 
+	 * @return the number of canonical periods.
+	 */
+	public static synchronized int count() {
+		return byOrdinal.size();
+	}
+
+	/**
+	 * Converts the specified days into a bitmask in which bit {@code n} is set
+	 * for the day with sequence {@code n + 1}.
+	 * 
+	 * @param dys
+	 *            days to convert
+	 * @return the day bitmask.
+	 */
+	private static int toDayMask(Day[] dys) {
+		int mask = 0;
+		for (Day d : dys) {
+			mask |= 1 << (d.getSequence() - 1);
+		}
+		return mask;
 	}
 
 	/**
@@ -149,40 +247,44 @@ public final class Period implements Comparable<Period> {
 	}
 
 	/**
-	 * Returns the minimum sequence value in a specified list of {@code Day}s.
+	 * Returns the bitmask of the {@code Day}s that identify this
+	 * {@code Period}. Bit {@code n} is set for the day with sequence
+	 * {@code n + 1}.
 	 * 
-	 * @param dys
-	 *            list of {@code Day}s to search for minimum sequence value
-	 * @return minimum day sequence value or {@code -1} if none found
+	 * @return the day bitmask of this {@code Period}.
 	 */
-	private static int getMaxDaySeq(List<Day> dys) {
-		int maxDaySeq = -1;
-		for (Day d : dys) {
-			int dySeq = d.getSequence();
-			if (dySeq > maxDaySeq) {
-				maxDaySeq = dySeq;
-			}
-		}
-		return maxDaySeq;
+	public int getDayMask() {
+		return dayMask;
 	}
 
 	/**
-	 * Returns the maximum sequence value in a specified list of {@code Day}s.
+	 * Returns the ordinal of this {@code Period}. Ordinals are dense, starting
+	 * at {@code 0}, and may be used as array indices.
+	 * 
+	 * @return the ordinal of this {@code Period}.
+	 */
+	public int getOrdinal() {
+		return ordinal;
+	}
+
+	/**
+	 * Returns the minimum day sequence value in this period.
 	 * 
-	 * @param dys
-	 *            list of {@code Day}s to search for maximum sequence value
 	 * @return minimum day sequence value or {@code Integer.MAX_VALUE} if none
 	 *         found
 	 */
-	private static int getMinDaySeq(List<Day> dys) {
-		int minDaySeq = Integer.MAX_VALUE;
-		for (Day d : dys) {
-			int dySeq = d.getSequence();
-			if (dySeq < minDaySeq) {
-				minDaySeq = dySeq;
-			}
-		}
-		return minDaySeq;
+	private int getMinDaySeq() {
+		return dayMask == 0 ? Integer.MAX_VALUE : Integer
+				.numberOfTrailingZeros(dayMask) + 1;
+	}
+
+	/**
+	 * Returns the maximum day sequence value in this period.
+	 * 
+	 * @return maximum day sequence value or {@code -1} if none found
+	 */
+	private int getMaxDaySeq() {
+		return dayMask == 0 ? -1 : 32 - Integer.numberOfLeadingZeros(dayMask);
 	}
 
 	/**
@@ -195,19 +297,36 @@ public final class Period implements Comparable<Period> {
 	}
 
 	/**
-	 * Determines whether two Periods are equal using the {@code compareTo()}
-	 * method.
+	 * Determines whether two Periods are equal, meaning that they have the
+	 * same days and time period.
 	 * 
 	 * @param pd
 	 *            {@code Period} to compare this one with
 	 * @return {@code true} if the two {@code Period}s are equal.
 	 */
 	public boolean equals(Period pd) {
-		if (this.compareTo(pd) == 0) {
-			return true;
-		} else {
-			return false;
-		}
+		return pd != null && this.ordinal == pd.ordinal;
+	}
+
+	/**
+	 * Determines whether the specified object is a {@code Period} equal to
+	 * this one.
+	 * 
+	 * @param obj
+	 *            object to compare this one with
+	 * @return {@code true} if the object is an equal {@code Period}.
+	 */
+	public boolean equals(Object obj) {
+		return obj instanceof Period && equals((Period) obj);
+	}
+
+	/**
+	 * Returns a hash code consistent with {@code equals()}.
+	 * 
+	 * @return a hash code for this {@code Period}.
+	 */
+	public int hashCode() {
+		return ordinal;
 	}
 
 	/**
@@ -222,14 +341,19 @@ public final class Period implements Comparable<Period> {
 	 *         negative integer if the passed period lies outside of this period
 	 */
 	public int compareTo(Period pd) {
-		int thisMinDay = getMinDaySeq(this.days);
-		int thisMaxDay = getMaxDaySeq(this.days);
-		int sentMinDay = getMinDaySeq(pd.getDays());
-		int sentMaxDay = getMaxDaySeq(pd.getDays());
+		if (this.ordinal == pd.ordinal) {
+			return 0;
+		}
+
+		int thisMinDay = this.getMinDaySeq();
+		int thisMaxDay = this.getMaxDaySeq();
+		int sentMinDay = pd.getMinDaySeq();
+		int sentMaxDay = pd.getMaxDaySeq();
 
 		if (thisMinDay == sentMinDay && thisMaxDay == sentMaxDay) {
 			TimePeriod sentTimePd = pd.getTimePeriod();
-			return this.timePd.compareTo(sentTimePd);
+			int tmCompare = this.timePd.compareTo(sentTimePd);
+			return tmCompare != 0 ? tmCompare : -1; // different days
 		} else if (sentMinDay < thisMinDay && sentMaxDay > thisMaxDay) {
 			return 1;
 		} else {
@@ -0,0 +1,413 @@
+/*******************************************************************************
+ * MASS (Metro Analytics Software System) by Sean Harger
+ * is licensed under a Creative Commons Attribution-NonCommercial-ShareAlike 3.0
+ * United States License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by-nc-sa/3.0/us/.
+ ******************************************************************************/
+package net.metro.systemobjects;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.metro.systemobjects.dataobjects.DataType;
+
+/**
+ * Columnar storage for the rider data of all {@code Service}s in a
+ * {@code SystemObjects} database. Each {@code ServiceStop} is one row, and the
+ * rows of a {@code Service} are allocated contiguously in stop order. Columns
+ * are dense {@code int} arrays: the service index, the stop id, and one value
+ * column per {@code DataType}, plus a small bitmask per row recording which
+ * data types are present. {@code Service} and {@code ServiceStop} objects are
+ * views over these rows.
+ * 
+ * Rows are never reused, so the rows of a removed {@code Service} remain
+ * allocated until {@code retainServices()} compacts the store. Imports
+ * therefore build their services in a store of their own and append its rows
+ * with {@code addServices()} when they are published, which also keeps the
+ * store of a database from being written by any thread but the one that owns
+ * the database.
+ * 
+ * @author Sean Harger
+ * 
+ */
+public class RidershipStore {
+	private static final int DEFAULT_CAPACITY = 256;
+
+	private int numRows;
+	private int numServices;
+
+	private int[] serviceIndices;
+	private int[] stopIds;
+	private int[][] dataValues; // indexed by DataType ordinal, then row
+	private byte[] dataPresent;
+
+	/**
+	 * Constructs an empty {@code RidershipStore}.
+	 */
+	public RidershipStore() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs an empty {@code RidershipStore} with room for the specified
+	 * number of rows.
+	 * 
+	 * @param capacity
+	 *            number of rows to allocate initially
+	 */
+	public RidershipStore(int capacity) {
+		capacity = Math.max(capacity, 1);
+		serviceIndices = new int[capacity];
+		stopIds = new int[capacity];
+		dataValues = new int[DataType.count()][capacity];
+		dataPresent = new byte[capacity];
+	}
+
+	/**
+	 * Allocates contiguous rows for a new service, one per stop id.
+	 * 
+	 * @param stpIds
+	 *            stop ids of the service's stops in order
+	 * @return the first row allocated to the service.
+	 */
+	public synchronized int addService(int[] stpIds) {
+		ensureCapacity(numRows + stpIds.length);
+
+		int firstRow = numRows;
+		int svcIndex = numServices++;
+		for (int index = 0; index < stpIds.length; index++) {
+			serviceIndices[firstRow + index] = svcIndex;
+			stopIds[firstRow + index] = stpIds[index];
+		}
+		numRows += stpIds.length;
+		return firstRow;
+	}
+
+	/**
+	 * Appends the rows of several services at once, as read from a
+	 * {@code SystemSnapshot}. The rows of each service follow those of the
+	 * previous one.
+	 * 
+	 * @param svcRows
+	 *            number of rows of each new service
+	 * @param stpIds
+	 *            stop id of every new row
+	 * @param values
+	 *            value of every new row, indexed by {@code DataType} ordinal
+	 *            and then by row
+	 * @param present
+	 *            bitmask of the data types present in every new row
+	 * @return the first row allocated to the first service.
+	 */
+	synchronized int addServices(int[] svcRows, int[] stpIds, int[][] values,
+			byte[] present) {
+		int count = stpIds.length;
+		ensureCapacity(numRows + count);
+
+		int firstRow = numRows;
+		int row = firstRow;
+		for (int svc = 0; svc < svcRows.length; svc++) {
+			int svcIndex = numServices++;
+			for (int end = row + svcRows[svc]; row < end; row++) {
+				serviceIndices[row] = svcIndex;
+			}
+		}
+		System.arraycopy(stpIds, 0, stopIds, firstRow, count);
+		for (int ord = 0; ord < dataValues.length; ord++) {
+			System.arraycopy(values[ord], 0, dataValues[ord], firstRow, count);
+		}
+		System.arraycopy(present, 0, dataPresent, firstRow, count);
+		numRows += count;
+		return firstRow;
+	}
+
+	/**
+	 * Appends all rows of another store, such as the one an import built its
+	 * services in. The services of the other store follow those of this store
+	 * in the same order.
+	 * 
+	 * @param staged
+	 *            store whose rows are copied, which is left unchanged
+	 * @return the row that the first row of {@code staged} was copied to.
+	 */
+	public synchronized int addServices(RidershipStore staged) {
+		int count = staged.numRows;
+		ensureCapacity(numRows + count);
+
+		int firstRow = numRows;
+		for (int row = 0; row < count; row++) {
+			serviceIndices[firstRow + row] = numServices
+					+ staged.serviceIndices[row];
+		}
+		System.arraycopy(staged.stopIds, 0, stopIds, firstRow, count);
+		for (int ord = 0; ord < dataValues.length; ord++) {
+			System.arraycopy(staged.dataValues[ord], 0, dataValues[ord],
+					firstRow, count);
+		}
+		System.arraycopy(staged.dataPresent, 0, dataPresent, firstRow, count);
+		numRows += count;
+		numServices += staged.numServices;
+		return firstRow;
+	}
+
+	/**
+	 * Drops the rows of every service but the specified ones, and moves those
+	 * services onto the remaining rows in the order given. Services kept in
+	 * other stores are ignored. A service of this store that is not listed
+	 * can no longer be read, unless it was detached with
+	 * {@code Service.detachRows()} first.
+	 * 
+	 * @param svcs
+	 *            the services whose rows are kept
+	 */
+	public synchronized void retainServices(List<Service> svcs) {
+		int count = 0;
+		for (Service svc : svcs) {
+			if (svc.getRidershipStore() == this) {
+				count += svc.getNumServiceStops();
+			}
+		}
+
+		int capacity = Math.max(count, 1);
+		int[] newServiceIndices = new int[capacity];
+		int[] newStopIds = new int[capacity];
+		int[][] newValues = new int[dataValues.length][capacity];
+		byte[] newPresent = new byte[capacity];
+		int row = 0;
+		int svcIndex = 0;
+		for (Service svc : svcs) {
+			if (svc.getRidershipStore() != this) {
+				continue;
+			}
+			int oldRow = svc.getFirstRow();
+			int numStops = svc.getNumServiceStops();
+			Arrays.fill(newServiceIndices, row, row + numStops, svcIndex++);
+			System.arraycopy(stopIds, oldRow, newStopIds, row, numStops);
+			for (int ord = 0; ord < dataValues.length; ord++) {
+				System.arraycopy(dataValues[ord], oldRow, newValues[ord], row,
+						numStops);
+			}
+			System.arraycopy(dataPresent, oldRow, newPresent, row, numStops);
+			svc.moveRows(this, row - oldRow);
+			row += numStops;
+		}
+
+		serviceIndices = newServiceIndices;
+		stopIds = newStopIds;
+		dataValues = newValues;
+		dataPresent = newPresent;
+		numRows = row;
+		numServices = svcIndex;
+	}
+
+	/**
+	 * Returns the number of rows in this store.
+	 * 
+	 * @return the number of rows in this store.
+	 */
+	public int getNumRows() {
+		return numRows;
+	}
+
+	/**
+	 * Returns the number of services that have rows in this store.
+	 * 
+	 * @return the number of services in this store.
+	 */
+	public int getNumServices() {
+		return numServices;
+	}
+
+	/**
+	 * Returns the index of the service owning the specified row.
+	 * 
+	 * @param row
+	 *            row to look up
+	 * @return the service index of the row.
+	 */
+	public int getServiceIndex(int row) {
+		return serviceIndices[row];
+	}
+
+	/**
+	 * Returns the stop id of the specified row.
+	 * 
+	 * @param row
+	 *            row to look up
+	 * @return the stop id of the row.
+	 */
+	public int getStopId(int row) {
+		return stopIds[row];
+	}
+
+	/**
+	 * Determines whether the specified row holds a value for the specified
+	 * {@code DataType}.
+	 * 
+	 * @param row
+	 *            row to look up
+	 * @param dTyp
+	 *            {@code DataType} to look for
+	 * @return {@code true} if a value is present.
+	 */
+	public boolean hasValue(int row, DataType dTyp) {
+		return (dataPresent[row] & (1 << dTyp.getOrdinal())) != 0;
+	}
+
+	/**
+	 * Returns the value of the specified {@code DataType} in the specified row.
+	 * 
+	 * @param row
+	 *            row to look up
+	 * @param dTyp
+	 *            {@code DataType} to look for
+	 * @return the value or {@code 0} if none is present.
+	 */
+	public int getValue(int row, DataType dTyp) {
+		return dataValues[dTyp.getOrdinal()][row];
+	}
+
+	/**
+	 * Sets the value of the specified {@code DataType} in the specified row.
+	 * 
+	 * @param row
+	 *            row to modify
+	 * @param dTyp
+	 *            {@code DataType} of the value
+	 * @param val
+	 *            the data value
+	 */
+	public void setValue(int row, DataType dTyp, int val) {
+		int ord = dTyp.getOrdinal();
+		dataValues[ord][row] = val;
+		dataPresent[row] |= 1 << ord;
+	}
+
+	/**
+	 * Finds the minimum value of the specified {@code DataType} within a range
+	 * of rows.
+	 * 
+	 * @param dTyp
+	 *            {@code DataType} to compare
+	 * @param firstRow
+	 *            first row of the range
+	 * @param count
+	 *            number of rows in the range
+	 * @return the minimum value or {@code Integer.MAX_VALUE} if none was
+	 *         found.
+	 */
+	public int getMinValue(DataType dTyp, int firstRow, int count) {
+		int ord = dTyp.getOrdinal();
+		int bit = 1 << ord;
+		int[] values = dataValues[ord];
+		byte[] present = dataPresent;
+
+		int minVal = Integer.MAX_VALUE;
+		for (int row = firstRow, end = firstRow + count; row < end; row++) {
+			if ((present[row] & bit) != 0 && values[row] < minVal) {
+				minVal = values[row];
+			}
+		}
+		return minVal;
+	}
+
+	/**
+	 * Finds the maximum value of the specified {@code DataType} within a range
+	 * of rows.
+	 * 
+	 * @param dTyp
+	 *            {@code DataType} to compare
+	 * @param firstRow
+	 *            first row of the range
+	 * @param count
+	 *            number of rows in the range
+	 * @return the maximum value or {@code -1} if none was found.
+	 */
+	public int getMaxValue(DataType dTyp, int firstRow, int count) {
+		int ord = dTyp.getOrdinal();
+		int bit = 1 << ord;
+		int[] values = dataValues[ord];
+		byte[] present = dataPresent;
+
+		int maxVal = -1;
+		for (int row = firstRow, end = firstRow + count; row < end; row++) {
+			if ((present[row] & bit) != 0 && values[row] > maxVal) {
+				maxVal = values[row];
+			}
+		}
+		return maxVal;
+	}
+
+	/**
+	 * Finds the sum of the values of the specified {@code DataType} within a
+	 * range of rows.
+	 * 
+	 * @param dTyp
+	 *            {@code DataType} to sum
+	 * @param firstRow
+	 *            first row of the range
+	 * @param count
+	 *            number of rows in the range
+	 * @return the sum of the values present, or {@code 0} if none was found.
+	 */
+	public long getSumValue(DataType dTyp, int firstRow, int count) {
+		int ord = dTyp.getOrdinal();
+		int bit = 1 << ord;
+		int[] values = dataValues[ord];
+		byte[] present = dataPresent;
+
+		long sum = 0;
+		for (int row = firstRow, end = firstRow + count; row < end; row++) {
+			if ((present[row] & bit) != 0) {
+				sum += values[row];
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Grows the columns so that they can hold at least the specified number of
+	 * rows.
+	 * 
+	 * @param minCapacity
+	 *            number of rows required
+	 */
+	private void ensureCapacity(int minCapacity) {
+		int capacity = stopIds.length;
+		if (minCapacity <= capacity) {
+			return;
+		}
+
+		while (capacity < minCapacity) {
+			capacity <<= 1;
+		}
+
+		serviceIndices = grow(serviceIndices, capacity);
+		stopIds = grow(stopIds, capacity);
+		int[][] newValues = new int[dataValues.length][];
+		for (int ord = 0; ord < dataValues.length; ord++) {
+			newValues[ord] = grow(dataValues[ord], capacity);
+		}
+		dataValues = newValues;
+
+		byte[] newPresent = new byte[capacity];
+		System.arraycopy(dataPresent, 0, newPresent, 0, numRows);
+		dataPresent = newPresent;
+	}
+
+	/**
+	 * Copies the used rows of a column into a new array of the specified
+	 * capacity.
+	 * 
+	 * @param column
+	 *            column to copy
+	 * @param capacity
+	 *            capacity of the new column
+	 * @return the new column.
+	 */
+	private int[] grow(int[] column, int capacity) {
+		int[] newColumn = new int[capacity];
+		System.arraycopy(column, 0, newColumn, 0, numRows);
+		return newColumn;
+	}
+}
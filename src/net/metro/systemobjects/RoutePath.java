@@ -7,6 +7,8 @@
 package net.metro.systemobjects;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import net.metro.systemobjects.dataobjects.DataType;
@@ -24,8 +26,27 @@ public class RoutePath implements Comparable<RoutePath> {
 	private String name;
 	private int pathId;
 	private ArrayList<Service> services;
+	private IntHashMap<ArrayList<Service>> servicesByPeriod;
+	private ServiceTimeIndex timeIndex; // null until rebuilt after a change
+
+	// the vertices are held in compact form in geometry; WayPoint objects are
+	// only created when the wayPoints list is needed for editing. At least one
+	// of the two is always non-null, and geometry is null while it is stale.
+	private PathGeometry geometry;
 	private ArrayList<WayPoint> wayPoints;
 
+	// stop caches derived from the vertices; null until rebuilt after a change
+	private IntHashMap<Stop> stopIndex;
+	private List<Stop> stops;
+
+	// memoized data aggregates per DataType ordinal; an entry is current
+	// while its aggregateVersion matches modCount
+	private int[] minData;
+	private int[] maxData;
+	private long[] sumData;
+	private int[] aggregateVersion;
+	private volatile int modCount;
+
 	/**
 	 * Constructs a {@code RoutePath}.
 	 * 
@@ -41,7 +62,16 @@ public class RoutePath implements Comparable<RoutePath> {
 		name = new String(nm);
 		pathId = pthId;
 		services = new ArrayList<Service>();
-		wayPoints = new ArrayList<WayPoint>();
+		servicesByPeriod = new IntHashMap<ArrayList<Service>>();
+		geometry = new PathGeometry();
+		wayPoints = null;
+
+		minData = new int[DataType.count()];
+		maxData = new int[DataType.count()];
+		sumData = new long[DataType.count()];
+		aggregateVersion = new int[DataType.count()];
+		Arrays.fill(aggregateVersion, -1);
+		modCount = 0;
 	}
 
 	/**
@@ -97,12 +127,78 @@ public class RoutePath implements Comparable<RoutePath> {
 	 * @return the matching service or {@code null} if none is found.
 	 */
 	public Service getServicesWithPeriod(Period pd) {
-		for (Service svc : services) {
-			if (svc.getPeriod().equals(pd)) {
-				return svc;
-			}
+		List<Service> svcs = getAllServicesWithPeriod(pd);
+		return svcs.isEmpty() ? null : svcs.get(0);
+	}
+
+	/**
+	 * Returns all services associated with this {@code RoutePath} matching the
+	 * specified {@code Period}, in the order they were added.
+	 * 
+	 * @param pd
+	 *            period constraint of the sought services
+	 * @return an unmodifiable list of the matching services, which is empty
+	 *         if none is found.
+	 */
+	public List<Service> getAllServicesWithPeriod(Period pd) {
+		ArrayList<Service> svcs = servicesByPeriod.get(pd.getOrdinal());
+		if (svcs == null) {
+			return Collections.emptyList();
 		}
-		return null;
+		return Collections.unmodifiableList(svcs);
+	}
+
+	/**
+	 * Finds the services associated with this {@code RoutePath} that run on
+	 * any of the specified days and whose time periods overlap the specified
+	 * time window.
+	 * 
+	 * @param dayMask
+	 *            bitmask of the days to match, as returned by
+	 *            {@code Period.getDayMask()}
+	 * @param startSecs
+	 *            start of the window in seconds since midnight
+	 * @param endSecs
+	 *            end of the window in seconds since midnight
+	 * @return the matching services in order of start time.
+	 */
+	public List<Service> getServicesOverlapping(int dayMask, int startSecs,
+			int endSecs) {
+		return getTimeIndex().findOverlapping(dayMask, startSecs, endSecs);
+	}
+
+	/**
+	 * Finds the services associated with this {@code RoutePath} that run on
+	 * any of the specified days and whose time periods lie entirely within the
+	 * specified time window.
+	 * 
+	 * @param dayMask
+	 *            bitmask of the days to match, as returned by
+	 *            {@code Period.getDayMask()}
+	 * @param startSecs
+	 *            start of the window in seconds since midnight
+	 * @param endSecs
+	 *            end of the window in seconds since midnight
+	 * @return the matching services in order of start time.
+	 */
+	public List<Service> getServicesWithin(int dayMask, int startSecs,
+			int endSecs) {
+		return getTimeIndex().findContained(dayMask, startSecs, endSecs);
+	}
+
+	/**
+	 * Returns the interval index over the services of this {@code RoutePath},
+	 * rebuilding it if a service has been added since it was last built.
+	 * 
+	 * @return the interval index over the services.
+	 */
+	private ServiceTimeIndex getTimeIndex() {
+		ServiceTimeIndex index = timeIndex;
+		if (index == null) {
+			index = new ServiceTimeIndex(services);
+			timeIndex = index;
+		}
+		return index;
 	}
 
 	/**
@@ -115,17 +211,7 @@ public class RoutePath implements Comparable<RoutePath> {
 	 *         found
 	 */
 	public int getMinData(DataType dType) {
-		int minValue = Integer.MAX_VALUE;
-		for (Service svc : services) {
-			int dtVal = svc.getMinData(dType);
-			if (dtVal != -1) // constant value -1 indicates no data present
-			{
-				if (dtVal < minValue) {
-					minValue = dtVal;
-				}
-			}
-		}
-		return minValue;
+		return minData[validateAggregates(dType)];
 	}
 
 	/**
@@ -137,17 +223,57 @@ public class RoutePath implements Comparable<RoutePath> {
 	 * @return the maximum data value or {@code -1} if none is found
 	 */
 	public int getMaxData(DataType dType) {
-		int maxValue = -1;
-		for (Service svc : services) {
-			int dtVal = svc.getMaxData(dType);
-			if (dtVal != -1) // constant value -1 indicates no data present
-			{
-				if (dtVal > maxValue) {
-					maxValue = dtVal;
-				}
+		return maxData[validateAggregates(dType)];
+	}
+
+	/**
+	 * Finds the sum of the data values across all services associated with
+	 * this {@code RoutePath}.
+	 * 
+	 * @param dType
+	 *            the {@code DataType} to sum
+	 * @return the sum of the data values or {@code 0} if none is found
+	 */
+	public long getSumData(DataType dType) {
+		return sumData[validateAggregates(dType)];
+	}
+
+	/**
+	 * Recomputes the cached aggregates of the specified data type from the
+	 * (themselves cached) aggregates of each service if any service or its
+	 * data changed since they were last computed.
+	 * 
+	 * @param dType
+	 *            data type whose aggregates are needed
+	 * @return the ordinal of the data type.
+	 */
+	private int validateAggregates(DataType dType) {
+		int ord = dType.getOrdinal();
+		int version = modCount;
+		if (aggregateVersion[ord] != version) {
+			int minValue = Integer.MAX_VALUE;
+			int maxValue = -1; // constant value -1 indicates no data present
+			long sum = 0;
+			for (Service svc : services) {
+				minValue = Math.min(minValue, svc.getMinData(dType));
+				maxValue = Math.max(maxValue, svc.getMaxData(dType));
+				sum += svc.getSumData(dType);
 			}
+			minData[ord] = minValue;
+			maxData[ord] = maxValue;
+			sumData[ord] = sum;
+			aggregateVersion[ord] = version;
 		}
-		return maxValue;
+		return ord;
+	}
+
+	/**
+	 * Discards the cached data aggregates of this {@code RoutePath}. Called
+	 * when a service is added or the data of one of its services changes, on
+	 * the thread that owns the database.
+	 */
+	void invalidateAggregates() {
+		modCount++;
 	}
 
 	/**
@@ -160,14 +286,64 @@ public class RoutePath implements Comparable<RoutePath> {
 	}
 
 	/**
-	 * Returns all {@code WayPoints} in this {@code RoutePath}.
+	 * Returns all {@code WayPoints} in this {@code RoutePath}. The
+	 * {@code WayPoint} objects are created on the first call and kept for
+	 * editing; code that only reads the shape should use {@code getGeometry()}
+	 * instead.
 	 * 
 	 * @return all {@code WayPoints} in this {@code RoutePath}.
 	 */
 	public ArrayList<WayPoint> getWayPoints() {
+		if (wayPoints == null) {
+			wayPoints = geometry.toWayPoints(this);
+		}
 		return wayPoints;
 	}
 
+	/**
+	 * Returns the compact geometry of this {@code RoutePath}. The returned
+	 * object is replaced, not updated, when a waypoint is inserted, replaced or
+	 * deleted.
+	 * 
+	 * @return the geometry of this {@code RoutePath}.
+	 */
+	public PathGeometry getGeometry() {
+		if (geometry == null) {
+			geometry = PathGeometry.fromWayPoints(wayPoints);
+		}
+		return geometry;
+	}
+
+	/**
+	 * Replaces all waypoints of this {@code RoutePath} with the specified
+	 * geometry in one step. The stops of the geometry must have been created
+	 * for this {@code RoutePath}. This lets an import build the new shape of a
+	 * path privately and then publish it with a single reference swap.
+	 * 
+	 * @param geom
+	 *            the new geometry of this {@code RoutePath}
+	 */
+	public void setGeometry(PathGeometry geom) {
+		geometry = geom;
+		wayPoints = null;
+		invalidateStopCaches();
+	}
+
+	/**
+	 * Returns the vertex index of the specified {@code Stop} in the geometry of
+	 * this {@code RoutePath}.
+	 * 
+	 * @param st
+	 *            {@code Stop} to look for
+	 * @return the vertex index of the stop or {@code -1} if it is not part of
+	 *         this {@code RoutePath}.
+	 */
+	public int getVertexIndex(Stop st) {
+		PathGeometry geom = getGeometry();
+		int stopIndex = geom.indexOfStop(st);
+		return stopIndex < 0 ? -1 : geom.getStopVertex(stopIndex);
+	}
+
 	/**
 	 * Finds the stop contained in the waypoint list matching the specified stop
 	 * id.
@@ -177,32 +353,55 @@ public class RoutePath implements Comparable<RoutePath> {
 	 * @return the matching stop or {@code null} if none is found.
 	 */
 	public Stop getStop(int stopId) {
-		for (WayPoint wp : wayPoints) {
-			if (wp instanceof Stop) {
-				if (((Stop) wp).getStationId() == stopId) {
-					return (Stop) wp;
-				}
-			}
+		if (stopIndex == null) {
+			buildStopCaches();
 		}
-		return null;
+		return stopIndex.get(stopId);
 	}
 
 	/**
 	 * Returns all {@code Stop}s contained within this {@code RoutePath}'s
-	 * waypoint list.
+	 * waypoint list. The returned list is cached until the waypoint list
+	 * changes and cannot be modified.
 	 * 
 	 * @return all {@code Stop}s in this {@code RoutePath}.
 	 */
-	public ArrayList<Stop> getStops() {
-		ArrayList<Stop> allStops = new ArrayList<Stop>();
+	public List<Stop> getStops() {
+		if (stops == null) {
+			buildStopCaches();
+		}
+		return stops;
+	}
+
+	/**
+	 * Rebuilds the stop id index and the cached stop list from the waypoint
+	 * list. If several stops share a stop id, the first one is indexed.
+	 */
+	private void buildStopCaches() {
+		PathGeometry geom = getGeometry();
+		int numStops = geom.getNumStops();
+		ArrayList<Stop> allStops = new ArrayList<Stop>(numStops);
+		IntHashMap<Stop> index = new IntHashMap<Stop>(numStops);
 
-		for (WayPoint wp : wayPoints) {
-			if (wp instanceof Stop) {
-				allStops.add((Stop) wp);
+		for (int stopIndex = 0; stopIndex < numStops; stopIndex++) {
+			Stop st = geom.getStop(stopIndex);
+			allStops.add(st);
+			if (!index.containsKey(st.getStationId())) {
+				index.put(st.getStationId(), st);
 			}
 		}
 
-		return allStops;
+		stops = Collections.unmodifiableList(allStops);
+		stopIndex = index;
+	}
+
+	/**
+	 * Discards the cached stop list and stop id index. Must be called whenever
+	 * the waypoint list changes.
+	 */
+	private void invalidateStopCaches() {
+		stops = null;
+		stopIndex = null;
 	}
 
 	/**
@@ -215,15 +414,11 @@ public class RoutePath implements Comparable<RoutePath> {
 	 * @return list of {@code WayPoint}s in between the start and end points.
 	 */
 	public ArrayList<WayPoint> getSubPath(WayPoint start, WayPoint end) {
-		System.out.println("Getting Sub-Path: ");
-		System.out.println("From wayPoint: " + start + " to " + end);
-		int startIndex = wayPoints.indexOf(start);
-		int endIndex = wayPoints.indexOf(end);
-		System.out.println("Start index: " + startIndex + " End Index: "
-				+ endIndex);
+		ArrayList<WayPoint> wpts = getWayPoints();
+		int startIndex = wpts.indexOf(start);
+		int endIndex = wpts.indexOf(end);
 
-		return new ArrayList<WayPoint>(wayPoints.subList(startIndex,
-				endIndex + 1));
+		return new ArrayList<WayPoint>(wpts.subList(startIndex, endIndex + 1));
 	}
 
 	/**
@@ -236,12 +431,18 @@ public class RoutePath implements Comparable<RoutePath> {
 	 * @return list of {@code Stop}s in between the start and end stops.
 	 */
 	public List<Stop> getStopsInBetween(Stop start, Stop end) {
-		List<WayPoint> wayPointsInBetween = getSubPath(start, end);
-		ArrayList<Stop> stopsInBetween = new ArrayList<Stop>();
-		for (WayPoint wp : wayPointsInBetween) {
-			if (wp instanceof Stop) {
-				stopsInBetween.add((Stop) wp);
-			}
+		PathGeometry geom = getGeometry();
+		int startIndex = geom.indexOfStop(start);
+		int endIndex = geom.indexOfStop(end);
+		if (startIndex < 0 || endIndex < 0) {
+			throw new IllegalArgumentException("Stop is not on path " + name
+					+ ".");
+		}
+
+		ArrayList<Stop> stopsInBetween = new ArrayList<Stop>(endIndex
+				- startIndex + 1);
+		for (int index = startIndex; index <= endIndex; index++) {
+			stopsInBetween.add(geom.getStop(index));
 		}
 		return stopsInBetween;
 	}
@@ -264,6 +465,30 @@ public class RoutePath implements Comparable<RoutePath> {
 	 */
 	public void addService(Service svc) {
 		services.add(svc);
+
+		int pdOrd = svc.getPeriod().getOrdinal();
+		ArrayList<Service> svcs = servicesByPeriod.get(pdOrd);
+		if (svcs == null) {
+			svcs = new ArrayList<Service>(1);
+			servicesByPeriod.put(pdOrd, svcs);
+		}
+		svcs.add(svc);
+		timeIndex = null;
+
+		svc.setOnPath();
+		invalidateAggregates();
+	}
+
+	/**
+	 * Removes all {@code Service}s from this {@code RoutePath}, so that they
+	 * can be added again, or replaced, after the stops of the path changed.
+	 */
+	public void removeAllServices() {
+		services.clear();
+		servicesByPeriod.clear();
+		timeIndex = null;
+
+		invalidateAggregates();
 	}
 
 	/**
@@ -273,7 +498,31 @@ public class RoutePath implements Comparable<RoutePath> {
 	 *            {@code WayPoint} to add
 	 */
 	public void addWayPoint(WayPoint wpt) {
-		wayPoints.add(wpt);
+		if (wayPoints == null) {
+			geometry.add(wpt);
+		} else {
+			wayPoints.add(wpt);
+			geometry = null;
+		}
+		invalidateStopCaches();
+	}
+
+	/**
+	 * Adds a plain waypoint at the specified location to the end of the list
+	 * of waypoints. No {@code WayPoint} object is created unless the waypoint
+	 * list is being edited.
+	 * 
+	 * @param lat
+	 *            decimal latitude of the waypoint
+	 * @param lon
+	 *            decimal longitude of the waypoint
+	 */
+	public void addWayPoint(double lat, double lon) {
+		if (wayPoints == null) {
+			geometry.add(lat, lon);
+		} else {
+			addWayPoint(new WayPoint(this, lat, lon));
+		}
 	}
 
 	/**
@@ -285,14 +534,11 @@ public class RoutePath implements Comparable<RoutePath> {
 	 *            {@code WayPoint} to insert after
 	 */
 	public void insertNewWayPoint(WayPoint wpt, WayPoint wptToInsertAfter) {
-		wayPoints.add(wayPoints.indexOf(wptToInsertAfter) + 1, wpt); // added +1
-																		// to
-																		// shift
-																		// to
-																		// right
-																		// instead
-																		// of
-																		// left
+		ArrayList<WayPoint> wpts = getWayPoints();
+		// +1 shifts the insertion to the right of the point instead of left
+		wpts.add(wpts.indexOf(wptToInsertAfter) + 1, wpt);
+		geometry = null;
+		invalidateStopCaches();
 	}
 
 	/**
@@ -305,8 +551,11 @@ public class RoutePath implements Comparable<RoutePath> {
 	 *            new {@code WayPoint}
 	 */
 	public void replaceWayPoint(WayPoint oldWpt, WayPoint newWpt) {
-		int index = wayPoints.indexOf(oldWpt);
-		wayPoints.set(index, newWpt);
+		ArrayList<WayPoint> wpts = getWayPoints();
+		int index = wpts.indexOf(oldWpt);
+		wpts.set(index, newWpt);
+		geometry = null;
+		invalidateStopCaches();
 	}
 
 	/**
@@ -316,14 +565,18 @@ public class RoutePath implements Comparable<RoutePath> {
 	 *            {@code WayPoint} to delete
 	 */
 	public void deleteWayPoint(WayPoint wpt) {
-		wayPoints.remove(wpt);
+		getWayPoints().remove(wpt);
+		geometry = null;
+		invalidateStopCaches();
 	}
 
 	/**
 	 * Deltes all {@code WayPoints} from the list of waypoints.
 	 */
 	public void deleteAllWayPoints() {
-		wayPoints.clear();
+		geometry = new PathGeometry();
+		wayPoints = null;
+		invalidateStopCaches();
 	}
 
 	/**
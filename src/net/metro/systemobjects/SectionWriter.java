@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * MASS (Metro Analytics Software System) by Sean Harger
+ * is licensed under a Creative Commons Attribution-NonCommercial-ShareAlike 3.0
+ * United States License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by-nc-sa/3.0/us/.
+ ******************************************************************************/
+package net.metro.systemobjects;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes the sections of a binary file, such as a {@code SystemSnapshot}, to a
+ * channel through a large direct buffer. Values are written in little-endian
+ * order, and arrays are copied into the buffer in bulk. The writer keeps count
+ * of the bytes written, so that a file can record the offsets of its own
+ * sections.
+ * 
+ * @author Sean Harger
+ * 
+ */
+public final class SectionWriter {
+	private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private long length;
+
+	/**
+	 * Constructs a {@code SectionWriter} writing to the specified channel.
+	 * 
+	 * @param chnl
+	 *            channel to write the file to
+	 */
+	public SectionWriter(WritableByteChannel chnl) {
+		channel = chnl;
+		buffer = ByteBuffer.allocateDirect(DEFAULT_BUFFER_SIZE);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		length = 0;
+	}
+
+	/**
+	 * Returns the number of bytes written so far, which is the offset of the
+	 * next value in the file.
+	 * 
+	 * @return the length of the file written so far.
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Writes a single byte.
+	 * 
+	 * @param value
+	 *            the byte, in the low 8 bits
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	public void putByte(int value) throws IOException {
+		if (!buffer.hasRemaining()) {
+			flush();
+		}
+		buffer.put((byte) value);
+		length++;
+	}
+
+	/**
+	 * Writes an {@code int}.
+	 * 
+	 * @param value
+	 *            the value
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	public void putInt(int value) throws IOException {
+		if (buffer.remaining() < 4) {
+			flush();
+		}
+		buffer.putInt(value);
+		length += 4;
+	}
+
+	/**
+	 * Writes a {@code long}.
+	 * 
+	 * @param value
+	 *            the value
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	public void putLong(long value) throws IOException {
+		if (buffer.remaining() < 8) {
+			flush();
+		}
+		buffer.putLong(value);
+		length += 8;
+	}
+
+	/**
+	 * Writes the first values of an array of {@code int}s with bulk copies.
+	 * 
+	 * @param values
+	 *            the values
+	 * @param count
+	 *            number of values to write
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	public void putInts(int[] values, int count) throws IOException {
+		int offset = 0;
+		while (offset < count) {
+			if (buffer.remaining() < 4) {
+				flush();
+			}
+			int n = Math.min(count - offset, buffer.remaining() / 4);
+			buffer.asIntBuffer().put(values, offset, n);
+			buffer.position(buffer.position() + n * 4);
+			offset += n;
+		}
+		length += count * 4L;
+	}
+
+	/**
+	 * Writes an array of bytes with bulk copies.
+	 * 
+	 * @param bytes
+	 *            the bytes
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	public void putBytes(byte[] bytes) throws IOException {
+		int offset = 0;
+		while (offset < bytes.length) {
+			if (!buffer.hasRemaining()) {
+				flush();
+			}
+			int n = Math.min(bytes.length - offset, buffer.remaining());
+			buffer.put(bytes, offset, n);
+			offset += n;
+		}
+		length += bytes.length;
+	}
+
+	/**
+	 * Writes zero bytes up to the next multiple of 4 bytes, so that the next
+	 * section is aligned for {@code int}s.
+	 * 
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	public void pad() throws IOException {
+		for (int count = (int) (-length & 3); count > 0; count--) {
+			putByte(0);
+		}
+	}
+
+	/**
+	 * Writes the buffered bytes to the channel.
+	 * 
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
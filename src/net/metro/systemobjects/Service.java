@@ -7,8 +7,9 @@
 package net.metro.systemobjects;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
-import net.metro.systemobjects.dataobjects.Data;
 import net.metro.systemobjects.dataobjects.DataType;
 import net.metro.systemobjects.periodobjects.Day;
 
@@ -31,6 +32,25 @@ public class Service {
 	private Stop destinationStop;
 	private Period period;
 	private ArrayList<ServiceStop> serviceStops;
+	private IntHashMap<ServiceStop> serviceStopIndex;
+
+	// rows [firstRow, firstRow + serviceStops.size()) of the store hold the
+	// rider data of this service
+	private RidershipStore store;
+	private int firstRow;
+
+	// memoized aggregates per DataType ordinal; an entry is current while its
+	// aggregateVersion matches modCount
+	private int[] minData;
+	private int[] maxData;
+	private long[] sumData;
+	private int[] aggregateVersion;
+	private volatile int modCount;
+
+	// set once the service is added to its path, whose aggregates include it
+	// from then on; the data of a service that is still being imported does
+	// not concern the path
+	private boolean onPath;
 
 	/*
 	 * private ArrayList<Data> serviceData; (commented out due to no use at this
@@ -38,7 +58,8 @@ public class Service {
 	 */
 
 	/**
-	 * Constructs a {@code Service}.
+	 * Constructs a {@code Service} whose rider data is kept in its own
+	 * {@code RidershipStore}.
 	 * 
 	 * @param svcId
 	 *            unique id representing this {@code Service}
@@ -55,17 +76,95 @@ public class Service {
 	 */
 	public Service(int svcId, Period pd, Stop ognStop, Stop dstStop,
 			RoutePath pth) {
+		this(svcId, pd, ognStop, dstStop, pth, null);
+	}
+
+	/**
+	 * Constructs a {@code Service} whose rider data is kept in the specified
+	 * {@code RidershipStore}, normally the one owned by the
+	 * {@code SystemObjects} database.
+	 * 
+	 * @param svcId
+	 *            unique id representing this {@code Service}
+	 * @param pd
+	 *            period during which this service operates
+	 * @param ognStop
+	 *            the origin {@code Stop} of this service (must be a stop from
+	 *            the {@code RoutePath} which owns this {@code Service}.
+	 * @param dstStop
+	 *            the destination {@code Stop} of this service (must be a stop
+	 *            from the {@code RoutePath} which owns this {@code Service}.
+	 * @param pth
+	 *            {@code RoutePath} which operates this service
+	 * @param str
+	 *            {@code RidershipStore} to hold the rider data, or
+	 *            {@code null} to create one for this service only
+	 */
+	public Service(int svcId, Period pd, Stop ognStop, Stop dstStop,
+			RoutePath pth, RidershipStore str) {
+		this(svcId, pd, ognStop, dstStop, pth, pth.getStopsInBetween(ognStop,
+				dstStop), str, -1);
+	}
+
+	/**
+	 * Constructs a {@code Service} over rows that were already allocated in
+	 * the specified {@code RidershipStore}. This lets an import reserve the
+	 * rows of many services in a fixed order and then build the services
+	 * concurrently.
+	 * 
+	 * @param svcId
+	 *            unique id representing this {@code Service}
+	 * @param pd
+	 *            period during which this service operates
+	 * @param ognStop
+	 *            the origin {@code Stop} of this service
+	 * @param dstStop
+	 *            the destination {@code Stop} of this service
+	 * @param pth
+	 *            {@code RoutePath} which operates this service
+	 * @param stps
+	 *            the stops of the path from the origin to the destination
+	 *            stop, as returned by {@code RoutePath.getStopsInBetween()}
+	 * @param str
+	 *            {@code RidershipStore} holding the rider data, or
+	 *            {@code null} to create one for this service only
+	 * @param frstRow
+	 *            first row allocated to this service by
+	 *            {@code RidershipStore.addService()} with the ids of
+	 *            {@code stps}, or {@code -1} to allocate the rows now
+	 */
+	public Service(int svcId, Period pd, Stop ognStop, Stop dstStop,
+			RoutePath pth, List<Stop> stps, RidershipStore str, int frstRow) {
 		serviceId = svcId;
 		period = pd;
 		originStop = ognStop;
 		destinationStop = dstStop;
 		myPath = pth;
 
-		serviceStops = new ArrayList<ServiceStop>();
-		for (Stop st : myPath.getStopsInBetween(ognStop, dstStop)) {
-			serviceStops.add(new ServiceStop(st));
+		int[] stpIds = getStopIds(stps);
+		store = (str != null) ? str : new RidershipStore(stpIds.length);
+		firstRow = (frstRow >= 0) ? frstRow : store.addService(stpIds);
+
+		serviceStops = new ArrayList<ServiceStop>(stps.size());
+		serviceStopIndex = new IntHashMap<ServiceStop>(stps.size());
+		for (int index = 0; index < stpIds.length; index++) {
+			Stop st = stps.get(index);
+			ServiceStop svcStop = new ServiceStop(this, st, store, firstRow
+					+ index);
+			serviceStops.add(svcStop);
+			if (!serviceStopIndex.containsKey(st.getStationId())) {
+				serviceStopIndex.put(st.getStationId(), svcStop);
+			}
 		}
 
+		minData = new int[DataType.count()];
+		maxData = new int[DataType.count()];
+		sumData = new long[DataType.count()];
+		aggregateVersion = new int[DataType.count()];
+		Arrays.fill(aggregateVersion, -1);
+		modCount = 0;
+		onPath = false;
+
 	}
 
 	/**
@@ -127,12 +226,30 @@ public class Service {
 	 *         found.
 	 */
 	public ServiceStop getServiceStop(int stopId) {
-		for (ServiceStop st : serviceStops) {
-			if (st.getStop().getStationId() == stopId) {
-				return st;
-			}
-		}
-		return null;
+		return serviceStopIndex.get(stopId);
+	}
+
+	/**
+	 * Returns the {@code ServiceStop} at the specified position along this
+	 * {@code Service}.
+	 * 
+	 * @param index
+	 *            position of the {@code ServiceStop}, starting at {@code 0}
+	 *            for the origin stop
+	 * @return the {@code ServiceStop} at the specified position.
+	 */
+	public ServiceStop getServiceStopAt(int index) {
+		return serviceStops.get(index);
+	}
+
+	/**
+	 * Returns the number of {@code ServiceStop}s associated with this
+	 * {@code Service}.
+	 * 
+	 * @return the number of {@code ServiceStop}s in this {@code Service}.
+	 */
+	public int getNumServiceStops() {
+		return serviceStops.size();
 	}
 
 	/**
@@ -171,17 +288,7 @@ public class Service {
 	 *         with this {@code Service}.
 	 */
 	public int getMaxData(DataType dType) {
-		int maxValue = -1;
-		for (ServiceStop st : serviceStops) {
-			Data dt = st.getData(dType);
-			if (dt != null) {
-				int dtVal = dt.getValue();
-				if (dtVal > maxValue) {
-					maxValue = dtVal;
-				}
-			}
-		}
-		return maxValue;
+		return maxData[validateAggregates(dType)];
 	}
 
 	/**
@@ -194,17 +301,150 @@ public class Service {
 	 *         with this {@code Service}.
 	 */
 	public int getMinData(DataType dType) {
-		int minValue = Integer.MAX_VALUE;
-		for (ServiceStop st : serviceStops) {
-			Data dt = st.getData(dType);
-			if (dt != null) {
-				int dtVal = st.getData(dType).getValue();
-				if (dtVal < minValue) {
-					minValue = dtVal;
+		return minData[validateAggregates(dType)];
+	}
+
+	/**
+	 * Finds the sum of the data values of the specified data type across all
+	 * {@code ServiceStop}s associated with this {@code Service}.
+	 * 
+	 * @param dType
+	 *            data type to sum
+	 * @return the sum of the data values, or {@code 0} if none was found.
+	 */
+	public long getSumData(DataType dType) {
+		return sumData[validateAggregates(dType)];
+	}
+
+	/**
+	 * Recomputes the cached aggregates of the specified data type if the data
+	 * of this service changed since they were last computed.
+	 * 
+	 * @param dType
+	 *            data type whose aggregates are needed
+	 * @return the ordinal of the data type.
+	 */
+	private int validateAggregates(DataType dType) {
+		int ord = dType.getOrdinal();
+		int version = modCount;
+		if (aggregateVersion[ord] != version) {
+			int numStops = serviceStops.size();
+			minData[ord] = store.getMinValue(dType, firstRow, numStops);
+			maxData[ord] = store.getMaxValue(dType, firstRow, numStops);
+			sumData[ord] = store.getSumValue(dType, firstRow, numStops);
+			aggregateVersion[ord] = version;
+		}
+		return ord;
+	}
+
+	/**
+	 * Moves the rider data of this service to another
+	 * {@code RidershipStore}, into which its rows were copied with
+	 * {@code RidershipStore.addServices()}. This lets an import build its
+	 * services in a store of its own and publish them into the store of the
+	 * database. The values, and therefore the cached aggregates, are
+	 * unchanged.
+	 * 
+	 * @param str
+	 *            {@code RidershipStore} holding the copied rows
+	 * @param rowOffset
+	 *            row of {@code str} that row {@code 0} of the old store was
+	 *            copied to
+	 */
+	public void moveRows(RidershipStore str, int rowOffset) {
+		store = str;
+		firstRow += rowOffset;
+		for (ServiceStop svcStop : serviceStops) {
+			svcStop.moveRow(str, rowOffset);
+		}
+	}
+
+	/**
+	 * Copies the rider data of this service into a {@code RidershipStore} of
+	 * its own. A service that is removed from its path is detached before
+	 * {@code RidershipStore.retainServices()} drops its rows, so that views
+	 * still holding it can read its data.
+	 */
+	public void detachRows() {
+		RidershipStore own = new RidershipStore(serviceStops.size());
+		int row = own.addService(getStopIds(getStops()));
+		DataType[] dTypes = DataType.values();
+		for (int index = 0; index < serviceStops.size(); index++) {
+			for (DataType dType : dTypes) {
+				if (store.hasValue(firstRow + index, dType)) {
+					own.setValue(row + index, dType, store.getValue(firstRow
+							+ index, dType));
 				}
 			}
 		}
-		return minValue;
+		moveRows(own, row - firstRow);
+	}
+
+	/**
+	 * Returns the {@code RidershipStore} holding the rider data of this
+	 * service.
+	 * 
+	 * @return the store of this service.
+	 */
+	RidershipStore getRidershipStore() {
+		return store;
+	}
+
+	/**
+	 * Returns the first row of the rider data of this service in its
+	 * {@code RidershipStore}.
+	 * 
+	 * @return the first row of this service.
+	 */
+	int getFirstRow() {
+		return firstRow;
+	}
+
+	/**
+	 * Returns the modification count of this service, which grows whenever one
+	 * of its data values is set. Caches derived from the data of the service
+	 * can compare it to detect changes.
+	 * 
+	 * @return the modification count of this service.
+	 */
+	public int getModCount() {
+		return modCount;
+	}
+
+	/**
+	 * Discards the cached data aggregates of this service and, once the
+	 * service was added to it, of its parent {@code RoutePath}. Called by
+	 * {@code ServiceStop} whenever its data changes.
+	 */
+	void invalidateAggregates() {
+		modCount++;
+		if (onPath) {
+			myPath.invalidateAggregates();
+		}
+	}
+
+	/**
+	 * Records that this service was added to its parent {@code RoutePath}, so
+	 * that later changes to its data also invalidate the aggregates of the
+	 * path. Called by {@code RoutePath.addService()}.
+	 */
+	void setOnPath() {
+		onPath = true;
+	}
+
+	/**
+	 * Returns the stop ids of the specified stops in order.
+	 * 
+	 * @param stps
+	 *            list of stops
+	 * @return array of the stop ids.
+	 */
+	public static int[] getStopIds(List<Stop> stps) {
+		int[] stpIds = new int[stps.size()];
+		for (int index = 0; index < stpIds.length; index++) {
+			stpIds[index] = stps.get(index).getStationId();
+		}
+		return stpIds;
 	}
 
 	/**
@@ -219,6 +459,28 @@ public class Service {
 		return myPath.getSubPath(originStop, destinationStop);
 	}
 
+	/**
+	 * Returns the index of the origin stop in the geometry of the parent route
+	 * path. Together with {@code getPathEndVertex()}, this gives the portion
+	 * of the path on which this service operates without creating
+	 * {@code WayPoint} objects.
+	 * 
+	 * @return the vertex index of the origin stop.
+	 */
+	public int getPathStartVertex() {
+		return myPath.getVertexIndex(originStop);
+	}
+
+	/**
+	 * Returns the index of the destination stop in the geometry of the parent
+	 * route path.
+	 * 
+	 * @return the vertex index of the destination stop.
+	 */
+	public int getPathEndVertex() {
+		return myPath.getVertexIndex(destinationStop);
+	}
+
 	/**
 	 * Returns the parent {@code RoutePath} object which contains this service.
 	 * 
@@ -25,18 +25,44 @@ import net.metro.systemobjects.dataobjects.DataType;
  * 
  */
 public class ServiceStop {
+	private Service myService;
 	private Stop stop;
-	private ArrayList<Data> data;
+
+	// rider data lives in one row of the owning RidershipStore
+	private RidershipStore store;
+	private int row;
 
 	/**
-	 * Constructs a {@code ServiceStop}.
+	 * Constructs a {@code ServiceStop} backed by its own single-row
+	 * {@code RidershipStore}.
 	 * 
 	 * @param st
 	 *            {@code Stop} associated with this {@code ServiceStop}
 	 */
 	public ServiceStop(Stop st) {
+		this(null, st, new RidershipStore(1), 0);
+		store.addService(new int[] { st.getStationId() });
+	}
+
+	/**
+	 * Constructs a {@code ServiceStop} that reads and writes its data in the
+	 * specified row of a {@code RidershipStore}.
+	 * 
+	 * @param svc
+	 *            {@code Service} this {@code ServiceStop} belongs to, whose
+	 *            cached data aggregates are invalidated when data changes
+	 * @param st
+	 *            {@code Stop} associated with this {@code ServiceStop}
+	 * @param str
+	 *            {@code RidershipStore} holding the data
+	 * @param rw
+	 *            row of the store belonging to this {@code ServiceStop}
+	 */
+	public ServiceStop(Service svc, Stop st, RidershipStore str, int rw) {
+		myService = svc;
 		stop = st;
-		data = new ArrayList<Data>();
+		store = str;
+		row = rw;
 	}
 
 	/**
@@ -48,9 +74,65 @@ public class ServiceStop {
 		return stop;
 	}
 
+	/**
+	 * Moves this {@code ServiceStop} to the copy of its row in another
+	 * {@code RidershipStore}. Called by {@code Service.moveRows()}.
+	 * 
+	 * @param str
+	 *            {@code RidershipStore} holding the copied row
+	 * @param rowOffset
+	 *            distance from the old row to the copied row
+	 */
+	void moveRow(RidershipStore str, int rowOffset) {
+		store = str;
+		row += rowOffset;
+	}
+
+	/**
+	 * Determines whether this {@code ServiceStop} holds a value for the
+	 * specified {@code DataType}.
+	 * 
+	 * @param dTyp
+	 *            {@code DataType} to look for
+	 * @return {@code true} if a value is present for the data type.
+	 */
+	public boolean hasData(DataType dTyp) {
+		return store.hasValue(row, dTyp);
+	}
+
+	/**
+	 * Returns the value of the specified {@code DataType} for this
+	 * {@code ServiceStop}. Callers should check {@code hasData()} first.
+	 * 
+	 * @param dTyp
+	 *            {@code DataType} to look for
+	 * @return the data value or {@code 0} if none is present.
+	 */
+	public int getDataValue(DataType dTyp) {
+		return store.getValue(row, dTyp);
+	}
+
+	/**
+	 * Sets the value of the specified {@code DataType} for this
+	 * {@code ServiceStop}, replacing any existing value.
+	 * 
+	 * @param dTyp
+	 *            {@code DataType} of the value
+	 * @param val
+	 *            the data value
+	 */
+	public void setDataValue(DataType dTyp, int val) {
+		store.setValue(row, dTyp, val);
+		if (myService != null) {
+			myService.invalidateAggregates();
+		}
+	}
+
 	/**
 	 * Looks for the specified {@code DataType} for this {@code ServiceStop} and
-	 * returns it if found.
+	 * returns it if found. The returned object is a copy of the stored value;
+	 * {@code hasData()} and {@code getDataValue()} should be preferred where
+	 * performance matters.
 	 * 
 	 * @param dTyp
 	 *            {@code DataType} to look for
@@ -58,23 +140,21 @@ public class ServiceStop {
 	 *         found.
 	 */
 	public Data getData(DataType dTyp) {
-		for (Data dt : data) {
-			if (dt.getDataType() == dTyp) {
-				return dt;
-			}
+		if (!hasData(dTyp)) {
+			return null;
 		}
-		return null;
+		return Data.create(dTyp, getDataValue(dTyp));
 	}
 
 	/**
-	 * Adds the specified {@code Data} object to the collection of data objects
-	 * for this {@code ServiceStop}.
+	 * Adds the value of the specified {@code Data} object to this
+	 * {@code ServiceStop}, replacing any existing value of the same type.
 	 * 
 	 * @param dt
 	 *            {@code Data} object to add
 	 */
 	public void addData(Data dt) {
-		data.add(dt);
+		setDataValue(dt.getDataType(), dt.getValue());
 	}
 
 	/**
@@ -93,9 +173,8 @@ public class ServiceStop {
 		int minVal = Integer.MAX_VALUE;
 
 		for (ServiceStop st : svcStops) {
-			Data dt = st.getData(dType);
-			if (dt != null) {
-				int dtVal = dt.getValue();
+			if (st.hasData(dType)) {
+				int dtVal = st.getDataValue(dType);
 				if (dtVal < minVal) {
 					minVal = dtVal;
 				}
@@ -119,9 +198,8 @@ public class ServiceStop {
 		int maxVal = -1;
 
 		for (ServiceStop st : svcStops) {
-			Data dt = st.getData(dType);
-			if (dt != null) {
-				int dtVal = dt.getValue();
+			if (st.hasData(dType)) {
+				int dtVal = st.getDataValue(dType);
 				if (dtVal > maxVal) {
 					maxVal = dtVal;
 				}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * MASS (Metro Analytics Software System) by Sean Harger
+ * is licensed under a Creative Commons Attribution-NonCommercial-ShareAlike 3.0
+ * United States License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by-nc-sa/3.0/us/.
+ ******************************************************************************/
+package net.metro.systemobjects;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import net.metro.systemobjects.periodobjects.TimePeriod;
+
+/**
+ * Immutable interval index over the time periods of a set of {@code Service}
+ * objects. Services are sorted by start time and laid out as an implicit
+ * balanced binary search tree, where every node also records the latest end
+ * time in its subtree. A query for the services overlapping a time window
+ * visits only subtrees that can contain a match, so it runs in
+ * O(log n + k) time for k matches instead of scanning every service.
+ * 
+ * Times are expressed in seconds since midnight and windows are half-open, so
+ * a service ending at 9:00 does not overlap a window starting at 9:00.
+ * 
+ * @author Sean Harger
+ * 
+ */
+public final class ServiceTimeIndex {
+	private static final Comparator<Service> START_ORDER =
+			new Comparator<Service>() {
+				public int compare(Service a, Service b) {
+					return TimePeriod.CHRONOLOGICAL.compare(a.getPeriod()
+							.getTimePeriod(), b.getPeriod().getTimePeriod());
+				}
+			};
+
+	private final Service[] services;
+	private final int[] starts;
+	private final int[] ends;
+	private final int[] dayMasks;
+	private final int[] maxEnds; // latest end in the subtree rooted at index
+
+	/**
+	 * Builds a {@code ServiceTimeIndex} over the specified services.
+	 * 
+	 * @param svcs
+	 *            services to index
+	 */
+	public ServiceTimeIndex(Collection<Service> svcs) {
+		services = svcs.toArray(new Service[svcs.size()]);
+		Arrays.sort(services, START_ORDER);
+
+		int n = services.length;
+		starts = new int[n];
+		ends = new int[n];
+		dayMasks = new int[n];
+		maxEnds = new int[n];
+		for (int index = 0; index < n; index++) {
+			TimePeriod tmPd = services[index].getPeriod().getTimePeriod();
+			starts[index] = tmPd.getStartSeconds();
+			ends[index] = tmPd.getEndSeconds();
+			dayMasks[index] = services[index].getPeriod().getDayMask();
+		}
+		buildMaxEnds(0, n - 1);
+	}
+
+	/**
+	 * Returns the number of services in this index.
+	 * 
+	 * @return the number of services in this index.
+	 */
+	public int size() {
+		return services.length;
+	}
+
+	/**
+	 * Finds the services that run on any of the specified days and whose time
+	 * periods overlap the specified window.
+	 * 
+	 * @param dayMask
+	 *            bitmask of the days to match, as returned by
+	 *            {@code Period.getDayMask()}
+	 * @param startSecs
+	 *            start of the window in seconds since midnight
+	 * @param endSecs
+	 *            end of the window in seconds since midnight
+	 * @return the matching services in order of start time.
+	 */
+	public List<Service> findOverlapping(int dayMask, int startSecs,
+			int endSecs) {
+		if (services.length == 0 || startSecs >= endSecs) {
+			return Collections.emptyList();
+		}
+
+		ArrayList<Service> result = new ArrayList<Service>();
+		collect(0, services.length - 1, dayMask, startSecs, endSecs, false,
+				result);
+		return result;
+	}
+
+	/**
+	 * Finds the services that run on any of the specified days and whose time
+	 * periods lie entirely within the specified window.
+	 * 
+	 * @param dayMask
+	 *            bitmask of the days to match, as returned by
+	 *            {@code Period.getDayMask()}
+	 * @param startSecs
+	 *            start of the window in seconds since midnight
+	 * @param endSecs
+	 *            end of the window in seconds since midnight
+	 * @return the matching services in order of start time.
+	 */
+	public List<Service> findContained(int dayMask, int startSecs, int endSecs) {
+		if (services.length == 0 || startSecs >= endSecs) {
+			return Collections.emptyList();
+		}
+
+		ArrayList<Service> result = new ArrayList<Service>();
+		collect(0, services.length - 1, dayMask, startSecs, endSecs, true,
+				result);
+		return result;
+	}
+
+	/**
+	 * Computes the latest end time of each subtree of the implicit tree over
+	 * the specified range.
+	 * 
+	 * @param lo
+	 *            first index of the range
+	 * @param hi
+	 *            last index of the range
+	 * @return the latest end time in the range.
+	 */
+	private int buildMaxEnds(int lo, int hi) {
+		if (lo > hi) {
+			return Integer.MIN_VALUE;
+		}
+
+		int mid = (lo + hi) >>> 1;
+		int maxEnd = Math.max(ends[mid],
+				Math.max(buildMaxEnds(lo, mid - 1), buildMaxEnds(mid + 1, hi)));
+		maxEnds[mid] = maxEnd;
+		return maxEnd;
+	}
+
+	/**
+	 * Adds the matching services of the subtree over the specified range to
+	 * the result in order of start time.
+	 * 
+	 * @param lo
+	 *            first index of the range
+	 * @param hi
+	 *            last index of the range
+	 * @param dayMask
+	 *            bitmask of the days to match
+	 * @param startSecs
+	 *            start of the window in seconds since midnight
+	 * @param endSecs
+	 *            end of the window in seconds since midnight
+	 * @param contained
+	 *            {@code true} to require that services lie within the window
+	 * @param result
+	 *            list to add the matching services to
+	 */
+	private void collect(int lo, int hi, int dayMask, int startSecs,
+			int endSecs, boolean contained, ArrayList<Service> result) {
+		if (lo > hi) {
+			return;
+		}
+
+		int mid = (lo + hi) >>> 1;
+		if (maxEnds[mid] <= startSecs) {
+			// nothing in this subtree ends after the window starts
+			return;
+		}
+
+		collect(lo, mid - 1, dayMask, startSecs, endSecs, contained, result);
+
+		if (starts[mid] >= endSecs) {
+			// this node and its right subtree start after the window ends
+			return;
+		}
+
+		if ((dayMasks[mid] & dayMask) != 0 && ends[mid] > startSecs) {
+			if (!contained
+					|| (starts[mid] >= startSecs && ends[mid] <= endSecs)) {
+				result.add(services[mid]);
+			}
+		}
+
+		collect(mid + 1, hi, dayMask, startSecs, endSecs, contained, result);
+	}
+}
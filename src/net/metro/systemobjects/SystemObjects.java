@@ -7,7 +7,11 @@
 package net.metro.systemobjects;
 
 import java.util.ArrayList;
-import java.util.Collections;
+
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import net.metro.systemobjects.periodobjects.Time;
 
 /**
  * This is a container database of all objects relating to routes, route paths,
@@ -20,12 +24,68 @@ import java.util.Collections;
  */
 public class SystemObjects {
 	private ArrayList<Route> routes;
+	private RidershipStore ridership;
+	private ArrayList<ChangeListener> changeListeners;
+
+	// route id index; routes sharing an id with an indexed route are kept
+	// aside in duplicateRoutes (normally only while a new route is edited)
+	private IntHashMap<Route> routeIndex;
+	private ArrayList<Route> duplicateRoutes;
 
 	/**
 	 * Constructs an empty {@code SystemObjects} database.
 	 */
 	public SystemObjects() {
 		routes = new ArrayList<Route>();
+		routeIndex = new IntHashMap<Route>();
+		duplicateRoutes = new ArrayList<Route>();
+		ridership = new RidershipStore();
+		changeListeners = new ArrayList<ChangeListener>();
+	}
+
+	/**
+	 * Registers a listener to be notified when new data has been published to
+	 * the database, for instance at the end of an import.
+	 * 
+	 * @param lstnr
+	 *            the listener to add
+	 */
+	public void addChangeListener(ChangeListener lstnr) {
+		changeListeners.add(lstnr);
+	}
+
+	/**
+	 * Removes a listener added with {@code addChangeListener()}.
+	 * 
+	 * @param lstnr
+	 *            the listener to remove
+	 */
+	public void removeChangeListener(ChangeListener lstnr) {
+		changeListeners.remove(lstnr);
+	}
+
+	/**
+	 * Notifies all registered listeners that new data has been published to
+	 * the database. Must be called on the event dispatch thread once the
+	 * changes are complete.
+	 */
+	public void fireDataChanged() {
+		ChangeEvent evt = new ChangeEvent(this);
+		for (ChangeListener lstnr : new ArrayList<ChangeListener>(
+				changeListeners)) {
+			lstnr.stateChanged(evt);
+		}
+	}
+
+	/**
+	 * Returns the {@code RidershipStore} holding the rider data of all
+	 * {@code Service}s in the database. New services should be constructed
+	 * with this store.
+	 * 
+	 * @return the {@code RidershipStore} of this database.
+	 */
+	public RidershipStore getRidershipStore() {
+		return ridership;
 	}
 
 	/**
@@ -38,11 +98,7 @@ public class SystemObjects {
 	 *         database
 	 */
 	public boolean routeExists(int routeNum) {
-		if (getRoute(routeNum) != null) {
-			return true;
-		} else {
-			return false;
-		}
+		return routeIndex.containsKey(routeNum);
 	}
 
 	/**
@@ -55,9 +111,16 @@ public class SystemObjects {
 	 * @return {@code true} if the database contains a duplicate.
 	 */
 	public boolean checkOtherRoutesForId(Route rteToExclude) {
-		for (Route rte : routes) {
-			if (rte != rteToExclude
-					&& rte.getRouteId() == rteToExclude.getRouteId()) {
+		int routeNum = rteToExclude.getRouteId();
+		Route indexed = routeIndex.get(routeNum);
+		if (indexed == null) {
+			return false;
+		} else if (indexed != rteToExclude) {
+			return true;
+		}
+
+		for (Route rte : duplicateRoutes) {
+			if (rte != rteToExclude && rte.getRouteId() == routeNum) {
 				return true;
 			}
 		}
@@ -72,16 +135,13 @@ public class SystemObjects {
 	 * @return the matching {@code Route} or {@code null} if none is found.
 	 */
 	public Route getRoute(int routeNum) {
-		for (Route r : routes) {
-			if (r.getRouteId() == routeNum) {
-				return r;
-			}
-		}
-		return null;
+		return routeIndex.get(routeNum);
 	}
 
 	/**
-	 * Returns a list of all the {@code Route}s in the database.
+	 * Returns a list of all the {@code Route}s in the database, sorted by their
+	 * route ids. The list is kept in order as routes are added, so it should
+	 * not be modified directly.
 	 * 
 	 * @return a list of all the {@code Route}s in the database.
 	 */
@@ -108,7 +168,9 @@ public class SystemObjects {
 
 	/**
 	 * Finds all {@code Service}s in the database matching the specified
-	 * {@code RoutePath} and {@code Period} constraints.
+	 * {@code RoutePath} and {@code Period} constraints. Only the constrained
+	 * route paths are visited, using each path's index of services by period.
+	 * Route paths that are no longer part of the database are ignored.
 	 * 
 	 * @param rtePthConstraint
 	 *            desired {@code RoutePath} for the returned services to be a
@@ -123,15 +185,56 @@ public class SystemObjects {
 			ArrayList<RoutePath> rtePthConstraint, Period pdConstraint) {
 		ArrayList<Service> matchingServices = new ArrayList<Service>();
 
-		for (Route rte : routes) {
-			for (RoutePath rtePth : rte.getPaths()) {
-				if (rtePthConstraint != null
-						&& rtePthConstraint.contains(rtePth)) {
-					for (Service svc : rtePth.getServices()) {
-						if (pdConstraint != null
-								&& svc.getPeriod().equals(pdConstraint)) {
-							matchingServices.add(svc);
-						}
+		if (rtePthConstraint != null && pdConstraint != null) {
+			for (RoutePath rtePth : rtePthConstraint) {
+				Route rte = rtePth.getRoute();
+				if (containsRoute(rte) && rte.getPaths().contains(rtePth)) {
+					matchingServices.addAll(rtePth
+							.getAllServicesWithPeriod(pdConstraint));
+				}
+			}
+		}
+
+		return matchingServices;
+	}
+
+	/**
+	 * Finds all {@code Service} objects on the specified paths that run on any
+	 * of the specified days and whose time periods overlap the specified time
+	 * window. Unlike {@code getServicesWithConstraint()}, the window need not
+	 * match a predefined {@code Period}.
+	 * 
+	 * @param rtePthConstraint
+	 *            a list of {@code RoutePath}s to constrain the selection
+	 * @param dayMask
+	 *            bitmask of the days to match, as returned by
+	 *            {@code Period.getDayMask()}
+	 * @param startTm
+	 *            start of the time window
+	 * @param endTm
+	 *            end of the time window
+	 * @param contained
+	 *            {@code true} to match only services whose time periods lie
+	 *            entirely within the window
+	 * @return {@code ArrayList} of the matching services.
+	 */
+	public ArrayList<Service> getServicesInTimeWindow(
+			ArrayList<RoutePath> rtePthConstraint, int dayMask, Time startTm,
+			Time endTm, boolean contained) {
+		ArrayList<Service> matchingServices = new ArrayList<Service>();
+
+		if (rtePthConstraint != null) {
+			int startSecs = startTm.getSecondsOfDay();
+			int endSecs = endTm.getSecondsOfDay();
+			for (RoutePath rtePth : rtePthConstraint) {
+				Route rte = rtePth.getRoute();
+				if (containsRoute(rte) && rte.getPaths().contains(rtePth)) {
+					if (contained) {
+						matchingServices.addAll(rtePth.getServicesWithin(
+								dayMask, startSecs, endSecs));
+					} else {
+						matchingServices.addAll(rtePth.getServicesOverlapping(
+								dayMask, startSecs, endSecs));
 					}
 				}
 			}
@@ -141,15 +244,33 @@ public class SystemObjects {
 	}
 
 	/**
-	 * Adds the specified {@code Route} to the database and sorts the routes by
-	 * their route id.
+	 * Determines whether the specified {@code Route} is part of the database.
+	 * 
+	 * @param rte
+	 *            {@code Route} to look for
+	 * @return {@code true} if the route is part of the database.
+	 */
+	public boolean containsRoute(Route rte) {
+		Route indexed = routeIndex.get(rte.getRouteId());
+		if (indexed == rte) {
+			return true;
+		} else if (indexed == null) {
+			return false;
+		} else {
+			return duplicateRoutes.contains(rte);
+		}
+	}
+
+	/**
+	 * Adds the specified {@code Route} to the database, keeping the routes
+	 * sorted by their route id.
 	 * 
 	 * @param rte
 	 *            {@code Route} to add
 	 */
 	public void addRoute(Route rte) {
-		routes.add(rte);
-		Collections.sort(routes);
+		routes.add(findInsertionIndex(rte.getRouteId()), rte);
+		indexRoute(rte);
 	}
 
 	/**
@@ -159,6 +280,120 @@ public class SystemObjects {
 	 *            {@code Route} to remove
 	 */
 	public void removeRoute(Route rte) {
-		routes.remove(rte);
+		int index = findRouteIndex(rte);
+		if (index != -1) {
+			routes.remove(index);
+			unindexRoute(rte);
+		}
+	}
+
+	/**
+	 * Changes the route id of the specified {@code Route} and moves it to its
+	 * new position in the database. Route ids of routes in the database should
+	 * be changed through this method rather than {@code Route.setNumber()} so
+	 * that lookups by route id remain correct.
+	 * 
+	 * @param rte
+	 *            {@code Route} to renumber
+	 * @param rteNum
+	 *            the new route id
+	 */
+	public void renumberRoute(Route rte, int rteNum) {
+		int index = findRouteIndex(rte);
+		if (index == -1) {
+			rte.setNumber(rteNum);
+		} else {
+			routes.remove(index);
+			unindexRoute(rte);
+			rte.setNumber(rteNum);
+			addRoute(rte);
+		}
+	}
+
+	/**
+	 * Adds the specified {@code Route} to the route id index.
+	 * 
+	 * @param rte
+	 *            {@code Route} to index
+	 */
+	private void indexRoute(Route rte) {
+		if (routeIndex.containsKey(rte.getRouteId())) {
+			duplicateRoutes.add(rte);
+		} else {
+			routeIndex.put(rte.getRouteId(), rte);
+		}
+	}
+
+	/**
+	 * Removes the specified {@code Route} from the route id index. If another
+	 * route shares its route id, that route takes its place in the index.
+	 * 
+	 * @param rte
+	 *            {@code Route} to remove from the index
+	 */
+	private void unindexRoute(Route rte) {
+		int routeNum = rte.getRouteId();
+		if (routeIndex.get(routeNum) != rte) {
+			duplicateRoutes.remove(rte);
+			return;
+		}
+
+		routeIndex.remove(routeNum);
+		for (int index = 0; index < duplicateRoutes.size(); index++) {
+			Route dup = duplicateRoutes.get(index);
+			if (dup.getRouteId() == routeNum) {
+				duplicateRoutes.remove(index);
+				routeIndex.put(routeNum, dup);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Finds the position at which a route with the specified route id should
+	 * be inserted to keep the route list sorted. Routes with equal ids are
+	 * kept in the order they were added.
+	 * 
+	 * @param routeNum
+	 *            route id of the route to insert
+	 * @return the insertion position in the route list.
+	 */
+	private int findInsertionIndex(int routeNum) {
+		int size = routes.size();
+		if (size == 0 || routes.get(size - 1).getRouteId() <= routeNum) {
+			return size; // routes are usually imported in order
+		}
+
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (routes.get(mid).getRouteId() <= routeNum) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Finds the position of the specified {@code Route} in the route list.
+	 * 
+	 * @param rte
+	 *            {@code Route} to look for
+	 * @return the position of the route or {@code -1} if it is not in the
+	 *         database.
+	 */
+	private int findRouteIndex(Route rte) {
+		int routeNum = rte.getRouteId();
+		int index = findInsertionIndex(routeNum) - 1;
+		while (index >= 0 && routes.get(index).getRouteId() == routeNum) {
+			if (routes.get(index) == rte) {
+				return index;
+			}
+			index--;
+		}
+		return routes.indexOf(rte); // route was renumbered outside the database
 	}
 }
@@ -0,0 +1,664 @@
+/*******************************************************************************
+ * MASS (Metro Analytics Software System) by Sean Harger
+ * is licensed under a Creative Commons Attribution-NonCommercial-ShareAlike 3.0
+ * United States License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by-nc-sa/3.0/us/.
+ ******************************************************************************/
+package net.metro.systemobjects;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import net.metro.systemobjects.dataobjects.DataType;
+import net.metro.systemobjects.periodobjects.Day;
+import net.metro.systemobjects.periodobjects.Time;
+import net.metro.systemobjects.periodobjects.TimePeriod;
+
+/**
+ * Binary snapshot of a whole {@code SystemObjects} database, which loads in a
+ * fraction of the time needed to import the same data from text files. A
+ * snapshot is a header followed by sections of little-endian {@code int}s,
+ * each read with one bulk copy from a memory-mapped file:
+ * 
+ * <pre>
+ * header     MAGIC, VERSION, number of data types, strings, string bytes,
+ *            routes, paths, vertices, stops, periods, services, and rows
+ * strings    end offset of every string, then the UTF-8 bytes of all strings
+ *            padded to a multiple of 4 bytes
+ * routes     route id, name, number of paths
+ * paths      path id, name, number of vertices, stops, and services
+ * vertices   latitude of every vertex in microdegrees, then every longitude
+ * stops      vertex index within its path, station id, name
+ * periods    day mask, start and end of the time period in seconds of day
+ * services   service id, period, index of the origin and destination stop
+ *            among the stops of its path
+ * rows       stop id of every row, then the values of every row for each
+ *            data type, then one byte per row flagging the values present
+ * </pre>
+ * 
+ * Names are indices into the string table, and routes, paths, stops, and
+ * services follow each other in database order, so every object is found by
+ * counting. Rows hold the rider data of the services in order, so the first
+ * row of each service follows from the number of stops of the ones before it.
+ * Periods are stored by value because their ordinals depend on the order in
+ * which they were first used.
+ * 
+ * @author Sean Harger
+ * 
+ */
+public final class SystemSnapshot {
+	/** First {@code int} of every snapshot, {@code "MASS"} in ASCII. */
+	public static final int MAGIC = 0x4D415353;
+	/** Version of the snapshot format written by this class. */
+	public static final int VERSION = 1;
+
+	private static final int HEADER_INTS = 12;
+
+	// days by sequence - 1, the bit of each day in a period's day mask
+	private static final Day[] DAYS_BY_SEQUENCE = { Day.MONDAY, Day.TUESDAY,
+			Day.WEDNESDAY, Day.THURSDAY, Day.FRIDAY, Day.SATURDAY, Day.SUNDAY };
+
+	private SystemSnapshot() {
+		// static methods only
+	}
+
+	/**
+	 * Writes all routes, paths, stops, services, and rider data of the
+	 * specified database to a snapshot file. Services whose origin or
+	 * destination stop is no longer on their route path are left out.
+	 * 
+	 * @param objs
+	 *            the database to save
+	 * @param file
+	 *            the snapshot file, which is replaced
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public static void write(SystemObjects objs, File file) throws IOException {
+		ArrayList<Route> routes = objs.getAllRoutes();
+
+		// first pass: count the objects and number the strings and periods
+		HashMap<String, Integer> stringIndex = new HashMap<String, Integer>();
+		ArrayList<byte[]> strings = new ArrayList<byte[]>();
+		HashMap<Integer, Integer> periodIndex = new HashMap<Integer, Integer>();
+		ArrayList<Period> periods = new ArrayList<Period>();
+		ArrayList<ArrayList<Service>> pathServices;
+		pathServices = new ArrayList<ArrayList<Service>>();
+		int numPaths = 0;
+		int numVertices = 0;
+		int numStops = 0;
+		int numServices = 0;
+		int numRows = 0;
+
+		for (Route rte : routes) {
+			indexString(rte.getName(), stringIndex, strings);
+			for (RoutePath rtePth : rte.getPaths()) {
+				indexString(rtePth.getName(), stringIndex, strings);
+				PathGeometry geom = rtePth.getGeometry();
+				for (int index = 0; index < geom.getNumStops(); index++) {
+					indexString(geom.getStop(index).getName(), stringIndex,
+							strings);
+				}
+
+				ArrayList<Service> svcs = new ArrayList<Service>();
+				for (Service svc : rtePth.getServices()) {
+					if (findStops(geom, svc) == null) {
+						continue;
+					}
+					Period pd = svc.getPeriod();
+					if (!periodIndex.containsKey(pd.getOrdinal())) {
+						periodIndex.put(pd.getOrdinal(), periods.size());
+						periods.add(pd);
+					}
+					svcs.add(svc);
+					numRows += svc.getNumServiceStops();
+				}
+				pathServices.add(svcs);
+
+				numPaths++;
+				numVertices += geom.size();
+				numStops += geom.getNumStops();
+				numServices += svcs.size();
+			}
+		}
+
+		int stringBytes = 0;
+		for (byte[] str : strings) {
+			stringBytes += str.length;
+		}
+
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			SectionWriter out = new SectionWriter(channel);
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(DataType.count());
+			out.putInt(strings.size());
+			out.putInt(stringBytes);
+			out.putInt(routes.size());
+			out.putInt(numPaths);
+			out.putInt(numVertices);
+			out.putInt(numStops);
+			out.putInt(periods.size());
+			out.putInt(numServices);
+			out.putInt(numRows);
+
+			// strings
+			int offset = 0;
+			for (byte[] str : strings) {
+				offset += str.length;
+				out.putInt(offset);
+			}
+			for (byte[] str : strings) {
+				out.putBytes(str);
+			}
+			out.pad();
+
+			// routes and paths
+			for (Route rte : routes) {
+				out.putInt(rte.getRouteId());
+				out.putInt(stringIndex.get(rte.getName()));
+				out.putInt(rte.getPaths().size());
+			}
+			int pathIndex = 0;
+			for (Route rte : routes) {
+				for (RoutePath rtePth : rte.getPaths()) {
+					PathGeometry geom = rtePth.getGeometry();
+					out.putInt(rtePth.getPathId());
+					out.putInt(stringIndex.get(rtePth.getName()));
+					out.putInt(geom.size());
+					out.putInt(geom.getNumStops());
+					out.putInt(pathServices.get(pathIndex++).size());
+				}
+			}
+
+			// vertices and stops
+			for (Route rte : routes) {
+				for (RoutePath rtePth : rte.getPaths()) {
+					PathGeometry geom = rtePth.getGeometry();
+					for (int vertex = 0; vertex < geom.size(); vertex++) {
+						out.putInt(geom.getLatE6(vertex));
+					}
+				}
+			}
+			for (Route rte : routes) {
+				for (RoutePath rtePth : rte.getPaths()) {
+					PathGeometry geom = rtePth.getGeometry();
+					for (int vertex = 0; vertex < geom.size(); vertex++) {
+						out.putInt(geom.getLonE6(vertex));
+					}
+				}
+			}
+			for (Route rte : routes) {
+				for (RoutePath rtePth : rte.getPaths()) {
+					PathGeometry geom = rtePth.getGeometry();
+					for (int index = 0; index < geom.getNumStops(); index++) {
+						Stop st = geom.getStop(index);
+						out.putInt(geom.getStopVertex(index));
+						out.putInt(st.getStationId());
+						out.putInt(stringIndex.get(st.getName()));
+					}
+				}
+			}
+
+			// periods and services
+			for (Period pd : periods) {
+				out.putInt(pd.getDayMask());
+				out.putInt(pd.getTimePeriod().getStartSeconds());
+				out.putInt(pd.getTimePeriod().getEndSeconds());
+			}
+			pathIndex = 0;
+			for (Route rte : routes) {
+				for (RoutePath rtePth : rte.getPaths()) {
+					PathGeometry geom = rtePth.getGeometry();
+					for (Service svc : pathServices.get(pathIndex++)) {
+						int[] stopRange = findStops(geom, svc);
+						out.putInt(svc.getServiceId());
+						out.putInt(periodIndex.get(svc.getPeriod()
+								.getOrdinal()));
+						out.putInt(stopRange[0]);
+						out.putInt(stopRange[1]);
+					}
+				}
+			}
+
+			// rows
+			for (ArrayList<Service> svcs : pathServices) {
+				for (Service svc : svcs) {
+					for (ServiceStop svcStop : svc.getServiceStops()) {
+						out.putInt(svcStop.getStop().getStationId());
+					}
+				}
+			}
+			for (DataType dType : DataType.values()) {
+				for (ArrayList<Service> svcs : pathServices) {
+					for (Service svc : svcs) {
+						for (ServiceStop svcStop : svc.getServiceStops()) {
+							out.putInt(svcStop.getDataValue(dType));
+						}
+					}
+				}
+			}
+			for (ArrayList<Service> svcs : pathServices) {
+				for (Service svc : svcs) {
+					for (ServiceStop svcStop : svc.getServiceStops()) {
+						int present = 0;
+						for (DataType dType : DataType.values()) {
+							if (svcStop.hasData(dType)) {
+								present |= 1 << dType.getOrdinal();
+							}
+						}
+						out.putByte(present);
+					}
+				}
+			}
+			out.flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Loads a snapshot file into the specified database, which must be empty.
+	 * The whole file is read before the first route is added, so a snapshot
+	 * that cannot be read leaves the database without routes. In the
+	 * application this must be called on the event dispatch thread.
+	 * 
+	 * @param file
+	 *            the snapshot file
+	 * @param objs
+	 *            the database to load into
+	 * @throws IOException
+	 *             if the file cannot be read or is not a valid snapshot
+	 * @throws IllegalStateException
+	 *             if the database already holds routes
+	 */
+	public static void read(File file, SystemObjects objs) throws IOException {
+		if (!objs.getAllRoutes().isEmpty()) {
+			throw new IllegalStateException("The database is not empty.");
+		}
+
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ);
+		List<Route> routes;
+		try {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file.getName()
+						+ " is too large to be a snapshot.");
+			}
+			MappedByteBuffer buffer = channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			routes = readRoutes(buffer, objs.getRidershipStore());
+		} catch (BufferUnderflowException ex) {
+			throw new IOException(file.getName() + " is truncated.", ex);
+		} catch (IndexOutOfBoundsException ex) {
+			throw new IOException(file.getName() + " is not a valid snapshot.",
+					ex);
+		} catch (IllegalArgumentException ex) {
+			throw new IOException(file.getName() + " is not a valid snapshot.",
+					ex);
+		} finally {
+			channel.close();
+		}
+
+		for (Route rte : routes) {
+			objs.addRoute(rte);
+		}
+		objs.fireDataChanged();
+	}
+
+	/**
+	 * Builds the routes of a snapshot, with their paths, stops, and services.
+	 * The rider data of the services is added to the specified store once
+	 * everything else was read and checked, so that a snapshot that is
+	 * rejected leaves the store unchanged.
+	 * 
+	 * @param buffer
+	 *            the mapped snapshot file
+	 * @param store
+	 *            the {@code RidershipStore} of the database being loaded
+	 * @return the routes of the snapshot in order.
+	 * @throws IOException
+	 *             if the header does not belong to a readable snapshot
+	 */
+	private static List<Route> readRoutes(ByteBuffer buffer,
+			RidershipStore store) throws IOException {
+		int[] header = readInts(buffer, HEADER_INTS);
+		if (header[0] != MAGIC) {
+			throw new IOException("The file is not a MASS snapshot.");
+		} else if (header[1] != VERSION) {
+			throw new IOException("Snapshot version " + header[1]
+					+ " is not supported.");
+		} else if (header[2] != DataType.count()) {
+			throw new IOException("The snapshot has " + header[2]
+					+ " data types instead of " + DataType.count() + ".");
+		}
+		int numStrings = header[3];
+		int stringBytes = header[4];
+		int numRoutes = header[5];
+		int numPaths = header[6];
+		int numVertices = header[7];
+		int numStops = header[8];
+		int numPeriods = header[9];
+		int numServices = header[10];
+		int numRows = header[11];
+		for (int index = 3; index < HEADER_INTS; index++) {
+			if (header[index] < 0) {
+				throw new IOException("The snapshot header is corrupt.");
+			}
+		}
+
+		String[] strings = readStrings(buffer, numStrings, stringBytes);
+		int[] routeFields = readInts(buffer, sectionLength(buffer, numRoutes,
+				3));
+		int[] pathFields = readInts(buffer, sectionLength(buffer, numPaths,
+				5));
+
+		IntBuffer lats = buffer.asIntBuffer();
+		skipInts(buffer, sectionLength(buffer, numVertices, 1));
+		IntBuffer lons = buffer.asIntBuffer();
+		skipInts(buffer, sectionLength(buffer, numVertices, 1));
+
+		int[] stopFields = readInts(buffer, sectionLength(buffer, numStops,
+				3));
+		Period[] periods = readPeriods(buffer, numPeriods);
+		int[] serviceFields = readInts(buffer, sectionLength(buffer,
+				numServices, 4));
+
+		int[] stopIds = readInts(buffer, sectionLength(buffer, numRows, 1));
+		int[][] values = new int[DataType.count()][];
+		for (int ord = 0; ord < values.length; ord++) {
+			values[ord] = readInts(buffer, sectionLength(buffer, numRows, 1));
+		}
+		byte[] present = new byte[numRows];
+		buffer.get(present);
+
+		// rows of each service, which are added to the store at once
+		int[] svcRows = new int[numServices];
+		long totalRows = 0;
+		for (int svc = 0; svc < numServices; svc++) {
+			svcRows[svc] = serviceFields[svc * 4 + 3]
+					- serviceFields[svc * 4 + 2] + 1;
+			if (svcRows[svc] <= 0) {
+				throw new IOException("A service ends before its origin.");
+			}
+			totalRows += svcRows[svc];
+		}
+		if (totalRows != numRows) {
+			throw new IOException("The services do not match the rows.");
+		}
+
+		// the services are built over the rows that the store will give them,
+		// and are moved if it gives them others
+		int firstRow = store.getNumRows();
+		int row = firstRow;
+
+		ArrayList<Route> routes = new ArrayList<Route>(numRoutes);
+		ArrayList<Service> services = new ArrayList<Service>(numServices);
+		int path = 0;
+		int vertices = 0;
+		int stop = 0;
+		int svc = 0;
+		for (int rteIndex = 0; rteIndex < numRoutes; rteIndex++) {
+			int numRtePths = routeFields[rteIndex * 3 + 2];
+			ArrayList<RoutePath> rtePths = new ArrayList<RoutePath>(
+					numRtePths);
+			Route rte = new Route(routeFields[rteIndex * 3],
+					strings[routeFields[rteIndex * 3 + 1]], rtePths);
+
+			for (int end = path + numRtePths; path < end; path++) {
+				RoutePath rtePth = new RoutePath(rte,
+						strings[pathFields[path * 5 + 1]],
+						pathFields[path * 5]);
+
+				int numPthVertices = pathFields[path * 5 + 2];
+				int numPthStops = pathFields[path * 5 + 3];
+				int numPthServices = pathFields[path * 5 + 4];
+				if (numPthVertices < 0 || numPthStops < 0
+						|| numPthServices < 0) {
+					throw new IOException("The snapshot is corrupt.");
+				}
+				int[] pathLats = new int[numPthVertices];
+				int[] pathLons = new int[pathLats.length];
+				lats.get(pathLats);
+				lons.get(pathLons);
+				vertices += numPthVertices;
+
+				Stop[] stps = new Stop[numPthStops];
+				int[] stpVertices = new int[stps.length];
+				for (int index = 0; index < stps.length; index++, stop++) {
+					int vertex = stopFields[stop * 3];
+					if (vertex < 0 || vertex >= numPthVertices) {
+						throw new IOException("A stop is not on its path.");
+					} else if (index > 0 && vertex <= stpVertices[index - 1]) {
+						throw new IOException("Stops are out of order.");
+					}
+					stpVertices[index] = vertex;
+					stps[index] = new Stop(rtePth, pathLats[vertex]
+							/ PathGeometry.MICRODEGREES, pathLons[vertex]
+							/ PathGeometry.MICRODEGREES,
+							strings[stopFields[stop * 3 + 2]],
+							stopFields[stop * 3 + 1]);
+				}
+				rtePth.setGeometry(PathGeometry.fromArrays(pathLats, pathLons,
+						stps, stpVertices));
+
+				List<Stop> stpList = Arrays.asList(stps);
+				int lastSvc = svc + numPthServices;
+				for (; svc < lastSvc; svc++) {
+					int ogn = serviceFields[svc * 4 + 2];
+					int dst = serviceFields[svc * 4 + 3];
+					if (ogn < 0 || dst >= stps.length) {
+						throw new IOException("A service is not on its path.");
+					}
+					Service service = new Service(serviceFields[svc * 4],
+							periods[serviceFields[svc * 4 + 1]], stps[ogn],
+							stps[dst], rtePth, stpList.subList(ogn, dst + 1),
+							store, row);
+					rtePth.addService(service);
+					services.add(service);
+					row += svcRows[svc];
+				}
+				rtePths.add(rtePth);
+			}
+			routes.add(rte);
+		}
+		if (path != numPaths || vertices != numVertices || stop != numStops
+				|| svc != numServices) {
+			throw new IOException("The routes do not match the header.");
+		}
+
+		int addedRow = store.addServices(svcRows, stopIds, values, present);
+		if (addedRow != firstRow) {
+			for (Service service : services) {
+				service.moveRows(store, addedRow - firstRow);
+			}
+		}
+		return routes;
+	}
+
+	/**
+	 * Reads the string table of a snapshot.
+	 * 
+	 * @param buffer
+	 *            the snapshot, positioned on the string table
+	 * @param numStrings
+	 *            number of strings in the table
+	 * @param stringBytes
+	 *            total length of the strings in bytes
+	 * @return the strings.
+	 * @throws IOException
+	 *             if the table does not fit in the snapshot
+	 */
+	private static String[] readStrings(ByteBuffer buffer, int numStrings,
+			int stringBytes) throws IOException {
+		int[] ends = readInts(buffer, sectionLength(buffer, numStrings, 1));
+		if (stringBytes > buffer.remaining()) {
+			throw new IOException("The string table is truncated.");
+		}
+		byte[] bytes = new byte[stringBytes];
+		buffer.get(bytes);
+		buffer.position(buffer.position() + padding(stringBytes));
+
+		String[] strings = new String[numStrings];
+		int start = 0;
+		for (int index = 0; index < numStrings; index++) {
+			strings[index] = new String(bytes, start, ends[index] - start,
+					StandardCharsets.UTF_8);
+			start = ends[index];
+		}
+		return strings;
+	}
+
+	/**
+	 * Reads the period table of a snapshot, registering every period.
+	 * 
+	 * @param buffer
+	 *            the snapshot, positioned on the period table
+	 * @param numPeriods
+	 *            number of periods in the table
+	 * @return the canonical periods.
+	 * @throws IOException
+	 *             if the table does not fit in the snapshot
+	 */
+	private static Period[] readPeriods(ByteBuffer buffer, int numPeriods)
+			throws IOException {
+		int[] fields = readInts(buffer, sectionLength(buffer, numPeriods, 3));
+		Period[] periods = new Period[numPeriods];
+		for (int index = 0; index < numPeriods; index++) {
+			int dayMask = fields[index * 3];
+			Day[] days = new Day[Integer.bitCount(dayMask)];
+			int dayIndex = 0;
+			for (int seq = 0; seq < DAYS_BY_SEQUENCE.length; seq++) {
+				if ((dayMask & (1 << seq)) != 0) {
+					days[dayIndex++] = DAYS_BY_SEQUENCE[seq];
+				}
+			}
+			TimePeriod tmPd = TimePeriod.valueOf(
+					Time.fromSecondsOfDay(fields[index * 3 + 1]),
+					Time.fromSecondsOfDay(fields[index * 3 + 2]));
+			periods[index] = Period.valueOf(days, tmPd);
+		}
+		return periods;
+	}
+
+	/**
+	 * Reads a section of {@code int}s with a single bulk copy.
+	 * 
+	 * @param buffer
+	 *            the snapshot, positioned on the section
+	 * @param count
+	 *            number of {@code int}s in the section
+	 * @return the {@code int}s of the section.
+	 */
+	private static int[] readInts(ByteBuffer buffer, int count) {
+		int[] ints = new int[count];
+		buffer.asIntBuffer().get(ints);
+		skipInts(buffer, count);
+		return ints;
+	}
+
+	/**
+	 * Computes the number of {@code int}s in a section of a snapshot from the
+	 * count of its entries, checking that the rest of the snapshot can hold
+	 * them. A corrupt count thus fails before it can overflow or allocate an
+	 * oversized array.
+	 * 
+	 * @param buffer
+	 *            the snapshot, positioned on the section
+	 * @param count
+	 *            number of entries in the section
+	 * @param fields
+	 *            number of {@code int}s per entry
+	 * @return the number of {@code int}s in the section.
+	 * @throws IOException
+	 *             if the count is negative or the section does not fit
+	 */
+	private static int sectionLength(ByteBuffer buffer, int count, int fields)
+			throws IOException {
+		long length = (long) count * fields;
+		if (count < 0 || length > buffer.remaining() / 4) {
+			throw new IOException("A section of the snapshot is truncated.");
+		}
+		return (int) length;
+	}
+
+	/**
+	 * Moves the position of a buffer past the specified number of
+	 * {@code int}s.
+	 * 
+	 * @param buffer
+	 *            the snapshot
+	 * @param count
+	 *            number of {@code int}s to skip
+	 */
+	private static void skipInts(ByteBuffer buffer, int count) {
+		buffer.position(buffer.position() + count * 4);
+	}
+
+	/**
+	 * Returns the number of bytes that follow a byte section to align the next
+	 * section on 4 bytes.
+	 * 
+	 * @param length
+	 *            length of the byte section
+	 * @return the number of padding bytes.
+	 */
+	private static int padding(int length) {
+		return -length & 3;
+	}
+
+	/**
+	 * Adds a string to the string table if it is not there yet.
+	 * 
+	 * @param str
+	 *            the string
+	 * @param stringIndex
+	 *            position of every string in the table
+	 * @param strings
+	 *            the encoded strings of the table in order
+	 */
+	private static void indexString(String str,
+			HashMap<String, Integer> stringIndex, ArrayList<byte[]> strings) {
+		if (!stringIndex.containsKey(str)) {
+			stringIndex.put(str, strings.size());
+			strings.add(str.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Finds the positions of the origin and destination stop of a service
+	 * among the stops of its path.
+	 * 
+	 * @param geom
+	 *            geometry of the path of the service
+	 * @param svc
+	 *            the service
+	 * @return the positions of the origin and the destination stop, or
+	 *         {@code null} if the service no longer matches its path.
+	 */
+	private static int[] findStops(PathGeometry geom, Service svc) {
+		int ogn = geom.indexOfStop(svc.getOriginStop());
+		int dst = geom.indexOfStop(svc.getDestinationStop());
+		if (ogn < 0 || dst < ogn
+				|| dst - ogn + 1 != svc.getNumServiceStops()) {
+			return null;
+		}
+		return new int[] { ogn, dst };
+	}
+}
@@ -47,6 +47,26 @@ public abstract class Data {
 		return myType;
 	}
 
+	/**
+	 * Creates the {@code Data} object of the appropriate subclass for the
+	 * specified {@code DataType} and value.
+	 * 
+	 * @param typ
+	 *            {@code DataType} of the object
+	 * @param val
+	 *            the data value
+	 * @return a new {@code Data} object for the specified type and value.
+	 */
+	public static Data create(DataType typ, int val) {
+		if (typ == DataType.BOARDINGS) {
+			return new Boardings(val);
+		} else if (typ == DataType.ALIGHTINGS) {
+			return new Alightings(val);
+		} else {
+			return new Load(val);
+		}
+	}
+
 	/**
 	 * Returns a {@code String} representation of this {@code Data} object
 	 * including its data type and value.
@@ -25,22 +25,26 @@ public class DataType {
 	 * {@code DataType} object for load, the amount of people on a bus between
 	 * two stops.
 	 */
-	public static final DataType LOAD = new DataType("Load", DataType.SEGEMENT);
+	public static final DataType LOAD = new DataType("Load", DataType.SEGEMENT,
+			0);
 	/**
 	 * {@code DataType} object for boardings, the amount of people entering a
 	 * bus at a specific stop.
 	 */
 	public static final DataType BOARDINGS = new DataType("Boardings",
-			DataType.POINT);
+			DataType.POINT, 1);
 	/**
 	 * {@code DataType} object for alightings, the amount of people exiting a
 	 * bus at a specific stop.
 	 */
 	public static final DataType ALIGHTINGS = new DataType("Alightings",
-			DataType.POINT);
+			DataType.POINT, 2);
+
+	private static final DataType[] VALUES = { LOAD, BOARDINGS, ALIGHTINGS };
 
 	private String name;
 	private int type;
+	private int ordinal;
 
 	/**
 	 * Constructs a {@code DataType} object. This is a private constructor and
@@ -49,10 +53,42 @@ public class DataType {
 	 * 
 	 * @param nm
 	 * @param typ
+	 * @param ord
+	 *            position of this data type in {@code DataType.values()}
 	 */
-	private DataType(String nm, int typ) {
+	private DataType(String nm, int typ, int ord) {
 		name = nm;
 		type = typ;
+		ordinal = ord;
+	}
+
+	/**
+	 * Returns the number of data types.
+	 * 
+	 * @return the number of data types.
+	 */
+	public static int count() {
+		return VALUES.length;
+	}
+
+	/**
+	 * Returns all data types ordered by their ordinal.
+	 * 
+	 * @return a new array of all data types.
+	 */
+	public static DataType[] values() {
+		return VALUES.clone();
+	}
+
+	/**
+	 * Returns the data type with the specified ordinal.
+	 * 
+	 * @param ord
+	 *            ordinal of the data type
+	 * @return the data type with the specified ordinal.
+	 */
+	public static DataType valueOf(int ord) {
+		return VALUES[ord];
 	}
 
 	/**
@@ -74,6 +110,16 @@ public class DataType {
 		return type;
 	}
 
+	/**
+	 * Returns the ordinal of this {@code DataType}. Ordinals are dense,
+	 * starting at {@code 0}, and may be used as array indices.
+	 * 
+	 * @return the ordinal of this {@code DataType}.
+	 */
+	public int getOrdinal() {
+		return ordinal;
+	}
+
 	/**
 	 * Returns a {@code String} representation of this {@code DataType} in the
 	 * form of its name.
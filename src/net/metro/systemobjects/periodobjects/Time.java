@@ -7,16 +7,15 @@
 package net.metro.systemobjects.periodobjects;
 
 /**
- * Object to represent a clock time (in 24-hr format). Contains variables for
- * the number of hours, minutes, and seconds for a time.
+ * Object to represent a clock time (in 24-hr format). The time is stored as a
+ * single number of seconds since midnight, so that comparisons and interval
+ * lookups need no arithmetic; hours, minutes, and seconds are derived from it.
  * 
  * @author Sean Harger
  * 
  */
 public class Time implements Comparable<Time> {
-	public int hrs;
-	public int mins;
-	public int secs;
+	private final int secondsOfDay;
 
 	/**
 	 * Constructs a {@code Time} object.
@@ -29,9 +28,7 @@ public class Time implements Comparable<Time> {
 	 *            integer number of seconds
 	 */
 	public Time(int h, int m, int s) {
-		hrs = h;
-		mins = m;
-		secs = s;
+		secondsOfDay = h * 3600 + m * 60 + s;
 	}
 
 	/**
@@ -46,13 +43,44 @@ public class Time implements Comparable<Time> {
 		this(h, m, 0);
 	}
 
+	/**
+	 * Creates a {@code Time} object from a number of seconds since midnight.
+	 * 
+	 * @param secsOfDay
+	 *            seconds since midnight ({@code 86400} for the end of the day)
+	 * @return the corresponding {@code Time} object.
+	 */
+	public static Time fromSecondsOfDay(int secsOfDay) {
+		return new Time(0, 0, secsOfDay);
+	}
+
+	/**
+	 * Parses a {@code Time} in the hh:mm or hh:mm:ss format.
+	 * 
+	 * @param str
+	 *            {@code String} to parse
+	 * @return the parsed {@code Time} object.
+	 * @throws NumberFormatException
+	 *             if the string is not in the hh:mm or hh:mm:ss format
+	 */
+	public static Time parse(String str) {
+		String[] parts = str.trim().split(":");
+		if (parts.length < 2 || parts.length > 3) {
+			throw new NumberFormatException("Invalid time \"" + str + "\".");
+		}
+		int h = Integer.parseInt(parts[0]);
+		int m = Integer.parseInt(parts[1]);
+		int s = parts.length == 3 ? Integer.parseInt(parts[2]) : 0;
+		return new Time(h, m, s);
+	}
+
 	/**
 	 * Returns the hours of this {@code Time}.
 	 * 
 	 * @return the hours of this {@code Time}.
 	 */
 	public int getHours() {
-		return hrs;
+		return secondsOfDay / 3600;
 	}
 
 	/**
@@ -61,7 +89,7 @@ public class Time implements Comparable<Time> {
 	 * @return the minutes of this {@code Time}.
 	 */
 	public int getMins() {
-		return mins;
+		return secondsOfDay / 60 % 60;
 	}
 
 	/**
@@ -70,7 +98,16 @@ public class Time implements Comparable<Time> {
 	 * @return the seconds of this {@code Time}.
 	 */
 	public int getSecs() {
-		return secs;
+		return secondsOfDay % 60;
+	}
+
+	/**
+	 * Returns this {@code Time} as a single number of seconds since midnight.
+	 * 
+	 * @return the number of seconds since midnight.
+	 */
+	public int getSecondsOfDay() {
+		return secondsOfDay;
 	}
 
 	/**
@@ -81,7 +118,7 @@ public class Time implements Comparable<Time> {
 	 */
 	public String toString() {
 		String str = new String();
-		str += String.format("%02d:%02d", hrs, mins);
+		str += String.format("%02d:%02d", getHours(), getMins());
 		return str;
 	}
 
@@ -112,27 +149,6 @@ public class Time implements Comparable<Time> {
 	 *         {@code Time} object
 	 */
 	public int compareTo(Time t) {
-		if (this.hrs < t.getHours()) {
-			return -1;
-		} else if (this.hrs > t.getHours()) {
-			return 1;
-		} else // which means hours are equal
-		{
-			if (this.mins < t.getMins()) {
-				return -1;
-			} else if (this.mins > t.getMins()) {
-				return 1;
-			} else // which means hours, mins are equal
-			{
-				if (this.secs < t.getSecs()) {
-					return -1;
-				} else if (this.secs > t.getSecs()) {
-					return 1;
-				} else // which means hours, mins, and secs are equal
-				{
-					return 0;
-				}
-			}
-		}
+		return Integer.compare(this.secondsOfDay, t.secondsOfDay);
 	}
 }
@@ -6,6 +6,10 @@
  ******************************************************************************/
 package net.metro.systemobjects.periodobjects;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+
 /**
  * Object to describe a duration between two {@code Time} objects. It contains
  * several static {@code TimePeriod} objects which should be used in the
@@ -16,37 +20,62 @@ package net.metro.systemobjects.periodobjects;
  * 
  */
 public class TimePeriod implements Comparable<TimePeriod> {
+	// registry of canonical time periods, keyed by packed start/end seconds
+	private static final HashMap<Long, TimePeriod> registry = new HashMap<Long, TimePeriod>();
+	private static final ArrayList<TimePeriod> byOrdinal = new ArrayList<TimePeriod>();
+
 	/**
 	 * {@code TimePeriod} object representing early hours (0:00 - 6:00)
 	 */
-	public static final TimePeriod EARLY = new TimePeriod(new Time(0, 0, 0),
-			new Time(6, 0, 0));
+	public static final TimePeriod EARLY = TimePeriod.valueOf(
+			new Time(0, 0, 0), new Time(6, 0, 0));
 	/**
 	 * {@code TimePeriod} object representing morning rush hours (6:00 - 9:00)
 	 */
-	public static final TimePeriod MORNINGRUSH = new TimePeriod(new Time(6, 0,
-			0), new Time(9, 0, 0));
+	public static final TimePeriod MORNINGRUSH = TimePeriod.valueOf(new Time(
+			6, 0, 0), new Time(9, 0, 0));
 	/**
 	 * {@code TimePeriod} object representing mid-day hours (9:00 - 15:00)
 	 */
-	public static final TimePeriod BASE = new TimePeriod(new Time(9, 0, 0),
-			new Time(15, 0, 0));
+	public static final TimePeriod BASE = TimePeriod.valueOf(
+			new Time(9, 0, 0), new Time(15, 0, 0));
 	/**
 	 * {@code TimePeriod} object representing evening rush hours (15:00 - 18:00)
 	 */
-	public static final TimePeriod EVENINGRUSH = new TimePeriod(new Time(15, 0,
-			0), new Time(18, 0, 0));
+	public static final TimePeriod EVENINGRUSH = TimePeriod.valueOf(new Time(
+			15, 0, 0), new Time(18, 0, 0));
 	/**
 	 * {@code TimePeriod} object representing late hours (18:00 - 24:00)
 	 */
-	public static final TimePeriod LATE = new TimePeriod(new Time(18, 0, 0),
-			new Time(24, 0, 0));
+	public static final TimePeriod LATE = TimePeriod.valueOf(new Time(18, 0,
+			0), new Time(24, 0, 0));
+
+	/**
+	 * Total chronological ordering of {@code TimePeriod}s by start time, then
+	 * by end time. Unlike {@code compareTo()}, which reports containment, this
+	 * ordering is suitable for sorting.
+	 */
+	public static final Comparator<TimePeriod> CHRONOLOGICAL =
+			new Comparator<TimePeriod>() {
+				public int compare(TimePeriod a, TimePeriod b) {
+					int startCompare = Integer.compare(a.getStartSeconds(),
+							b.getStartSeconds());
+					if (startCompare != 0) {
+						return startCompare;
+					}
+					return Integer.compare(a.getEndSeconds(),
+							b.getEndSeconds());
+				}
+			};
 
 	public Time startTm;
 	public Time endTm;
+	private int ordinal;
 
 	/**
-	 * Constructs a {@code TimePeriod} object.
+	 * Constructs a {@code TimePeriod} object. The new object is not the
+	 * canonical instance for its start and end times; use {@code valueOf()} to
+	 * obtain that.
 	 * 
 	 * @param strt
 	 *            {@code Time} representing the beginning of this time period
@@ -54,8 +83,108 @@ public class TimePeriod implements Comparable<TimePeriod> {
 	 *            {@code Time} representing the end of this time period
 	 */
 	public TimePeriod(Time strt, Time end) {
+		this(strt, end, -1);
+	}
+
+	/**
+	 * Constructs a {@code TimePeriod} object with the specified ordinal.
+	 * 
+	 * @param strt
+	 *            {@code Time} representing the beginning of this time period
+	 * @param end
+	 *            {@code Time} representing the end of this time period
+	 * @param ord
+	 *            ordinal of this time period, or {@code -1} if it is not
+	 *            canonical
+	 */
+	private TimePeriod(Time strt, Time end, int ord) {
 		startTm = strt;
 		endTm = end;
+		ordinal = ord;
+	}
+
+	/**
+	 * Returns the canonical {@code TimePeriod} for the specified start and end
+	 * times, creating and registering it if necessary. Canonical time periods
+	 * are numbered in order of registration, starting with the five standard
+	 * periods {@code EARLY} through {@code LATE}.
+	 * 
+	 * @param strt
+	 *            {@code Time} representing the beginning of the time period
+	 * @param end
+	 *            {@code Time} representing the end of the time period
+	 * @return the canonical {@code TimePeriod} for the specified times.
+	 */
+	public static synchronized TimePeriod valueOf(Time strt, Time end) {
+		Long key = Long.valueOf(((long) toSeconds(strt) << 32)
+				| toSeconds(end));
+		TimePeriod tmPd = registry.get(key);
+		if (tmPd == null) {
+			tmPd = new TimePeriod(strt, end, byOrdinal.size());
+			registry.put(key, tmPd);
+			byOrdinal.add(tmPd);
+		}
+		return tmPd;
+	}
+
+	/**
+	 * Returns the canonical {@code TimePeriod} equivalent to the specified one.
+	 * 
+	 * @param tmPd
+	 *            {@code TimePeriod} to canonicalize
+	 * @return the canonical {@code TimePeriod} with the same start and end
+	 *         times.
+	 */
+	public static TimePeriod valueOf(TimePeriod tmPd) {
+		if (tmPd.ordinal != -1) {
+			return tmPd;
+		}
+		return valueOf(tmPd.getStartTime(), tmPd.getEndTime());
+	}
+
+	/**
+	 * Returns the canonical {@code TimePeriod} with the specified ordinal.
+	 * 
+	 * @param ord
+	 *            ordinal of the time period
+	 * @return the canonical {@code TimePeriod} with the specified ordinal.
+	 */
+	public static synchronized TimePeriod fromOrdinal(int ord) {
+		return byOrdinal.get(ord);
+	}
+
+	/**
+	 * Returns the number of canonical time periods registered so far.
+	 * 
+	 * @return the number of canonical time periods.
+	 */
+	public static synchronized int count() {
+		return byOrdinal.size();
+	}
+
+	/**
+	 * Converts the specified {@code Time} to seconds since midnight.
+	 * 
+	 * @param t
+	 *            {@code Time} to convert
+	 * @return the number of seconds since midnight.
+	 */
+	private static int toSeconds(Time t) {
+		return t.getSecondsOfDay();
+	}
+
+	/**
+	 * Returns the ordinal of the canonical {@code TimePeriod} equivalent to
+	 * this one. Ordinals are dense, starting at {@code 0}, and may be used as
+	 * array indices.
+	 * 
+	 * @return the ordinal of this time period.
+	 */
+	public int getOrdinal() {
+		if (ordinal != -1) {
+			return ordinal;
+		}
+		return valueOf(this).getOrdinal();
 	}
 
 	/**
@@ -80,6 +209,53 @@ public class TimePeriod implements Comparable<TimePeriod> {
 		return endTm;
 	}
 
+	/**
+	 * Returns the start of this {@code TimePeriod} in seconds since midnight.
+	 * 
+	 * @return the start of this time period in seconds since midnight.
+	 */
+	public int getStartSeconds() {
+		return startTm.getSecondsOfDay();
+	}
+
+	/**
+	 * Returns the end of this {@code TimePeriod} in seconds since midnight.
+	 * 
+	 * @return the end of this time period in seconds since midnight.
+	 */
+	public int getEndSeconds() {
+		return endTm.getSecondsOfDay();
+	}
+
+	/**
+	 * Determines whether this {@code TimePeriod} overlaps the specified time
+	 * window. Time periods are half-open, so a period ending at 9:00 does not
+	 * overlap a window starting at 9:00.
+	 * 
+	 * @param startSecs
+	 *            start of the window in seconds since midnight
+	 * @param endSecs
+	 *            end of the window in seconds since midnight
+	 * @return {@code true} if this time period overlaps the window.
+	 */
+	public boolean overlaps(int startSecs, int endSecs) {
+		return getStartSeconds() < endSecs && startSecs < getEndSeconds();
+	}
+
+	/**
+	 * Determines whether this {@code TimePeriod} lies entirely within the
+	 * specified time window.
+	 * 
+	 * @param startSecs
+	 *            start of the window in seconds since midnight
+	 * @param endSecs
+	 *            end of the window in seconds since midnight
+	 * @return {@code true} if this time period lies within the window.
+	 */
+	public boolean isWithin(int startSecs, int endSecs) {
+		return startSecs <= getStartSeconds() && getEndSeconds() <= endSecs;
+	}
+
 	/**
 	 * Determines whether the specified {@code TimePeriod} is equivalent to this
 	 * {@code TimePeriod}
@@ -97,6 +273,27 @@ public class TimePeriod implements Comparable<TimePeriod> {
 		}
 	}
 
+	/**
+	 * Determines whether the specified object is a {@code TimePeriod} with the
+	 * same start and end times as this one.
+	 * 
+	 * @param obj
+	 *            object to compare this with
+	 * @return {@code true} if the two time periods are equivalent.
+	 */
+	public boolean equals(Object obj) {
+		return obj instanceof TimePeriod && equals((TimePeriod) obj);
+	}
+
+	/**
+	 * Returns a hash code consistent with {@code equals()}.
+	 * 
+	 * @return a hash code for this time period.
+	 */
+	public int hashCode() {
+		return toSeconds(startTm) * 31 + toSeconds(endTm);
+	}
+
 	/**
 	 * Returns a {@code String} representation of this {@code TimePeriod} in the
 	 * form of its start and end times.